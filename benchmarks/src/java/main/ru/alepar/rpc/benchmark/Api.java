@@ -0,0 +1,51 @@
+package ru.alepar.rpc.benchmark;
+
+import java.io.Serializable;
+
+import ru.alepar.rpc.api.RpcFuture;
+
+/**
+ * interfaces exposed by benchmarked servers and clients
+ */
+public class Api {
+
+    public interface Sink {
+        void empty();
+        void primitives(int i, long l, double d);
+        void string(String s);
+        void bytes(byte[] bytes);
+        void object(Payload payload);
+    }
+
+    public interface Echo {
+        RpcFuture<Integer> echo(int i);
+    }
+
+    public static class Payload implements Serializable {
+        public final String name;
+        public final int[] values;
+
+        public Payload(String name, int[] values) {
+            this.name = name;
+            this.values = values;
+        }
+    }
+
+    /**
+     * does nothing, so that benchmarks measure transport, not implementation
+     */
+    public static class NoopSink implements Sink {
+        @Override public void empty() {}
+        @Override public void primitives(int i, long l, double d) {}
+        @Override public void string(String s) {}
+        @Override public void bytes(byte[] bytes) {}
+        @Override public void object(Payload payload) {}
+    }
+
+    /**
+     * argument shapes used across benchmarks
+     */
+    public static final String STRING = "the quick brown fox jumps over the lazy dog";
+    public static final byte[] BYTES = new byte[1024];
+    public static final Payload PAYLOAD = new Payload("payload", new int[] {1, 2, 3, 4, 5, 6, 7, 8});
+}
@@ -0,0 +1,84 @@
+package ru.alepar.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.alepar.rpc.api.DefaultRpcFuture;
+import ru.alepar.rpc.api.RpcClient;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcServer;
+
+/**
+ * end-to-end path over loopback: proxy - encode - wire - decode - invoke
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallBenchmark {
+
+    private RpcServer server;
+    private RpcClient client;
+    private Api.Sink sink;
+    private Api.Echo echo;
+
+    @Setup
+    public void setUp() {
+        server = Loopback.server()
+                .addObject(Api.Sink.class, new Api.NoopSink())
+                .addObject(Api.Echo.class, new Api.Echo() {
+                    @Override
+                    public RpcFuture<Integer> echo(int i) {
+                        return DefaultRpcFuture.succeeded(i);
+                    }
+                })
+                .build();
+        client = Loopback.client().build();
+        sink = client.getRemote().getProxy(Api.Sink.class);
+        echo = client.getRemote().getProxy(Api.Echo.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void oneWayEmpty() {
+        sink.empty();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void oneWayPrimitives() {
+        sink.primitives(42, 42l, 42.0);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void oneWayObject() {
+        sink.object(Api.PAYLOAD);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Integer roundTrip() throws Exception {
+        return echo.echo(42).get();
+    }
+}
@@ -0,0 +1,94 @@
+package ru.alepar.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.alepar.rpc.common.PrimitiveTypesClassResolver;
+import ru.alepar.rpc.common.codec.Codec;
+import ru.alepar.rpc.common.codec.CodecFactory;
+import ru.alepar.rpc.common.codec.Codecs;
+import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.RpcMessage;
+
+import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCachingConcurrentResolver;
+
+/**
+ * per-message cost of turning InvocationRequest into bytes and back, for various argument shapes <br/>
+ * codecs with class dictionary are measured past the first message, once classes are already described
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"binary", "binaryWithClassDictionary", "serialization", "serializationWithClassDictionary"})
+    public String codecName;
+
+    @Param({"empty", "primitives", "string", "bytes", "object"})
+    public String shape;
+
+    private Codec codec;
+    private Codec receiver;
+    private RpcMessage message;
+    private ChannelBuffer encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        CodecFactory factory = codecFactory(codecName);
+        codec = factory.newCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)));
+        receiver = factory.newCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)));
+        message = new InvocationRequest(InvocationRequest.ONE_WAY, 1, argsOf(shape));
+        receiver.decode(codec.encode(message));
+        encoded = codec.encode(message);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() throws Exception {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public RpcMessage decode() throws Exception {
+        return receiver.decode(encoded.duplicate());
+    }
+
+    private static CodecFactory codecFactory(String name) {
+        if ("binary".equals(name)) {
+            return Codecs.binary();
+        } else if ("binaryWithClassDictionary".equals(name)) {
+            return Codecs.binaryWithClassDictionary();
+        } else if ("serialization".equals(name)) {
+            return Codecs.serialization();
+        }
+        return Codecs.serializationWithClassDictionary();
+    }
+
+    static Object[] argsOf(String shape) {
+        if ("empty".equals(shape)) {
+            return new Object[0];
+        } else if ("primitives".equals(shape)) {
+            return new Object[] {42, 42l, 42.0};
+        } else if ("string".equals(shape)) {
+            return new Object[] {Api.STRING};
+        } else if ("bytes".equals(shape)) {
+            return new Object[] {Api.BYTES};
+        } else if ("object".equals(shape)) {
+            return new Object[] {Api.PAYLOAD};
+        }
+        throw new IllegalArgumentException("unknown argument shape " + shape);
+    }
+}
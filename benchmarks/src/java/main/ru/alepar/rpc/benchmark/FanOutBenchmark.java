@@ -0,0 +1,84 @@
+package ru.alepar.rpc.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.alepar.rpc.api.BroadcastResult;
+import ru.alepar.rpc.api.Invocation;
+import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RpcClient;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcServer;
+
+/**
+ * server pushing one-way call to every connected client, one operation is the whole round over all clients <br/>
+ * fanOut goes through {@link RpcServer#getClients()} proxies, broadcast encodes message once with {@link RpcServer#broadcast}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int clientCount;
+
+    private RpcServer server;
+    private final List<RpcClient> clients = new ArrayList<RpcClient>();
+
+    @Setup
+    public void setUp() throws Exception {
+        server = Loopback.server().build();
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(Loopback.client()
+                    .addObject(Api.Sink.class, new Api.NoopSink())
+                    .build());
+        }
+        while (server.getClients().size() < clientCount) {
+            Thread.sleep(10l);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (RpcClient client : clients) {
+            client.shutdown();
+        }
+        clients.clear();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public void fanOut() {
+        for (Remote remote : server.getClients()) {
+            remote.getProxy(Api.Sink.class).string(Api.STRING);
+        }
+    }
+
+    @Benchmark
+    public RpcFuture<BroadcastResult> broadcast() {
+        return server.broadcast(Api.Sink.class, SEND_STRING, null);
+    }
+
+    private static final Invocation<Api.Sink> SEND_STRING = new Invocation<Api.Sink>() {
+        @Override
+        public void invoke(Api.Sink proxy) {
+            proxy.string(Api.STRING);
+        }
+    };
+}
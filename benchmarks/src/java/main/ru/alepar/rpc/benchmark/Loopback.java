@@ -0,0 +1,28 @@
+package ru.alepar.rpc.benchmark;
+
+import java.net.InetSocketAddress;
+
+import ru.alepar.rpc.api.NettyRpcClientBuilder;
+import ru.alepar.rpc.api.NettyRpcServerBuilder;
+import ru.alepar.rpc.api.OverflowPolicy;
+
+/**
+ * builders for client and server talking over loopback <br/>
+ * callers are blocked when write buffer is full, so that one-way benchmarks measure what the wire sustains instead of filling the heap
+ */
+class Loopback {
+
+    static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 8339);
+
+    static NettyRpcServerBuilder server() {
+        return new NettyRpcServerBuilder(ADDRESS)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setKeepAlive(0);
+    }
+
+    static NettyRpcClientBuilder client() {
+        return new NettyRpcClientBuilder(ADDRESS)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setKeepAlive(0);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.alepar.rpc.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.alepar.rpc.api.OverflowPolicy;
+import ru.alepar.rpc.common.InterfaceMethods;
+import ru.alepar.rpc.common.MethodTable;
+import ru.alepar.rpc.common.NettyId;
+import ru.alepar.rpc.common.NettyRemote;
+import ru.alepar.rpc.common.PendingCalls;
+import ru.alepar.rpc.common.PrimitiveTypesClassResolver;
+import ru.alepar.rpc.common.TimerThreadFactory;
+import ru.alepar.rpc.common.codec.Codecs;
+import ru.alepar.rpc.common.codec.RpcEncoder;
+import ru.alepar.rpc.common.metrics.NoMetrics;
+
+import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCachingConcurrentResolver;
+
+/**
+ * overhead added by the library on both ends of a call, with no network involved: <br/>
+ * calling side - proxy lookup of method id plus encoding into in-memory channel, <br/>
+ * serving side - invoking implementation through method table, compared to calling it directly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    private final Api.Sink impl = new Api.NoopSink();
+    private final Object[] args = {42, 42l, 42.0};
+
+    private Timer timer;
+    private EncoderEmbedder<Object> embedder;
+    private Api.Sink proxy;
+    private MethodTable.Entry entry;
+
+    @Setup
+    public void setUp() throws Exception {
+        MethodTable served = MethodTable.forInterfaces(Collections.singleton(new InterfaceMethods(Api.Sink.class)));
+        MethodTable called = MethodTable.forSignatures(served.getInterfaces(), served.getSignatures());
+        entry = served.find(Api.Sink.class, Api.Sink.class.getMethod("primitives", int.class, long.class, double.class));
+
+        timer = new HashedWheelTimer(new TimerThreadFactory());
+        embedder = new EncoderEmbedder<Object>(new RpcEncoder(Codecs.binary().newCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)))));
+        NettyRemote remote = new NettyRemote(embedder.getPipeline().getChannel(), new NettyId(1), called, new PendingCalls(timer, 0), OverflowPolicy.QUEUE, NoMetrics.INSTANCE);
+        proxy = remote.getProxy(Api.Sink.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        embedder.finish();
+        timer.stop();
+    }
+
+    @Benchmark
+    public Object proxyCall() {
+        proxy.primitives(42, 42l, 42.0);
+        return embedder.poll();
+    }
+
+    @Benchmark
+    public Object dispatch() throws Exception {
+        return entry.invoker.invoke(impl, args);
+    }
+
+    @Benchmark
+    public void directCall() {
+        impl.primitives(42, 42l, 42.0);
+    }
+}
@@ -0,0 +1,51 @@
+package ru.alepar.rpc.api;
+
+import ru.alepar.rpc.api.exception.ConfigurationException;
+
+/**
+ * defines when outbound messages, coalesced into a single write, are flushed to the socket <br/>
+ * batch is flushed as soon as any of the limits is reached
+ */
+public class BatchingPolicy {
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long maxDelayMicros;
+
+    /**
+     * @param maxMessages batch is flushed once it holds that many messages
+     * @param maxBytes batch is flushed once it holds that many bytes
+     * @param maxDelayMicros batch is flushed when its first message has waited that long, <br/>
+     *                       note that delay is honored with the precision of underlying timer, which is about a millisecond
+     * @throws ConfigurationException if any of the limits is not positive
+     */
+    public BatchingPolicy(int maxMessages, int maxBytes, long maxDelayMicros) {
+        if (maxMessages < 1 || maxBytes < 1 || maxDelayMicros < 1) {
+            throw new ConfigurationException("all batching limits must be positive, got maxMessages=" + maxMessages + " maxBytes=" + maxBytes + " maxDelayMicros=" + maxDelayMicros);
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxDelayMicros() {
+        return maxDelayMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingPolicy{" +
+                "maxMessages=" + maxMessages +
+                ", maxBytes=" + maxBytes +
+                ", maxDelayMicros=" + maxDelayMicros +
+                '}';
+    }
+}
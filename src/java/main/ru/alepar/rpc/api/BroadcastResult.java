@@ -0,0 +1,47 @@
+package ru.alepar.rpc.api;
+
+/**
+ * outcome of {@link RpcServer#broadcast(Class, Invocation, RemoteFilter) RpcServer.broadcast}
+ */
+public class BroadcastResult {
+
+    private final int succeeded;
+    private final int failed;
+    private final int skipped;
+
+    public BroadcastResult(int succeeded, int failed, int skipped) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return number of clients the message was written to
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return number of clients write to which failed, i.e. because connection was closing
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of clients which were rejected by filter, do not expose the interface, or are not writable
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "BroadcastResult{" +
+                "succeeded=" + succeeded +
+                ", failed=" + failed +
+                ", skipped=" + skipped +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package ru.alepar.rpc.api;
+
+/**
+ * defines how arguments, results and exceptions are copied when client and server talk over in-JVM connection, <br/>
+ * i.e. when server is bound to {@link org.jboss.netty.channel.local.LocalAddress LocalAddress} <br/>
+ * sending side makes the copy, connections over sockets always pass values through codec
+ */
+public enum CopyPolicy {
+
+    /**
+     * values are passed by reference, both sides must not modify them afterwards
+     */
+    NONE,
+
+    /**
+     * immutable values like strings, boxed primitives and enums are passed by reference, <br/>
+     * arrays of primitives and byte buffers are cloned, <br/>
+     * messages holding any other value or exception are passed through codec as a whole
+     */
+    CLONE,
+
+    /**
+     * every message is passed through codec, exactly as if it went over socket
+     */
+    SERIALIZE
+}
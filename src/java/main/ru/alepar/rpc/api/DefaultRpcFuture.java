@@ -0,0 +1,167 @@
+package ru.alepar.rpc.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RpcFuture, that is completed by calling {@link #setSuccess(Object)} or {@link #setFailure(Throwable)} <br/>
+ * implementations of remote methods can return it to reply asynchronously
+ * @param <T> type of the result
+ */
+public class DefaultRpcFuture<T> implements RpcFuture<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultRpcFuture.class);
+
+    private List<RpcFutureListener<T>> listeners = new ArrayList<RpcFutureListener<T>>();
+    private boolean done;
+    private T result;
+    private Throwable cause;
+
+    /**
+     * @return future, which is already completed with supplied result
+     */
+    public static <T> DefaultRpcFuture<T> succeeded(T result) {
+        DefaultRpcFuture<T> future = new DefaultRpcFuture<T>();
+        future.setSuccess(result);
+        return future;
+    }
+
+    /**
+     * @return future, which is already failed with supplied cause
+     */
+    public static <T> DefaultRpcFuture<T> failed(Throwable cause) {
+        DefaultRpcFuture<T> future = new DefaultRpcFuture<T>();
+        future.setFailure(cause);
+        return future;
+    }
+
+    /**
+     * @return true if this call completed the future, false if it was already completed
+     */
+    public boolean setSuccess(T result) {
+        return complete(result, null);
+    }
+
+    /**
+     * @return true if this call completed the future, false if it was already completed
+     */
+    public boolean setFailure(Throwable cause) {
+        return complete(null, cause);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cause instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized boolean isSuccess() {
+        return done && cause == null;
+    }
+
+    @Override
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public synchronized RpcFuture<T> await() throws InterruptedException {
+        while (!done) {
+            wait();
+        }
+        return this;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        await();
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!done) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        }
+        return report();
+    }
+
+    @Override
+    public void addListener(RpcFutureListener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    private synchronized T report() throws ExecutionException {
+        if (cause instanceof CancellationException) {
+            throw (CancellationException) cause;
+        }
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return result;
+    }
+
+    private boolean complete(T result, Throwable cause) {
+        List<RpcFutureListener<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.result = result;
+            this.cause = cause;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (RpcFutureListener<T> listener : toNotify) {
+            notifyListener(listener);
+        }
+        return true;
+    }
+
+    private void notifyListener(RpcFutureListener<T> listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (Exception e) {
+            log.error("future listener " + listener + " threw exception", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DefaultRpcFuture{" +
+                "done=" + isDone() +
+                '}';
+    }
+}
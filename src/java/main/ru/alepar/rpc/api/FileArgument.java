@@ -0,0 +1,144 @@
+package ru.alepar.rpc.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * region of a file, which can be passed as argument or result of remote call <br/>
+ * binary codec sends the region straight from the file with FileChannel.transferTo, without copying it through java heap <br/>
+ * receiving side gets FileArgument backed by received bytes, {@link #getFile()} returns null there
+ */
+public final class FileArgument implements Serializable {
+
+    private transient File file;
+    private transient long position;
+    private transient long length;
+    private transient ByteBuffer content;
+
+    /**
+     * @param file whole contents of which will be sent
+     */
+    public FileArgument(File file) {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * @param file to send region of
+     * @param position of the first byte of the region
+     * @param length of the region in bytes
+     */
+    public FileArgument(File file, long position, long length) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length must not be negative, got position=" + position + " length=" + length);
+        }
+        this.file = file;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * @param content received bytes, from position to limit
+     */
+    public FileArgument(ByteBuffer content) {
+        this.content = content.slice();
+        this.length = content.remaining();
+    }
+
+    /**
+     * @return file this region belongs to, or null if argument was received from remote side
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return read-only view of the region, on sending side the file is memory-mapped
+     * @throws IOException if file cannot be read
+     */
+    public ByteBuffer getContent() throws IOException {
+        if (content != null) {
+            return content.asReadOnlyBuffer();
+        }
+        FileChannel channel = open();
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * writes the region to target, using FileChannel.transferTo on sending side
+     * @param target to write to
+     * @throws IOException if file cannot be read or target cannot be written
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (content != null) {
+            ByteBuffer buffer = content.duplicate();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return;
+        }
+        FileChannel channel = open();
+        try {
+            long written = 0;
+            while (written < length) {
+                written += channel.transferTo(position + written, length - written, target);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return channel of the file, to be closed by caller
+     * @throws IOException if file cannot be opened
+     */
+    public FileChannel open() throws IOException {
+        if (file == null) {
+            throw new IOException("received FileArgument is not backed by a file");
+        }
+        return new RandomAccessFile(file, "r").getChannel();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ByteBuffer buffer = getContent();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        content = ByteBuffer.wrap(bytes);
+        length = bytes.length;
+    }
+
+    @Override
+    public String toString() {
+        return "FileArgument{" +
+                (file != null ? "file=" + file + ", position=" + position + ", " : "") +
+                "length=" + length +
+                '}';
+    }
+}
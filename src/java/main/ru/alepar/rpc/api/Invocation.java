@@ -0,0 +1,13 @@
+package ru.alepar.rpc.api;
+
+/**
+ * describes a call to be made on remote side, see {@link RpcServer#broadcast(Class, Invocation, RemoteFilter) RpcServer.broadcast}
+ * @param <T> interface registered on remote side
+ */
+public interface Invocation<T> {
+
+    /**
+     * @param proxy to make exactly one call on, the call is recorded rather than executed
+     */
+    void invoke(T proxy);
+}
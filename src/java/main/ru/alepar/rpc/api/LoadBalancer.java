@@ -0,0 +1,20 @@
+package ru.alepar.rpc.api;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * picks connection to route invocation to, when client keeps several connections <br/>
+ * see {@link ru.alepar.rpc.client.LoadBalancers LoadBalancers} for available implementations
+ */
+public interface LoadBalancer {
+
+    /**
+     * called for every invocation, so must be cheap and multithread-safe
+     * @param remotes connections to choose from, never empty, same list instance is passed while set of connections stays the same
+     * @param method being invoked
+     * @param args of the invocation, null if method has no parameters
+     * @return one of supplied remotes
+     */
+    Remote select(List<Remote> remotes, Method method, Object[] args);
+}
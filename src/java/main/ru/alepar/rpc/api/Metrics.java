@@ -0,0 +1,53 @@
+package ru.alepar.rpc.api;
+
+import java.lang.reflect.Method;
+
+/**
+ * receives measurements of what client or server is doing <br/>
+ * methods are called from io threads and from threads invoking remote proxies, so they must be cheap, non-blocking and multithread-safe <br/>
+ * see {@link ru.alepar.rpc.common.metrics.DefaultMetrics DefaultMetrics} for default implementation
+ */
+public interface Metrics {
+
+    /**
+     * invocation was made through remote proxy
+     */
+    void invocationSent(Class<?> interfaceClass, Method method);
+
+    /**
+     * call made through remote proxy got response, failed or timed out
+     * @param nanos time since the call was made
+     * @param success false if call failed for whatever reason
+     */
+    void callCompleted(Class<?> interfaceClass, Method method, long nanos, boolean success);
+
+    /**
+     * implementation was invoked on behalf of remote side
+     * @param queueNanos time since request was decoded till implementation was invoked, that is time spent waiting for executor
+     * @param runNanos time implementation method took to return
+     * @param success false if implementation threw exception
+     */
+    void invocationExecuted(Class<?> interfaceClass, Method method, long queueNanos, long runNanos, boolean success);
+
+    /**
+     * @param bytes size of the frame, including length prefix
+     * @param nanos time codec took
+     */
+    void messageEncoded(int bytes, long nanos);
+
+    /**
+     * @param bytes size of the frame, excluding length prefix
+     * @param nanos time codec took
+     */
+    void messageDecoded(int bytes, long nanos);
+
+    /**
+     * invocation was handed to the channel to be written
+     */
+    void writeQueued();
+
+    /**
+     * invocation handed to the channel was written to the socket or failed to be
+     */
+    void writeCompleted();
+}
@@ -0,0 +1,240 @@
+package ru.alepar.rpc.api;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * immutable view of metrics collected by {@link ru.alepar.rpc.common.metrics.DefaultMetrics DefaultMetrics} at some moment <br/>
+ * all durations are in nanoseconds
+ */
+public class MetricsSnapshot implements Serializable {
+
+    private final Map<String, MethodStats> methods;
+    private final Map<String, MethodStats> interfaces;
+    private final long encodedMessages;
+    private final long encodedBytes;
+    private final Latency encodeLatency;
+    private final long decodedMessages;
+    private final long decodedBytes;
+    private final Latency decodeLatency;
+    private final long writeQueueDepth;
+
+    public MetricsSnapshot(Map<String, MethodStats> methods, Map<String, MethodStats> interfaces, long encodedMessages, long encodedBytes, Latency encodeLatency, long decodedMessages, long decodedBytes, Latency decodeLatency, long writeQueueDepth) {
+        this.methods = methods;
+        this.interfaces = interfaces;
+        this.encodedMessages = encodedMessages;
+        this.encodedBytes = encodedBytes;
+        this.encodeLatency = encodeLatency;
+        this.decodedMessages = decodedMessages;
+        this.decodedBytes = decodedBytes;
+        this.decodeLatency = decodeLatency;
+        this.writeQueueDepth = writeQueueDepth;
+    }
+
+    /**
+     * @return stats keyed by method signature, like "some.Interface#method(int,java.lang.String)"
+     */
+    public Map<String, MethodStats> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return stats of all methods of interface, keyed by interface name
+     */
+    public Map<String, MethodStats> getInterfaces() {
+        return interfaces;
+    }
+
+    public long getEncodedMessages() {
+        return encodedMessages;
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    public Latency getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    public long getDecodedMessages() {
+        return decodedMessages;
+    }
+
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public Latency getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    /**
+     * @return number of invocations handed to channels, which are not yet written to sockets
+     */
+    public long getWriteQueueDepth() {
+        return writeQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "methods=" + methods +
+                ", encodedMessages=" + encodedMessages +
+                ", encodedBytes=" + encodedBytes +
+                ", encodeLatency=" + encodeLatency +
+                ", decodedMessages=" + decodedMessages +
+                ", decodedBytes=" + decodedBytes +
+                ", decodeLatency=" + decodeLatency +
+                ", writeQueueDepth=" + writeQueueDepth +
+                '}';
+    }
+
+    public static class MethodStats implements Serializable {
+
+        private final long sent;
+        private final long failedCalls;
+        private final Latency callLatency;
+        private final long executed;
+        private final long failedExecutions;
+        private final Latency queueLatency;
+        private final Latency runLatency;
+
+        public MethodStats(long sent, long failedCalls, Latency callLatency, long executed, long failedExecutions, Latency queueLatency, Latency runLatency) {
+            this.sent = sent;
+            this.failedCalls = failedCalls;
+            this.callLatency = callLatency;
+            this.executed = executed;
+            this.failedExecutions = failedExecutions;
+            this.queueLatency = queueLatency;
+            this.runLatency = runLatency;
+        }
+
+        /**
+         * @return number of invocations made through remote proxies
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return number of calls made through remote proxies, which failed, timed out or were cancelled
+         */
+        public long getFailedCalls() {
+            return failedCalls;
+        }
+
+        /**
+         * @return time from making a call till getting its response, one-way invocations are not counted
+         */
+        public Latency getCallLatency() {
+            return callLatency;
+        }
+
+        /**
+         * @return number of invocations of local implementation on behalf of remote side
+         */
+        public long getExecuted() {
+            return executed;
+        }
+
+        /**
+         * @return number of invocations of local implementation, which threw exception
+         */
+        public long getFailedExecutions() {
+            return failedExecutions;
+        }
+
+        /**
+         * @return time invocations waited for executor
+         */
+        public Latency getQueueLatency() {
+            return queueLatency;
+        }
+
+        /**
+         * @return time implementation took to return
+         */
+        public Latency getRunLatency() {
+            return runLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "MethodStats{" +
+                    "sent=" + sent +
+                    ", failedCalls=" + failedCalls +
+                    ", callLatency=" + callLatency +
+                    ", executed=" + executed +
+                    ", failedExecutions=" + failedExecutions +
+                    ", queueLatency=" + queueLatency +
+                    ", runLatency=" + runLatency +
+                    '}';
+        }
+    }
+
+    /**
+     * distribution of durations, percentiles are precise to about 6%
+     */
+    public static class Latency implements Serializable {
+
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public Latency(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Latency{" +
+                    "count=" + count +
+                    ", mean=" + mean +
+                    ", p50=" + p50 +
+                    ", p90=" + p90 +
+                    ", p99=" + p99 +
+                    ", p999=" + p999 +
+                    ", max=" + max +
+                    '}';
+        }
+    }
+}
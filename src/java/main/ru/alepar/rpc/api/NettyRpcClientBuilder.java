@@ -1,18 +1,33 @@
 package ru.alepar.rpc.api;
 
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
+import org.jboss.netty.channel.local.LocalAddress;
 import org.jboss.netty.handler.codec.serialization.ClassResolver;
+import ru.alepar.rpc.api.exception.ConfigurationException;
+import ru.alepar.rpc.api.exception.TransportException;
+import ru.alepar.rpc.client.LoadBalancers;
 import ru.alepar.rpc.client.NettyRpcClient;
+import ru.alepar.rpc.client.PooledRpcClient;
 import ru.alepar.rpc.common.BossThreadFactory;
+import ru.alepar.rpc.common.InterfaceMethods;
+import ru.alepar.rpc.common.MethodTable;
 import ru.alepar.rpc.common.PrimitiveTypesClassResolver;
+import ru.alepar.rpc.common.ThreadPerTaskExecutor;
 import ru.alepar.rpc.common.Validator;
+import ru.alepar.rpc.common.VirtualThreads;
 import ru.alepar.rpc.common.WorkerThreadFactory;
+import ru.alepar.rpc.common.codec.CodecFactory;
+import ru.alepar.rpc.common.codec.Codecs;
+import ru.alepar.rpc.common.codec.RpcDecoder;
+import ru.alepar.rpc.common.metrics.NoMetrics;
 
 import static java.util.Collections.unmodifiableMap;
 import static java.util.concurrent.Executors.newCachedThreadPool;
@@ -20,22 +35,45 @@ import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCac
 
 public class NettyRpcClientBuilder {
 
-    private final InetSocketAddress serverAddress;
+    private final List<SocketAddress> serverAddresses = new ArrayList<SocketAddress>();
 
     private final Validator validator = new Validator();
     private final Map<Class<?>, Object> implementations = new HashMap<Class<?>, Object>();
+    private final Map<Class<?>, InterfaceMethods> methods = new HashMap<Class<?>, InterfaceMethods>();
     private final List<ExceptionListener> listeners = new ArrayList<ExceptionListener>();
+    private final List<WritabilityListener> writabilityListeners = new ArrayList<WritabilityListener>();
 
     private ClassResolver classResolver = softCachingConcurrentResolver(null);
+    private CodecFactory codecFactory = Codecs.binary();
+    private int maxFrameLength = RpcDecoder.DEFAULT_MAX_FRAME_LENGTH;
+    private int compressionThreshold;
+    private CopyPolicy copyPolicy = CopyPolicy.CLONE;
+    private BatchingPolicy batchingPolicy;
+    private int lowWaterMark = 32 * 1024;
+    private int highWaterMark = 64 * 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.QUEUE;
+    private Metrics metrics = NoMetrics.INSTANCE;
+    private Executor invocationExecutor;
     private ExecutorService bossExecutor = newCachedThreadPool(new BossThreadFactory());
     private ExecutorService workerExecutor = newCachedThreadPool(new WorkerThreadFactory());
+    private TransportResources transportResources;
     private long keepAlive = 30000l;
+    private long idleTimeout = 90000l;
+    private long callTimeout = 30000l;
+    private long connectTimeout = 10000l;
+    private long handshakeTimeout = 10000l;
+    private ReconnectPolicy reconnectPolicy;
+    private int connectionsPerServer = 1;
+    private LoadBalancer loadBalancer = LoadBalancers.roundRobin();
 
     /**
-     * @param serverAddress remote address to connect to
+     * @param serverAddress remote address to connect to, <br/>
+     *                      {@link LocalAddress LocalAddress} connects to server in the same JVM without sockets and codecs, <br/>
+     *                      {@link SharedMemoryAddress SharedMemoryAddress} connects to server on the same host through memory-mapped files, <br/>
+     *                      other addresses need a {@link TransportResources#addTransport(Transport) transport} of their own
      */
-    public NettyRpcClientBuilder(InetSocketAddress serverAddress) {
-        this.serverAddress = serverAddress;
+    public NettyRpcClientBuilder(SocketAddress serverAddress) {
+        this.serverAddresses.add(serverAddress);
     }
 
     /**
@@ -43,12 +81,13 @@ public class NettyRpcClientBuilder {
      * all requests will be server by this instance, must not be multithread-safe though <br/>
      * @param interfaceClass interface that will be exposed on remote side
      * @param implementingObject object, that will handle all remote invocations
-     * @param <T> interface, all parameters in all methods must be serializable, return type must be void
+     * @param <T> interface, all parameters in all methods must be serializable, return type must be void or RpcFuture
      * @return this builder
      */
     public <T> NettyRpcClientBuilder addObject(Class<T> interfaceClass, T implementingObject) {
         validator.validateInterface(interfaceClass);
         implementations.put(interfaceClass, implementingObject);
+        methods.put(interfaceClass, new InterfaceMethods(interfaceClass));
         return this;
     }
 
@@ -64,6 +103,7 @@ public class NettyRpcClientBuilder {
 
     /**
      * sets interval at which KeepAlive packets will be sent to server <br/>
+     * packet is only sent when nothing else was written to the server for that long <br/>
      *  <br/>
      * setting it to zero will effectively disable KeepAlive  <br/>
      * this is not recommended - you most probably will miss abrupt disconnects  <br/>
@@ -75,6 +115,68 @@ public class NettyRpcClientBuilder {
         return this;
     }
 
+    /**
+     * sets time after which connection is closed if nothing, not even KeepAlive, was received from server <br/>
+     * this is how dead peers and half-open connections are detected, so it should be a few times larger than keepAlive interval of the other side <br/>
+     * <br/>
+     * setting it to zero disables the check <br/>
+     * @param timeout timeout in milliseconds, default is 90 seconds, if zero - connections are never closed for being idle
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setIdleTimeout(long timeout) {
+        this.idleTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * sets time to wait for response to calls made to server, i.e. calls to methods returning RpcFuture <br/>
+     * if response does not arrive in time, future fails with {@link ru.alepar.rpc.api.exception.CallTimeoutException CallTimeoutException} <br/>
+     * <br/>
+     * setting it to zero will disable timeouts, calls will wait for response until connection is closed <br/>
+     * @param timeout timeout in milliseconds, if zero - calls never time out
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setCallTimeout(long timeout) {
+        this.callTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * sets time to wait for connection to server to be established
+     * @param timeout timeout in milliseconds, default is 10 seconds, if zero - wait is bounded only by operating system
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setConnectTimeout(long timeout) {
+        this.connectTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * sets time to wait for server to answer handshake, once connection is established <br/>
+     * server, which accepts connection but fails to answer in time, is treated as unreachable
+     * @param timeout timeout in milliseconds, default is 10 seconds, if zero - client waits for handshake forever
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setHandshakeTimeout(long timeout) {
+        this.handshakeTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * enables automatic reconnect: when connection to server is lost, client keeps trying to restore it and redoes the handshake <br/>
+     * proxies obtained from {@link RpcClient#getRemote()} stay valid across reconnects, <br/>
+     * invocations made while disconnected are buffered and sent once connection is restored <br/>
+     * <br/>
+     * calls, which were sent but not answered when connection was lost, fail with {@link ru.alepar.rpc.api.exception.TransportException TransportException} <br/>
+     * exception listeners are told about lost connection once, not on every failed attempt to restore it <br/>
+     * @param reconnectPolicy backoff and buffer size, default is null - lost connection is not restored
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setReconnect(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
     /**
      * sets classResolver that will be used by this RpcClient <br/>
      * see {@link org.jboss.netty.handler.codec.serialization.ClassResolvers ClassResolvers} for available implementations
@@ -86,6 +188,185 @@ public class NettyRpcClientBuilder {
         return this;
     }
 
+    /**
+     * sets codec that will be used by this RpcClient to put messages on the wire <br/>
+     * see {@link ru.alepar.rpc.common.codec.Codecs Codecs} for available implementations <br/>
+     * note that both sides of the connection must use the same codec
+     * @param codecFactory to be used, default is {@link ru.alepar.rpc.common.codec.Codecs#binary() binary}
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setCodecFactory(CodecFactory codecFactory) {
+        this.codecFactory = codecFactory;
+        return this;
+    }
+
+    /**
+     * sets size of the largest message this RpcClient accepts, connection is closed when larger message arrives <br/>
+     * raise it to pass large byte arrays, byte buffers or {@link FileArgument FileArgument}s in remote calls
+     * @param length in bytes, default is 1MiB
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setMaxFrameLength(int length) {
+        if (length <= 0) {
+            throw new ConfigurationException("max frame length must be positive, got " + length);
+        }
+        this.maxFrameLength = length;
+        return this;
+    }
+
+    /**
+     * turns on Deflate compression of messages, which are at least this large once encoded <br/>
+     * it is used on connection only if both client and server turned it on, with the larger of their thresholds <br/>
+     * pays off for large repetitive payloads on slow links, messages which do not shrink are sent as is
+     * @param bytes smallest message to compress, default is 0 meaning no compression
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setCompressionThreshold(int bytes) {
+        if (bytes < 0) {
+            throw new ConfigurationException("compression threshold must not be negative, got " + bytes);
+        }
+        this.compressionThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * sets how values sent to server in the same JVM are copied, matters only for {@link LocalAddress LocalAddress}
+     * @param policy of copying, default is {@link CopyPolicy#CLONE CLONE}
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setCopyPolicy(CopyPolicy policy) {
+        if (policy == null) {
+            throw new ConfigurationException("copy policy must not be null");
+        }
+        this.copyPolicy = policy;
+        return this;
+    }
+
+    /**
+     * enables coalescing of outbound messages: messages written in a burst are put on the wire with a single write <br/>
+     * this trades a bit of latency for throughput and fewer syscalls when many small calls are made <br/>
+     * <br/>
+     * the other side needs no special configuration to receive batched messages <br/>
+     * @param batchingPolicy limits at which accumulated messages are flushed, default is null - every message is written immediately
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setBatching(BatchingPolicy batchingPolicy) {
+        this.batchingPolicy = batchingPolicy;
+        return this;
+    }
+
+    /**
+     * this listener will be called when outbound buffer of a connection crosses its watermarks
+     * @param listener to add
+     * @return this builder
+     */
+    public NettyRpcClientBuilder addWritabilityListener(WritabilityListener listener) {
+        writabilityListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * sets outbound buffer size, at which connection becomes not {@link Remote#isWritable() writable}, and size it must drain to to become writable again <br/>
+     * in-JVM connections to {@link org.jboss.netty.channel.local.LocalAddress LocalAddress} have no outbound buffer: they are always writable, <br/>
+     * so watermarks, overflow policy and writability listeners do not apply to them
+     * @param low low watermark in bytes, default is 32KiB
+     * @param high high watermark in bytes, default is 64KiB
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setWriteBufferWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new ConfigurationException("watermarks must satisfy 0 <= low <= high, got low=" + low + " high=" + high);
+        }
+        this.lowWaterMark = low;
+        this.highWaterMark = high;
+        return this;
+    }
+
+    /**
+     * sets what happens to invocations on remote proxies when connection is not writable
+     * @param overflowPolicy to be used, default is {@link OverflowPolicy#QUEUE QUEUE}
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * sets receiver of measurements: invocation counts and latencies, codec time and message sizes, write queue depth <br/>
+     * see {@link ru.alepar.rpc.common.metrics.DefaultMetrics DefaultMetrics} for default implementation, which may be shared by many clients <br/>
+     * @param metrics to be used, default is none - nothing is measured
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * sets executor, which will run implementations of objects serving server requests <br/>
+     * requests are run one at a time in order of arrival <br/>
+     * connection stops being read once {@link ru.alepar.rpc.common.ReadThrottle#MAX_QUEUED MAX_QUEUED} of them are waiting <br/>
+     * <br/>
+     * executor is not shut down by the client <br/>
+     * @param executor to be used, default is null - implementations are run directly in io thread
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setInvocationExecutor(Executor executor) {
+        this.invocationExecutor = executor;
+        return this;
+    }
+
+    /**
+     * runs implementations of objects serving server requests on virtual threads <br/>
+     * requests are still run one at a time in order of arrival <br/>
+     * this is a shortcut for {@link #setInvocationExecutor(Executor) setInvocationExecutor} with thread-per-task executor <br/>
+     * <br/>
+     * requires java 21 or newer at runtime
+     * @return this builder
+     * @throws ConfigurationException if jvm does not support virtual threads
+     */
+    public NettyRpcClientBuilder useVirtualThreads() {
+        return setInvocationExecutor(new ThreadPerTaskExecutor(VirtualThreads.factory()));
+    }
+
+    /**
+     * adds another server to connect to, invocations made through {@link RpcClient#getRemote()} are spread among all servers <br/>
+     * all servers are expected to expose the same interfaces <br/>
+     * <br/>
+     * note that with more than one connection objects added by {@link #addObject(Class, Object) addObject} may be called concurrently
+     * @param serverAddress remote address to connect to
+     * @return this builder
+     */
+    public NettyRpcClientBuilder addServer(SocketAddress serverAddress) {
+        serverAddresses.add(serverAddress);
+        return this;
+    }
+
+    /**
+     * sets number of connections opened to each server, several connections help when single one caps throughput
+     * @param connections number of connections, default is 1
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setConnectionsPerServer(int connections) {
+        if (connections < 1) {
+            throw new ConfigurationException("there must be at least one connection per server, got " + connections);
+        }
+        this.connectionsPerServer = connections;
+        return this;
+    }
+
+    /**
+     * sets balancer, which picks connection for each invocation, when there is more than one <br/>
+     * see {@link ru.alepar.rpc.client.LoadBalancers LoadBalancers} for available implementations
+     * @param loadBalancer to be used, default is {@link ru.alepar.rpc.client.LoadBalancers#roundRobin() roundRobin}
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setLoadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+        return this;
+    }
+
     /**
      * set executor, which will take care of all socket.accept() routine
      * by default, netty takes only one thread from this
@@ -106,17 +387,101 @@ public class NettyRpcClientBuilder {
     }
 
     /**
-     * @return configured RpcClient
+     * sets threads, which will do io and timing for this client, so that many clients and servers can share them <br/>
+     * client takes a reference to resources and drops it on shutdown <br/>
+     * <br/>
+     * if set, executors passed to {@link #setBossExecutor(ExecutorService) setBossExecutor} and {@link #setWorkerExecutor(ExecutorService) setWorkerExecutor} are not used
+     * @param resources to be used, default is null - client gets resources of its own
+     * @return this builder
+     */
+    public NettyRpcClientBuilder setTransportResources(TransportResources resources) {
+        this.transportResources = resources;
+        return this;
+    }
+
+    /**
+     * connects to server(s) and waits until connection is established
+     * @return configured RpcClient, pooled one if more than one connection is configured
+     * @throws TransportException if connection could not be established
      */
     public RpcClient build() {
+        final RpcFuture<RpcClient> future = buildAsync();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new TransportException("interrupted waiting for connection", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TransportException(e.getCause());
+        }
+    }
+
+    /**
+     * starts connecting to server(s) without waiting for connection to be established <br/>
+     * this allows to bring up many clients concurrently <br/>
+     * <br/>
+     * if connection fails, all resources taken by the client are released and future fails with {@link TransportException} <br/>
+     * if future is cancelled, client is shut down as soon as it connects
+     * @return future of configured RpcClient, pooled one if more than one connection is configured
+     * @throws ConfigurationException if some server address is not supported by any transport, connections to other servers are not left open then
+     */
+    public RpcFuture<RpcClient> buildAsync() {
+        final TransportResources resources = transportResources != null ? transportResources : new TransportResources(bossExecutor, workerExecutor);
+        try {
+            if (serverAddresses.size() == 1 && connectionsPerServer == 1) {
+                return newClient(serverAddresses.get(0), resources).connect();
+            }
+
+            final List<RpcFuture<RpcClient>> members = new ArrayList<RpcFuture<RpcClient>>();
+            try {
+                for (SocketAddress serverAddress : serverAddresses) {
+                    for (int i = 0; i < connectionsPerServer; i++) {
+                        members.add(newClient(serverAddress, resources).connect());
+                    }
+                }
+            } catch (RuntimeException e) {
+                for (RpcFuture<RpcClient> member : members) {
+                    member.cancel(false); // shuts member down once it connects
+                }
+                throw e;
+            }
+            return PooledRpcClient.connect(members, loadBalancer);
+        } finally {
+            if (transportResources == null) {
+                resources.release(); // clients hold references of their own
+            }
+        }
+    }
+
+    private NettyRpcClient newClient(SocketAddress serverAddress, TransportResources resources) {
         return new NettyRpcClient(
                 serverAddress,
                 unmodifiableMap(implementations),
+                MethodTable.forInterfaces(methods.values()),
                 listeners.toArray(new ExceptionListener[listeners.size()]),
+                writabilityListeners.toArray(new WritabilityListener[writabilityListeners.size()]),
                 new PrimitiveTypesClassResolver(classResolver),
+                codecFactory,
+                maxFrameLength,
+                compressionThreshold,
+                copyPolicy,
+                batchingPolicy,
+                lowWaterMark,
+                highWaterMark,
+                overflowPolicy,
+                metrics,
                 keepAlive,
-                bossExecutor,
-                workerExecutor
+                idleTimeout,
+                callTimeout,
+                connectTimeout,
+                handshakeTimeout,
+                reconnectPolicy,
+                invocationExecutor,
+                resources
         );
     }
 }
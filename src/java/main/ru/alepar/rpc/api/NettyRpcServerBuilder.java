@@ -1,19 +1,30 @@
 package ru.alepar.rpc.api;
 
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
+import org.jboss.netty.channel.local.LocalAddress;
 import org.jboss.netty.handler.codec.serialization.ClassResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.exception.ConfigurationException;
 import ru.alepar.rpc.common.BossThreadFactory;
+import ru.alepar.rpc.common.InterfaceMethods;
+import ru.alepar.rpc.common.MethodTable;
 import ru.alepar.rpc.common.PrimitiveTypesClassResolver;
+import ru.alepar.rpc.common.ThreadPerTaskExecutor;
 import ru.alepar.rpc.common.Validator;
+import ru.alepar.rpc.common.VirtualThreads;
 import ru.alepar.rpc.common.WorkerThreadFactory;
+import ru.alepar.rpc.common.codec.CodecFactory;
+import ru.alepar.rpc.common.codec.Codecs;
+import ru.alepar.rpc.common.codec.RpcDecoder;
+import ru.alepar.rpc.common.metrics.NoMetrics;
 import ru.alepar.rpc.server.FactoryServerProvider;
 import ru.alepar.rpc.server.InjectingServerProvider;
 import ru.alepar.rpc.server.NettyRpcServer;
@@ -26,23 +37,42 @@ import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCac
 
 public class NettyRpcServerBuilder {
 
-    private final InetSocketAddress bindAddress;
+    private final List<SocketAddress> bindAddresses = new ArrayList<SocketAddress>();
 
     private final Validator validator = new Validator();
     private final Map<Class<?>, ServerProvider<?>> implementations = new HashMap<Class<?>, ServerProvider<?>>();
+    private final Map<Class<?>, InterfaceMethods> methods = new HashMap<Class<?>, InterfaceMethods>();
+    private final Map<Class<?>, Executor> interfaceExecutors = new HashMap<Class<?>, Executor>();
     private final List<ExceptionListener> exceptionListeners = new ArrayList<ExceptionListener>();
     private final List<ClientListener> clientListeners = new ArrayList<ClientListener>();
+    private final List<WritabilityListener> writabilityListeners = new ArrayList<WritabilityListener>();
 
     private ClassResolver classResolver = softCachingConcurrentResolver(null);
+    private CodecFactory codecFactory = Codecs.binary();
+    private int maxFrameLength = RpcDecoder.DEFAULT_MAX_FRAME_LENGTH;
+    private int compressionThreshold;
+    private CopyPolicy copyPolicy = CopyPolicy.CLONE;
+    private BatchingPolicy batchingPolicy;
+    private int lowWaterMark = 32 * 1024;
+    private int highWaterMark = 64 * 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.QUEUE;
+    private Metrics metrics = NoMetrics.INSTANCE;
+    private Executor invocationExecutor;
     private ExecutorService bossExecutor = newCachedThreadPool(new BossThreadFactory());
     private ExecutorService workerExecutor = newCachedThreadPool(new WorkerThreadFactory());
+    private TransportResources transportResources;
     private long keepAlive = 30000l;
+    private long idleTimeout = 90000l;
+    private long callTimeout = 30000l;
 
     /**
-     * @param bindAddress local address to bind to
+     * @param bindAddress local address to bind to, <br/>
+     *                    {@link LocalAddress LocalAddress} serves clients in the same JVM without sockets and codecs, <br/>
+     *                    {@link SharedMemoryAddress SharedMemoryAddress} serves clients on the same host through memory-mapped files, <br/>
+     *                    other addresses need a {@link TransportResources#addTransport(Transport) transport} of their own
      */
-    public NettyRpcServerBuilder(InetSocketAddress bindAddress) {
-        this.bindAddress = bindAddress;
+    public NettyRpcServerBuilder(SocketAddress bindAddress) {
+        this.bindAddresses.add(bindAddress);
 
         new ExceptionListener() {
             private final Logger log = LoggerFactory.getLogger(NettyRpcServer.class);
@@ -58,12 +88,13 @@ public class NettyRpcServerBuilder {
      * this instance will be shared by all clients, meaning that this object should be multithread-safe <br/>
      * @param interfaceClass interface that will be exposed on remote side
      * @param implementingObject object, that will handle all remote invocations
-     * @param <T> interface, all parameters in all methods must be serializable, return type must be void
+     * @param <T> interface, all parameters in all methods must be serializable, return type must be void or RpcFuture
      * @return this builder
      */
     public <T> NettyRpcServerBuilder addObject(Class<T> interfaceClass, T implementingObject) {
         validator.validateInterface(interfaceClass);
         implementations.put(interfaceClass, new SimpleServerProvider<T>(implementingObject));
+        methods.put(interfaceClass, new InterfaceMethods(interfaceClass));
         return this;
     }
 
@@ -82,12 +113,13 @@ public class NettyRpcServerBuilder {
      * }</blockquote></pre><br/>
      * @param interfaceClass interface that will be exposed on remote side
      * @param implClass class, that will be instantiated to serve client's requests
-     * @param <T> interface, all parameters in all methods must be serializable, return type must be void
+     * @param <T> interface, all parameters in all methods must be serializable, return type must be void or RpcFuture
      * @return this builder
      */
     public <T> NettyRpcServerBuilder addClass(Class<T> interfaceClass, Class<? extends T> implClass) {
         validator.validateInterface(interfaceClass);
         implementations.put(interfaceClass, new InjectingServerProvider<T>(implClass));
+        methods.put(interfaceClass, new InterfaceMethods(interfaceClass));
         return this;
     }
 
@@ -98,12 +130,13 @@ public class NettyRpcServerBuilder {
      * and you can keep some state related to current client there <br/>
      * @param interfaceClass interface that will be exposed on remote side
      * @param factory factory, which will create objects, that will serve client requests
-     * @param <T> interface, all parameters in all methods must be serializable, return type must be void
+     * @param <T> interface, all parameters in all methods must be serializable, return type must be void or RpcFuture
      * @return this builder
      */
     public <T> NettyRpcServerBuilder addFactory(Class<T> interfaceClass, ImplementationFactory<? extends T> factory) {
         validator.validateInterface(interfaceClass);
         implementations.put(interfaceClass, new FactoryServerProvider<T>(factory));
+        methods.put(interfaceClass, new InterfaceMethods(interfaceClass));
         return this;
     }
 
@@ -128,7 +161,8 @@ public class NettyRpcServerBuilder {
     }
 
     /**
-     * sets interval at which KeepAlive packets will be sent to remote clients
+     * sets interval at which KeepAlive packets will be sent to remote clients <br/>
+     * packet is only sent when nothing else was written to the client for that long
      *
      * setting it to zero will effectively disable KeepAlive
      * this is not recommended - you most probably will miss abrupt disconnects
@@ -140,6 +174,32 @@ public class NettyRpcServerBuilder {
         return this;
     }
 
+    /**
+     * sets time after which connection is closed if nothing, not even KeepAlive, was received from remote clients <br/>
+     * this is how dead peers and half-open connections are detected, so it should be a few times larger than keepAlive interval of the other side <br/>
+     * <br/>
+     * setting it to zero disables the check <br/>
+     * @param timeout timeout in milliseconds, default is 90 seconds, if zero - connections are never closed for being idle
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setIdleTimeout(long timeout) {
+        this.idleTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * sets time to wait for response to calls made to remote clients, i.e. calls to methods returning RpcFuture <br/>
+     * if response does not arrive in time, future fails with {@link ru.alepar.rpc.api.exception.CallTimeoutException CallTimeoutException} <br/>
+     * <br/>
+     * setting it to zero will disable timeouts, calls will wait for response until connection is closed <br/>
+     * @param timeout timeout in milliseconds, if zero - calls never time out
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setCallTimeout(long timeout) {
+        this.callTimeout = timeout;
+        return this;
+    }
+
     /**
      * sets classResolver that will be used by this RpcServer <br/>
      * see {@link org.jboss.netty.handler.codec.serialization.ClassResolvers ClassResolvers} for available implementations
@@ -151,6 +211,163 @@ public class NettyRpcServerBuilder {
         return this;
     }
 
+    /**
+     * sets codec that will be used by this RpcServer to put messages on the wire <br/>
+     * see {@link ru.alepar.rpc.common.codec.Codecs Codecs} for available implementations <br/>
+     * note that both sides of the connection must use the same codec
+     * @param codecFactory to be used, default is {@link ru.alepar.rpc.common.codec.Codecs#binary() binary}
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setCodecFactory(CodecFactory codecFactory) {
+        this.codecFactory = codecFactory;
+        return this;
+    }
+
+    /**
+     * sets size of the largest message this RpcServer accepts, connection is closed when larger message arrives <br/>
+     * raise it to pass large byte arrays, byte buffers or {@link FileArgument FileArgument}s in remote calls
+     * @param length in bytes, default is 1MiB
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setMaxFrameLength(int length) {
+        if (length <= 0) {
+            throw new ConfigurationException("max frame length must be positive, got " + length);
+        }
+        this.maxFrameLength = length;
+        return this;
+    }
+
+    /**
+     * turns on Deflate compression of messages, which are at least this large once encoded <br/>
+     * it is used on connection only if both client and server turned it on, with the larger of their thresholds <br/>
+     * pays off for large repetitive payloads on slow links, messages which do not shrink are sent as is
+     * @param bytes smallest message to compress, default is 0 meaning no compression
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setCompressionThreshold(int bytes) {
+        if (bytes < 0) {
+            throw new ConfigurationException("compression threshold must not be negative, got " + bytes);
+        }
+        this.compressionThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * sets how values sent to clients in the same JVM are copied, matters only for {@link LocalAddress LocalAddress}
+     * @param policy of copying, default is {@link CopyPolicy#CLONE CLONE}
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setCopyPolicy(CopyPolicy policy) {
+        if (policy == null) {
+            throw new ConfigurationException("copy policy must not be null");
+        }
+        this.copyPolicy = policy;
+        return this;
+    }
+
+    /**
+     * enables coalescing of outbound messages: messages written in a burst are put on the wire with a single write <br/>
+     * this trades a bit of latency for throughput and fewer syscalls when many small calls are made <br/>
+     * <br/>
+     * the other side needs no special configuration to receive batched messages <br/>
+     * @param batchingPolicy limits at which accumulated messages are flushed, default is null - every message is written immediately
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setBatching(BatchingPolicy batchingPolicy) {
+        this.batchingPolicy = batchingPolicy;
+        return this;
+    }
+
+    /**
+     * this listener will be called when outbound buffer of a connection crosses its watermarks
+     * @param listener to add
+     * @return this builder
+     */
+    public NettyRpcServerBuilder addWritabilityListener(WritabilityListener listener) {
+        writabilityListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * sets outbound buffer size, at which connection becomes not {@link Remote#isWritable() writable}, and size it must drain to to become writable again <br/>
+     * in-JVM connections to {@link org.jboss.netty.channel.local.LocalAddress LocalAddress} have no outbound buffer: they are always writable, <br/>
+     * so watermarks, overflow policy and writability listeners do not apply to them
+     * @param low low watermark in bytes, default is 32KiB
+     * @param high high watermark in bytes, default is 64KiB
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setWriteBufferWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new ConfigurationException("watermarks must satisfy 0 <= low <= high, got low=" + low + " high=" + high);
+        }
+        this.lowWaterMark = low;
+        this.highWaterMark = high;
+        return this;
+    }
+
+    /**
+     * sets what happens to invocations on remote proxies when connection is not writable
+     * @param overflowPolicy to be used, default is {@link OverflowPolicy#QUEUE QUEUE}
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * sets receiver of measurements: invocation counts and latencies, codec time and message sizes, write queue depth <br/>
+     * see {@link ru.alepar.rpc.common.metrics.DefaultMetrics DefaultMetrics} for default implementation, which may be shared by many servers <br/>
+     * @param metrics to be used, default is none - nothing is measured
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * sets executor, which will run implementations of all interfaces, unless overridden by {@link #setExecutor(Class, Executor) setExecutor} <br/>
+     * invocations coming over the same connection are run one at a time in order of arrival <br/>
+     * connection stops being read once {@link ru.alepar.rpc.common.ReadThrottle#MAX_QUEUED MAX_QUEUED} of its invocations are waiting, so that queued invocations take bounded memory <br/>
+     * <br/>
+     * executor is not shut down by the server <br/>
+     * @param executor to be used, default is null - implementations are run directly in io thread, so that slow one stalls other connections
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setInvocationExecutor(Executor executor) {
+        this.invocationExecutor = executor;
+        return this;
+    }
+
+    /**
+     * runs implementations on virtual threads, so that blocking ones do not need a sized thread pool <br/>
+     * invocations coming over the same connection are still run one at a time in order of arrival <br/>
+     * this is a shortcut for {@link #setInvocationExecutor(Executor) setInvocationExecutor} with thread-per-task executor <br/>
+     * <br/>
+     * requires java 21 or newer at runtime
+     * @return this builder
+     * @throws ConfigurationException if jvm does not support virtual threads
+     */
+    public NettyRpcServerBuilder useVirtualThreads() {
+        return setInvocationExecutor(new ThreadPerTaskExecutor(VirtualThreads.factory()));
+    }
+
+    /**
+     * sets executor, which will run implementation of given interface, so that busy interface does not delay others <br/>
+     * invocations of this interface coming over the same connection are run in order of arrival, <br/>
+     * but no order is kept relative to invocations of interfaces run by other executors <br/>
+     * <br/>
+     * executor is not shut down by the server <br/>
+     * @param interfaceClass interface registered in this builder
+     * @param executor to be used
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setExecutor(Class<?> interfaceClass, Executor executor) {
+        interfaceExecutors.put(interfaceClass, executor);
+        return this;
+    }
+
     /**
      * set executor, which will take care of all socket.accept() routine
      * by default, netty takes only one thread from this
@@ -170,19 +387,70 @@ public class NettyRpcServerBuilder {
         this.workerExecutor = workerExecutor;
     }
 
+    /**
+     * adds another address to listen at, each address gets a listener and an accepting thread of its own <br/>
+     * clients connected to any of them make up single set of {@link RpcServer#getClients() clients} and receive the same broadcasts <br/>
+     * <br/>
+     * addresses may be of different kinds, for example a TCP port along with {@link SharedMemoryAddress SharedMemoryAddress} for clients on the same host
+     * @param bindAddress local address to bind to
+     * @return this builder
+     */
+    public NettyRpcServerBuilder addBindAddress(SocketAddress bindAddress) {
+        bindAddresses.add(bindAddress);
+        return this;
+    }
+
+    /**
+     * sets threads, which will do io and timing for this server, so that many clients and servers can share them <br/>
+     * server takes a reference to resources and drops it on shutdown <br/>
+     * <br/>
+     * if set, executors passed to {@link #setBossExecutor(ExecutorService) setBossExecutor} and {@link #setWorkerExecutor(ExecutorService) setWorkerExecutor} are not used
+     * @param resources to be used, default is null - server gets resources of its own
+     * @return this builder
+     */
+    public NettyRpcServerBuilder setTransportResources(TransportResources resources) {
+        this.transportResources = resources;
+        return this;
+    }
+
     /**
      * @return configured RpcServer
      */
     public RpcServer build() {
+        final TransportResources resources = transportResources != null ? transportResources : new TransportResources(bossExecutor, workerExecutor);
+        try {
+            return newServer(resources);
+        } finally {
+            if (transportResources == null) {
+                resources.release(); // server holds a reference of its own
+            }
+        }
+    }
+
+    private RpcServer newServer(TransportResources resources) {
         return new NettyRpcServer(
-                bindAddress,
-                unmodifiableMap(implementations), 
+                new ArrayList<SocketAddress>(bindAddresses),
+                unmodifiableMap(implementations),
+                MethodTable.forInterfaces(methods.values()),
                 exceptionListeners.toArray(new ExceptionListener[exceptionListeners.size()]),
                 clientListeners.toArray(new ClientListener[clientListeners.size()]),
+                writabilityListeners.toArray(new WritabilityListener[writabilityListeners.size()]),
                 new PrimitiveTypesClassResolver(classResolver),
+                codecFactory,
+                maxFrameLength,
+                compressionThreshold,
+                copyPolicy,
+                batchingPolicy,
+                lowWaterMark,
+                highWaterMark,
+                overflowPolicy,
+                metrics,
                 keepAlive,
-                bossExecutor,
-                workerExecutor
+                idleTimeout,
+                callTimeout,
+                invocationExecutor,
+                new HashMap<Class<?>, Executor>(interfaceExecutors),
+                resources
         );
     }
 }
@@ -0,0 +1,31 @@
+package ru.alepar.rpc.api;
+
+/**
+ * defines what happens to invocations on remote proxy when remote is not {@link Remote#isWritable() writable}, <br/>
+ * i.e. outbound buffer of the connection grew above its high watermark because the other side does not keep up
+ */
+public enum OverflowPolicy {
+
+    /**
+     * invocation is queued anyway, buffer is not bounded <br/>
+     * this is how it always worked, and it may exhaust the heap when the other side is slow
+     */
+    QUEUE,
+
+    /**
+     * caller is blocked until buffer drains below its low watermark or connection is closed <br/>
+     * invocations made from I/O threads are queued instead, as blocking there would stall the very thread draining the buffer
+     */
+    BLOCK,
+
+    /**
+     * invocation throws {@link ru.alepar.rpc.api.exception.WriteBufferOverflowException WriteBufferOverflowException}
+     */
+    FAIL,
+
+    /**
+     * invocation is silently discarded, <br/>
+     * for methods returning future, future fails with {@link ru.alepar.rpc.api.exception.WriteBufferOverflowException WriteBufferOverflowException}
+     */
+    DROP
+}
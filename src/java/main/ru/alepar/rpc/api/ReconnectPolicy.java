@@ -0,0 +1,71 @@
+package ru.alepar.rpc.api;
+
+import java.util.Random;
+
+/**
+ * defines how client restores lost connection to the server <br/>
+ * delay between attempts starts at initial one and doubles after each failed attempt, up to the maximum <br/>
+ * client actually waits random time between half of the delay and the delay, so that clients, which lost server at once, do not all come back at once
+ */
+public class ReconnectPolicy {
+
+    private static final Random RANDOM = new Random();
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxBufferedCalls;
+
+    /**
+     * @param initialDelay delay in milliseconds before first attempt to reconnect
+     * @param maxDelay delay in milliseconds, which delay between attempts never exceeds
+     * @param maxBufferedCalls number of invocations made while disconnected, which are kept to be sent once connection is restored, <br/>
+     *                         invocations beyond that fail with {@link ru.alepar.rpc.api.exception.TransportException TransportException}
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, int maxBufferedCalls) {
+        if (initialDelay < 1 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("delays must satisfy 0 < initialDelay <= maxDelay, got initialDelay=" + initialDelay + " maxDelay=" + maxDelay);
+        }
+        if (maxBufferedCalls < 0) {
+            throw new IllegalArgumentException("maxBufferedCalls must not be negative, got " + maxBufferedCalls);
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxBufferedCalls = maxBufferedCalls;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxBufferedCalls() {
+        return maxBufferedCalls;
+    }
+
+    /**
+     * @return delay before the attempt following the one made after given delay
+     */
+    public long nextDelay(long delay) {
+        return Math.min(delay * 2, maxDelay);
+    }
+
+    /**
+     * @return time to actually wait for given delay, random between half of it and all of it
+     */
+    public long jitter(long delay) {
+        final long half = delay / 2;
+        return delay - half + (long) (RANDOM.nextDouble() * (half + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy{" +
+                "initialDelay=" + initialDelay +
+                ", maxDelay=" + maxDelay +
+                ", maxBufferedCalls=" + maxBufferedCalls +
+                '}';
+    }
+}
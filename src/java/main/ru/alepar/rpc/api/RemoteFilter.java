@@ -0,0 +1,10 @@
+package ru.alepar.rpc.api;
+
+public interface RemoteFilter {
+
+    /**
+     * @param remote candidate
+     * @return true if remote should be included
+     */
+    boolean accept(Remote remote);
+}
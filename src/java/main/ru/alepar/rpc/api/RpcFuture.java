@@ -0,0 +1,39 @@
+package ru.alepar.rpc.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * result of remote call, which will be available some time later <br/>
+ * remote interface methods returning result declare RpcFuture as return type, <br/>
+ * so that implementations never block io thread waiting for result <br/>
+ * <br/>
+ * note that blocking on this future from within an implementation called by remote side <br/>
+ * will stall all other invocations coming from the same connection <br/>
+ * @param <T> type of the result
+ */
+public interface RpcFuture<T> extends Future<T> {
+
+    /**
+     * @return true if call completed successfully
+     */
+    boolean isSuccess();
+
+    /**
+     * @return cause of the failure, or null if call is not completed yet or completed successfully
+     */
+    Throwable getCause();
+
+    /**
+     * waits for this future to complete, unlike {@link #get()} does not throw if call failed
+     * @return this future
+     * @throws InterruptedException if current thread was interrupted
+     */
+    RpcFuture<T> await() throws InterruptedException;
+
+    /**
+     * listener will be notified when call completes, or right away if it is already completed
+     * @param listener to add
+     */
+    void addListener(RpcFutureListener<T> listener);
+
+}
@@ -0,0 +1,10 @@
+package ru.alepar.rpc.api;
+
+public interface RpcFutureListener<T> {
+
+    /**
+     * called when associated call completes, either successfully or not
+     * @param future which has completed
+     */
+    void operationComplete(RpcFuture<T> future);
+}
@@ -16,6 +16,24 @@ public interface RpcServer {
      */
     Collection<Remote> getClients();
 
+    /**
+     * makes the same one-way call on every connected client, which exposes given interface <br/>
+     * message is encoded once per distinct method id and the same bytes are written to every client <br/>
+     * <br/>
+     * clients, which are not {@link Remote#isWritable() writable}, are skipped unless overflow policy is {@link OverflowPolicy#QUEUE QUEUE}, <br/>
+     * broadcast never blocks on a slow client <br/>
+     * all frames are encoded before anything is written, so that broadcast failing to encode is sent to no one
+     * @param clazz interface registered on client side
+     * @param invocation makes exactly one call of a method returning void
+     * @param filter selects clients to send to, null means all clients
+     * @param <T> interface registered on client side
+     * @return future completed once writes to all selected clients complete, with number of them succeeded, failed and skipped, <br/>
+     *         it never fails
+     * @throws ru.alepar.rpc.api.exception.ConfigurationException if call has stream arguments, which can be read only once
+     * @throws ru.alepar.rpc.api.exception.TransportException if call fails to encode
+     */
+    <T> RpcFuture<BroadcastResult> broadcast(Class<T> clazz, Invocation<T> invocation, RemoteFilter filter);
+
     /**
      * shutdowns server, closes connections to all clients, and releases all resources used
      */
@@ -0,0 +1,63 @@
+package ru.alepar.rpc.api;
+
+import java.io.File;
+import java.net.SocketAddress;
+
+/**
+ * address of server reachable through memory-mapped files, for client and server running on the same host <br/>
+ * server watches the directory, each client creates a file there holding a pair of ring buffers, one per direction <br/>
+ * directory should reside on memory-backed file system, like /dev/shm on Linux, so that rings are never written to disk
+ */
+public class SharedMemoryAddress extends SocketAddress {
+
+    public static final int DEFAULT_RING_CAPACITY = 1024 * 1024;
+
+    private final File directory;
+    private final int ringCapacity;
+
+    /**
+     * @param directory to exchange connection files in
+     */
+    public SharedMemoryAddress(File directory) {
+        this(directory, DEFAULT_RING_CAPACITY);
+    }
+
+    /**
+     * @param directory to exchange connection files in
+     * @param ringCapacity size of each ring buffer in bytes, power of two, used by connecting clients
+     */
+    public SharedMemoryAddress(File directory, int ringCapacity) {
+        if (ringCapacity < 4096 || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException("ring capacity must be a power of two, no less than 4096, got " + ringCapacity);
+        }
+        this.directory = directory;
+        this.ringCapacity = ringCapacity;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SharedMemoryAddress that = (SharedMemoryAddress) o;
+        return directory.getAbsoluteFile().equals(that.directory.getAbsoluteFile());
+    }
+
+    @Override
+    public int hashCode() {
+        return directory.getAbsoluteFile().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + directory.getPath();
+    }
+}
@@ -0,0 +1,40 @@
+package ru.alepar.rpc.api;
+
+import java.net.SocketAddress;
+import java.util.Map;
+
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ServerChannelFactory;
+
+/**
+ * way of carrying connections to and from addresses of some kind, like TCP sockets for InetSocketAddress <br/>
+ * clients and servers pick transport by their address among those known to {@link TransportResources TransportResources}, <br/>
+ * see {@link TransportResources#addTransport(Transport)} for plugging in transports of your own
+ */
+public interface Transport {
+
+    /**
+     * @return true if connections to or at this address can be made
+     */
+    boolean supports(SocketAddress address);
+
+    ChannelFactory getClientChannelFactory();
+
+    ServerChannelFactory getServerChannelFactory();
+
+    /**
+     * @return options set on every connection, made by client or accepted by server, like "tcpNoDelay"
+     */
+    Map<String, Object> getConnectionOptions();
+
+    /**
+     * @return true if connections pass messages as objects within the JVM, <br/>
+     *         then no codec is used and values are copied according to {@link CopyPolicy CopyPolicy} instead
+     */
+    boolean isInJvm();
+
+    /**
+     * stops threads of the transport, called once resources it was added to are released
+     */
+    void releaseExternalResources();
+}
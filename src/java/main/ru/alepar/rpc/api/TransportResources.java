@@ -0,0 +1,187 @@
+package ru.alepar.rpc.api;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import ru.alepar.rpc.api.exception.ConfigurationException;
+import ru.alepar.rpc.common.BossThreadFactory;
+import ru.alepar.rpc.common.TimerThreadFactory;
+import ru.alepar.rpc.common.WorkerThreadFactory;
+import ru.alepar.rpc.common.transport.LocalTransport;
+import ru.alepar.rpc.common.transport.NioTransport;
+import ru.alepar.rpc.common.transport.SharedMemoryTransport;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * threads doing io and timing for clients and servers: boss and worker selectors, timers, in-JVM and shared memory connection threads <br/>
+ * one instance may be passed to any number of client and server builders, so that they all run on the same fixed set of threads <br/>
+ * <br/>
+ * {@link Transport transports} carrying connections are known here too: TCP sockets for InetSocketAddress, <br/>
+ * in-JVM connections for LocalAddress, memory-mapped rings for {@link SharedMemoryAddress SharedMemoryAddress}, and whatever is {@link #addTransport(Transport) added} <br/>
+ * <br/>
+ * resources are reference counted: every client and server holds a reference until it is shut down, creator holds one until it calls {@link #release()}, <br/>
+ * threads are stopped once the last reference is released
+ */
+public class TransportResources {
+
+    private static final int DEFAULT_WORKER_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final NioTransport nioTransport;
+    private final ExecutorService localExecutor = newCachedThreadPool(new WorkerThreadFactory());
+    private final List<Transport> transports = new CopyOnWriteArrayList<Transport>();
+    private final Timer timer = new HashedWheelTimer(new TimerThreadFactory());
+
+    private int references = 1;
+    private Timer batchTimer;
+
+    /**
+     * creates resources with twice as many worker selectors as there are processors
+     */
+    public TransportResources() {
+        this(DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * @param workerCount number of worker selectors for client connections, and as many for server ones
+     */
+    public TransportResources(int workerCount) {
+        this(newCachedThreadPool(new BossThreadFactory()), newCachedThreadPool(new WorkerThreadFactory()), workerCount);
+    }
+
+    /**
+     * creates resources with twice as many worker selectors as there are processors
+     * @param bossExecutor executor to take boss threads from, will be shut down once resources are released
+     * @param workerExecutor executor to take worker threads from, will be shut down once resources are released
+     */
+    public TransportResources(ExecutorService bossExecutor, ExecutorService workerExecutor) {
+        this(bossExecutor, workerExecutor, DEFAULT_WORKER_COUNT);
+    }
+
+    /**
+     * @param bossExecutor executor to take boss threads from, will be shut down once resources are released
+     * @param workerExecutor executor to take worker threads from, will be shut down once resources are released
+     * @param workerCount number of worker selectors for client connections, and as many for server ones
+     */
+    public TransportResources(ExecutorService bossExecutor, ExecutorService workerExecutor, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("there must be at least one worker, got " + workerCount);
+        }
+        this.nioTransport = new NioTransport(bossExecutor, workerExecutor, workerCount);
+        transports.add(nioTransport);
+        transports.add(new LocalTransport());
+        transports.add(new SharedMemoryTransport(localExecutor));
+    }
+
+    /**
+     * adds transport, which takes precedence over already known ones for addresses it supports
+     * @param transport to be released along with these resources
+     * @return this resources
+     * @throws IllegalStateException if resources are already released
+     */
+    public synchronized TransportResources addTransport(Transport transport) {
+        if (references == 0) {
+            throw new IllegalStateException("transport resources are already released");
+        }
+        transports.add(0, transport);
+        return this;
+    }
+
+    /**
+     * @return transport for connections to or at address
+     * @throws ConfigurationException if no known transport supports address
+     */
+    public Transport getTransport(SocketAddress address) {
+        for (Transport transport : transports) {
+            if (transport.supports(address)) {
+                return transport;
+            }
+        }
+        throw new ConfigurationException("no transport supports address " + address);
+    }
+
+    /**
+     * takes another reference
+     * @return this resources
+     * @throws IllegalStateException if resources are already released
+     */
+    public synchronized TransportResources retain() {
+        if (references == 0) {
+            throw new IllegalStateException("transport resources are already released");
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * drops a reference, stops all threads if it was the last one <br/>
+     * must not be called from io or timer threads
+     */
+    public void release() {
+        synchronized (this) {
+            if (references == 0) {
+                throw new IllegalStateException("transport resources are already released");
+            }
+            if (--references > 0) {
+                return;
+            }
+        }
+        timer.stop();
+        synchronized (this) {
+            if (batchTimer != null) {
+                batchTimer.stop();
+            }
+        }
+        for (Transport transport : transports) {
+            transport.releaseExternalResources();
+        }
+        localExecutor.shutdown();
+    }
+
+    public ClientSocketChannelFactory getClientChannelFactory() {
+        return nioTransport.getClientChannelFactory();
+    }
+
+    public ServerSocketChannelFactory getServerChannelFactory() {
+        return nioTransport.getServerChannelFactory();
+    }
+
+    /**
+     * @return executor running in-JVM and shared memory connections, which have no selectors to run on
+     */
+    public Executor getLocalExecutor() {
+        return localExecutor;
+    }
+
+    /**
+     * @return timer for timeouts and keepalives, precise to about 100ms
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return timer for batching delays, precise to about a millisecond, created on first call, as only batching connections need it
+     */
+    public synchronized Timer getBatchTimer() {
+        if (batchTimer == null) {
+            batchTimer = new HashedWheelTimer(new TimerThreadFactory(), 1, TimeUnit.MILLISECONDS);
+        }
+        return batchTimer;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TransportResources{" +
+                "references=" + references +
+                '}';
+    }
+}
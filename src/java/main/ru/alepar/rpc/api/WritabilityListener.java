@@ -0,0 +1,11 @@
+package ru.alepar.rpc.api;
+
+public interface WritabilityListener {
+
+    /**
+     * called when outbound buffer of the connection crosses its high watermark, or drains below its low watermark
+     * @param remote which {@link Remote#isWritable() writability} has changed
+     * @param writable new state
+     */
+    void onWritabilityChanged(Remote remote, boolean writable);
+}
@@ -0,0 +1,12 @@
+package ru.alepar.rpc.api.exception;
+
+/**
+ * This exception is thrown when remote side did not reply to a call in time. <br/>
+ * Note that the call might still be executed by the remote side.
+ */
+public class CallTimeoutException extends TransportException {
+
+    public CallTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package ru.alepar.rpc.api.exception;
+
+/**
+ * This exception is thrown when invocation is rejected because outbound buffer of the connection is full. <br/>
+ * See {@link ru.alepar.rpc.api.OverflowPolicy OverflowPolicy}
+ */
+public class WriteBufferOverflowException extends TransportException {
+
+    public WriteBufferOverflowException(String message) {
+        super(message);
+    }
+}
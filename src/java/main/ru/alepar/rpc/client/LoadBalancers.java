@@ -0,0 +1,169 @@
+package ru.alepar.rpc.client;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.alepar.rpc.api.LoadBalancer;
+import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.common.NettyRemote;
+
+public class LoadBalancers {
+
+    /**
+     * @return balancer, which passes invocations to connections in turn
+     */
+    public static LoadBalancer roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * @return balancer, which passes invocation to writable connection with fewest invocations not yet written or awaiting response
+     */
+    public static LoadBalancer leastOutstanding() {
+        return new LeastOutstanding();
+    }
+
+    /**
+     * invocations with equal key go to the same connection, as long as set of connections stays the same, <br/>
+     * when connection is added or removed, only keys of that connection move <br/>
+     * keys of lost connection go to the next connected one clockwise on the ring, so that they spread over the rest, and come back once it's restored <br/>
+     * invocations without argument at given index use null as a key
+     * @param argumentIndex index of invocation argument to be used as a key
+     * @return balancer, which picks connection by hash of the key on a consistent hash ring
+     */
+    public static LoadBalancer consistentHash(int argumentIndex) {
+        return new ConsistentHash(argumentIndex);
+    }
+
+    /**
+     * @return whether connection of pool member is alive, members of unknown kind are taken as alive
+     */
+    static boolean isConnected(Remote remote) {
+        if (remote instanceof ReconnectingRemote) {
+            return ((ReconnectingRemote) remote).isConnected();
+        }
+        return !(remote instanceof NettyRemote) || ((NettyRemote) remote).getChannel().isConnected();
+    }
+
+    private static class RoundRobin implements LoadBalancer {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Remote select(List<Remote> remotes, Method method, Object[] args) {
+            return remotes.get((counter.getAndIncrement() & Integer.MAX_VALUE) % remotes.size());
+        }
+    }
+
+    private static class LeastOutstanding implements LoadBalancer {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Remote select(List<Remote> remotes, Method method, Object[] args) {
+            // start from rotating position, so that ties are spread evenly
+            int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % remotes.size();
+            Remote best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (int i = 0; i < remotes.size(); i++) {
+                Remote remote = remotes.get((start + i) % remotes.size());
+                int load = loadOf(remote);
+                if (load < bestLoad) {
+                    best = remote;
+                    bestLoad = load;
+                }
+            }
+            return best;
+        }
+
+        private static int loadOf(Remote remote) {
+            int outstanding = 0;
+            if (remote instanceof NettyRemote) {
+                outstanding = ((NettyRemote) remote).getOutstanding();
+            } else if (remote instanceof ReconnectingRemote) {
+                outstanding = ((ReconnectingRemote) remote).getOutstanding();
+            }
+            return remote.isWritable() ? outstanding : Integer.MAX_VALUE - 1;
+        }
+    }
+
+    private static class ConsistentHash implements LoadBalancer {
+
+        private static final int POINTS_PER_REMOTE = 100;
+
+        private final int argumentIndex;
+        private volatile Ring ring;
+
+        private ConsistentHash(int argumentIndex) {
+            this.argumentIndex = argumentIndex;
+        }
+
+        @Override
+        public Remote select(List<Remote> remotes, Method method, Object[] args) {
+            Ring current = ring;
+            if (current == null || current.remotes != remotes) {
+                current = new Ring(remotes);
+                ring = current;
+            }
+            Object key = args != null && args.length > argumentIndex ? args[argumentIndex] : null;
+            return current.get(mix(key == null ? 0 : key.hashCode()));
+        }
+
+        private static class Ring {
+
+            private final List<Remote> remotes;
+            private final TreeMap<Integer, Remote> points = new TreeMap<Integer, Remote>();
+
+            private Ring(List<Remote> remotes) {
+                this.remotes = remotes;
+                // several connections to the same server are told apart by their ordinal, not by volatile connection id
+                Map<String, Integer> ordinals = new HashMap<String, Integer>();
+                for (Remote remote : remotes) {
+                    String address = remote.getRemoteAddress();
+                    Integer ordinal = ordinals.get(address);
+                    ordinal = ordinal == null ? 0 : ordinal + 1;
+                    ordinals.put(address, ordinal);
+
+                    String name = address + "#" + ordinal;
+                    for (int i = 0; i < POINTS_PER_REMOTE; i++) {
+                        points.put(mix(name.hashCode() * 31 + i), remote);
+                    }
+                }
+            }
+
+            /**
+             * @return remote of the first point at or after hash, skipping points of lost connections, unless all of them are lost
+             */
+            private Remote get(int hash) {
+                for (Remote remote : points.tailMap(hash, true).values()) {
+                    if (isConnected(remote)) {
+                        return remote;
+                    }
+                }
+                for (Remote remote : points.headMap(hash, false).values()) {
+                    if (isConnected(remote)) {
+                        return remote;
+                    }
+                }
+                Map.Entry<Integer, Remote> entry = points.ceilingEntry(hash);
+                return entry != null ? entry.getValue() : points.firstEntry().getValue();
+            }
+        }
+
+        /**
+         * spreads poor hashCodes, i.e. of small integers, over the ring, finalizer of murmur3
+         */
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+}
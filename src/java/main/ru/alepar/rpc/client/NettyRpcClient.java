@@ -1,108 +1,273 @@
 package ru.alepar.rpc.client;
 
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.codec.serialization.ClassResolver;
-import org.jboss.netty.handler.codec.serialization.ObjectDecoder;
-import org.jboss.netty.handler.codec.serialization.ObjectEncoder;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.BatchingPolicy;
+import ru.alepar.rpc.api.CopyPolicy;
+import ru.alepar.rpc.api.DefaultRpcFuture;
 import ru.alepar.rpc.api.ExceptionListener;
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.api.OverflowPolicy;
+import ru.alepar.rpc.api.ReconnectPolicy;
 import ru.alepar.rpc.api.Remote;
 import ru.alepar.rpc.api.RpcClient;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.Transport;
+import ru.alepar.rpc.api.TransportResources;
+import ru.alepar.rpc.api.WritabilityListener;
+import ru.alepar.rpc.api.exception.ConfigurationException;
 import ru.alepar.rpc.api.exception.TransportException;
-import ru.alepar.rpc.common.KeepAliveTimer;
+import ru.alepar.rpc.common.BatchingHandler;
+import ru.alepar.rpc.common.KeepAliveHandler;
+import ru.alepar.rpc.common.LocalCopyHandler;
+import ru.alepar.rpc.common.LocalDeliveryHandler;
+import ru.alepar.rpc.common.MethodTable;
 import ru.alepar.rpc.common.NettyRemote;
+import ru.alepar.rpc.common.PendingCalls;
+import ru.alepar.rpc.common.ReadThrottle;
+import ru.alepar.rpc.common.SerialExecutor;
+import ru.alepar.rpc.common.codec.Codec;
+import ru.alepar.rpc.common.codec.CodecFactory;
+import ru.alepar.rpc.common.codec.RpcDecoder;
+import ru.alepar.rpc.common.codec.RpcEncoder;
 import ru.alepar.rpc.common.message.ExceptionNotify;
 import ru.alepar.rpc.common.message.HandshakeFromClient;
 import ru.alepar.rpc.common.message.HandshakeFromServer;
 import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.InvocationResponse;
 import ru.alepar.rpc.common.message.KeepAlive;
 import ru.alepar.rpc.common.message.RpcMessage;
+import ru.alepar.rpc.common.message.StreamChunk;
+import ru.alepar.rpc.common.message.StreamCredit;
 
 import static ru.alepar.rpc.common.Util.foldClassesToStrings;
-import static ru.alepar.rpc.common.Util.invokeMethod;
+import static ru.alepar.rpc.common.Util.runDetached;
+import static ru.alepar.rpc.common.Util.setWriteBufferWatermarks;
 import static ru.alepar.rpc.common.Util.unfoldStringToClasses;
+import static ru.alepar.rpc.common.Util.unwrap;
 
 public class NettyRpcClient implements RpcClient {
 
     private final Logger log = LoggerFactory.getLogger(NettyRpcClient.class);
 
     private final ClassResolver classResolver;
-    private final KeepAliveTimer keepAliveTimer;
-    private final CountDownLatch latch;
+    private final TransportResources resources;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final Timer timer;
+    private final IdleStateHandler idleStateHandler;
+    private final KeepAliveHandler keepAliveHandler = new KeepAliveHandler();
+    private final long callTimeout;
+    private final boolean local;
+    private final int compressionThreshold;
+    private final long handshakeTimeout;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final OverflowPolicy overflowPolicy;
+    private final Metrics metrics;
+    private final Executor invocationExecutor;
+    private final ReconnectPolicy reconnectPolicy;
+    private final SocketAddress remoteAddress;
+    private final DefaultRpcFuture<RpcClient> connectFuture = new DefaultRpcFuture<RpcClient>();
+    private final AtomicBoolean connectSettled = new AtomicBoolean();
 
     private final Map<Class<?>, Object> implementations;
+    private final MethodTable methods;
     private final ExceptionListener[] listeners;
+    private final WritabilityListener[] writabilityListeners;
 
     private final ClientBootstrap bootstrap;
-    private final Channel channel;
+    private volatile Channel channel;
     private volatile NettyRemote remote;
+    private volatile ReconnectingRemote reconnectingRemote;
+    private volatile long reconnectDelay;
+    private volatile boolean outageReported;
+    private volatile boolean shuttingDown;
 
-    public NettyRpcClient(final InetSocketAddress remoteAddress, final Map<Class<?>, Object> implementations, final ExceptionListener[] listeners, final ClassResolver classResolver, final long keepalivePeriod, ExecutorService bossExecutor, ExecutorService workerExecutor) {
+    public NettyRpcClient(final SocketAddress remoteAddress, final Map<Class<?>, Object> implementations, final MethodTable methods, final ExceptionListener[] listeners, final WritabilityListener[] writabilityListeners, final ClassResolver classResolver, final CodecFactory codecFactory, final int maxFrameLength, final int compressionThreshold, final CopyPolicy copyPolicy, final BatchingPolicy batchingPolicy, final int lowWaterMark, final int highWaterMark, final OverflowPolicy overflowPolicy, final Metrics metrics, final long keepalivePeriod, final long idleTimeout, final long callTimeout, final long connectTimeout, final long handshakeTimeout, final ReconnectPolicy reconnectPolicy, final Executor invocationExecutor, final TransportResources resources) {
+        final Transport transport = resources.getTransport(remoteAddress);
+        this.remoteAddress = remoteAddress;
         this.implementations = implementations;
+        this.resources = resources.retain();
+        this.timer = resources.getTimer();
+        this.methods = methods;
         this.listeners = listeners;
+        this.writabilityListeners = writabilityListeners;
         this.classResolver = classResolver;
+        this.callTimeout = callTimeout;
+        this.local = transport.isInJvm();
+        this.compressionThreshold = compressionThreshold;
+        this.handshakeTimeout = handshakeTimeout;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        this.reconnectPolicy = reconnectPolicy;
+        this.invocationExecutor = invocationExecutor != null ? new SerialExecutor(invocationExecutor) : null;
+        this.idleStateHandler = keepalivePeriod > 0 || idleTimeout > 0 ? new IdleStateHandler(timer, idleTimeout, keepalivePeriod, 0, TimeUnit.MILLISECONDS) : null;
 
-        bootstrap = new ClientBootstrap(
-                new NioClientSocketChannelFactory(bossExecutor, workerExecutor)
-        );
+        bootstrap = new ClientBootstrap(transport.getClientChannelFactory());
+        bootstrap.setOptions(transport.getConnectionOptions());
+        bootstrap.setOption("connectTimeoutMillis", connectTimeout);
 
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
             public ChannelPipeline getPipeline() throws Exception {
-                return Channels.pipeline(
-                        new ObjectEncoder(),
-                        new ObjectDecoder(classResolver),
-                        new RpcHandler());
+                final Codec codec = codecFactory.newCodec(classResolver);
+                final ChannelPipeline pipeline = Channels.pipeline();
+                if (local) {
+                    pipeline.addLast("delivery", new LocalDeliveryHandler(resources.getLocalExecutor()));
+                    pipeline.addLast("copier", new LocalCopyHandler(copyPolicy, codec));
+                } else {
+                    pipeline.addLast("decoder", new RpcDecoder(codec, maxFrameLength, metrics));
+                    if (batchingPolicy != null) {
+                        pipeline.addLast("batcher", new BatchingHandler(batchingPolicy, resources.getBatchTimer()));
+                    }
+                    pipeline.addLast("encoder", new RpcEncoder(codec, metrics));
+                }
+                if (idleStateHandler != null) {
+                    pipeline.addLast("idle", idleStateHandler);
+                    pipeline.addLast("keepalive", keepAliveHandler);
+                }
+                pipeline.addLast("handler", new RpcHandler());
+                return pipeline;
             }
         });
+    }
 
+    /**
+     * starts connecting to the server, to be called once
+     * @return future, which completes with this client once handshake with server is done, <br/>
+     *         or fails if connection could not be established, in which case client releases its resources by itself
+     */
+    public RpcFuture<RpcClient> connect() {
         final ChannelFuture future = bootstrap.connect(remoteAddress);
-        channel = future.awaitUninterruptibly().getChannel();
+        channel = future.getChannel();
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    failConnect(new TransportException("failed to connect to " + remoteAddress, future.getCause()));
+                }
+            }
+        });
+        return connectFuture;
+    }
+
+    @Override
+    public void shutdown() {
+        shuttingDown = true;
+        if (reconnectingRemote != null) {
+            reconnectingRemote.close(new TransportException("client is shut down"));
+        }
+        channel.close().awaitUninterruptibly();
+        releaseResources();
+    }
 
-        if (!future.isSuccess()) {
-            bootstrap.releaseExternalResources();
-            throw new TransportException("failed to connect to " + remoteAddress, future.getCause());
+    /**
+     * @return false if connection attempt was already settled
+     */
+    private boolean failConnect(final RuntimeException cause) {
+        if (!connectSettled.compareAndSet(false, true)) {
+            return false;
         }
-        
-        latch = new CountDownLatch(1);
-        channel.write(new HandshakeFromClient(foldClassesToStrings(new ArrayList<Class<?>>(implementations.keySet()))));
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("interrupted waiting for handshake", e);
+        shuttingDown = true;
+        runDetached("NettyRpc-release", new Runnable() {
+            @Override
+            public void run() {
+                channel.close().awaitUninterruptibly();
+                releaseResources();
+                connectFuture.setFailure(cause);
+            }
+        });
+        return true;
+    }
+
+    private void connected() {
+        if (reconnectPolicy != null) {
+            reconnectDelay = reconnectPolicy.getInitialDelay();
+            reconnectingRemote = new ReconnectingRemote(remote, reconnectPolicy.getMaxBufferedCalls());
+        }
+        if (!connectFuture.setSuccess(this)) {
+            // cancelled, nobody is going to shut this client down
+            runDetached("NettyRpc-release", new Runnable() {
+                @Override
+                public void run() {
+                    shutdown();
+                }
+            });
         }
+    }
 
-        keepAliveTimer = new KeepAliveTimer(Collections.singleton(remote), keepalivePeriod);
+    private HandshakeFromClient handshake() {
+        return new HandshakeFromClient(foldClassesToStrings(new ArrayList<Class<?>>(methods.getInterfaces())), methods.getSignatures(), compressionThreshold);
     }
 
-    @Override
-    public void shutdown() {
-        keepAliveTimer.stop();
-        channel.close().awaitUninterruptibly();
-        bootstrap.releaseExternalResources();
+    private void scheduleReconnect() {
+        final long delay = reconnectDelay;
+        reconnectDelay = reconnectPolicy.nextDelay(delay);
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (!shuttingDown) {
+                    reconnect();
+                }
+            }
+        }, reconnectPolicy.jitter(delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect() {
+        log.debug("reconnecting to {}", remoteAddress);
+        final ChannelFuture future = bootstrap.connect(remoteAddress);
+        channel = future.getChannel();
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    log.debug("failed to reconnect to " + remoteAddress, future.getCause());
+                    if (!shuttingDown) {
+                        scheduleReconnect();
+                    }
+                    return;
+                }
+                if (shuttingDown) {
+                    future.getChannel().close();
+                }
+            }
+        });
+    }
+
+    private void releaseResources() {
+        if (released.compareAndSet(false, true)) {
+            resources.release();
+        }
     }
 
     @Override
     public Remote getRemote() {
-        return remote;
+        return reconnectingRemote != null ? reconnectingRemote : remote;
     }
 
     private void fireException(Exception exc) {
@@ -115,12 +280,90 @@ public class NettyRpcClient implements RpcClient {
         }
     }
 
+    private void fireWritabilityChanged(boolean writable) {
+        for (WritabilityListener listener : writabilityListeners) {
+            try {
+                listener.onWritabilityChanged(remote, writable);
+            } catch (Exception e) {
+                log.error("writability listener " + listener + " threw exception", e);
+            }
+        }
+    }
+
     private class RpcHandler extends SimpleChannelHandler implements RpcMessage.Visitor {
 
+        private Channel channel;
+        private ReadThrottle throttle;
+        private volatile boolean handshaken;
+        private Timeout handshakeExpiry;
+
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            channel = ctx.getChannel();
+            throttle = new ReadThrottle(channel);
+            setWriteBufferWatermarks(channel, lowWaterMark, highWaterMark);
+        }
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            channel.write(handshake());
+            if (handshakeTimeout > 0) {
+                handshakeExpiry = timer.newTimeout(new TimerTask() {
+                    @Override
+                    public void run(Timeout timeout) throws Exception {
+                        if (!handshaken) {
+                            TransportException exc = new TransportException("no handshake from " + remoteAddress + " in " + handshakeTimeout + "ms");
+                            if (!failConnect(exc)) {
+                                log.warn(exc.getMessage());
+                                channel.close();
+                            }
+                        }
+                    }
+                }, handshakeTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (remote != null && remote.updateWritability()) {
+                fireWritabilityChanged(ctx.getChannel().isWritable());
+            }
+        }
+
+        @Override
+        public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (failConnect(new TransportException("connection to " + remoteAddress + " closed during handshake"))) {
+                return;
+            }
+            if (remote != null) {
+                remote.updateWritability();
+                remote.failPendingCalls(new TransportException("connection to server closed"));
+                remote.getStreams().fail(new TransportException("connection to server closed"));
+            }
+            if (!shuttingDown) {
+                if (reconnectingRemote != null) {
+                    reconnectingRemote.disconnected();
+                }
+                if (!outageReported) {
+                    // connections made by reconnect attempts may close too, outage is reported once until it's over
+                    outageReported = true;
+                    fireException(new TransportException("connection to server closed"));
+                }
+                if (reconnectingRemote != null) {
+                    scheduleReconnect();
+                }
+            }
+        }
+
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
             RpcMessage message = (RpcMessage) e.getMessage();
             log.debug("client got message {}", message.toString());
+            if (!handshaken && !(message instanceof HandshakeFromServer)) {
+                log.warn("closing connection to {}, which sent {} before handshake", remoteAddress, message);
+                ctx.getChannel().close();
+                return;
+            }
 
             message.visit(this);
         }
@@ -137,44 +380,132 @@ public class NettyRpcClient implements RpcClient {
 
         @Override
         public void acceptHandshakeFromServer(HandshakeFromServer msg) {
+            handshaken = true;
+            if (handshakeExpiry != null) {
+                handshakeExpiry.cancel();
+            }
+            if (!local) {
+                channel.getPipeline().get(RpcEncoder.class).setCompressionThreshold(msg.compressionThreshold);
+            }
             try {
-                remote = new NettyRemote(channel, msg.clientId, new HashSet<Class<?>>(unfoldStringToClasses(classResolver, msg.classNames)));
+                remote = new NettyRemote(channel, msg.clientId, MethodTable.forSignatures(unfoldStringToClasses(classResolver, msg.classNames), msg.methodSignatures), new PendingCalls(timer, callTimeout), overflowPolicy, metrics);
             } catch (ClassNotFoundException e) {
                 log.error("interfaces registered on server side are not in the classpath", e);
-                throw new RuntimeException("interfaces registered on server side are not in the classpath", e);
-            } finally {
-                latch.countDown();
+                failConnect(new ConfigurationException("interfaces registered on server side are not in the classpath", e));
+                return;
+            }
+            if (connectSettled.compareAndSet(false, true)) {
+                connected();
+            } else if (reconnectingRemote != null) {
+                log.debug("reconnected to {}", remoteAddress);
+                reconnectDelay = reconnectPolicy.getInitialDelay();
+                outageReported = false;
+                reconnectingRemote.connected(remote);
             }
         }
 
         @Override
-        public void acceptInvocationRequest(InvocationRequest msg) {
-            try {
-                Class<?> clazz = classResolver.resolve(msg.className);
-                Object impl = getImplementation(msg, clazz);
+        public void acceptInvocationRequest(final InvocationRequest msg) {
+            final long received = System.nanoTime();
+            final MethodTable.Entry entry = methods.get(msg.methodId);
+            Executor executor = invocationExecutor;
+            if (entry != null && entry.streaming) {
+                remote.getStreams().open(msg.args);
+            }
+            if (executor == null) {
+                executor = remote.getStreams().readerFor(entry != null && entry.streaming);
+            }
+            if (executor == null) {
+                invoke(entry, msg, received);
+            } else {
+                throttle.queued(!remote.getStreams().isReceiving());
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            invoke(entry, msg, received);
+                        } finally {
+                            throttle.done();
+                        }
+                    }
+                });
+            }
+        }
 
-                invokeMethod(msg, impl, classResolver);
+        private void invoke(MethodTable.Entry entry, InvocationRequest msg, long received) {
+            Object result = null;
+            try {
+                if (entry == null) {
+                    throw new RuntimeException("no method registered on client for id " + msg.methodId);
+                }
+                Object impl = getImplementation(entry.interfaceClass);
+                result = execute(entry, impl, msg.args, received);
+                if (msg.callId != InvocationRequest.ONE_WAY) {
+                    remote.sendResult(msg.callId, result);
+                }
             } catch (Exception exc) {
                 log.error("caught exception while trying to invoke implementation", exc);
-                channel.write(new ExceptionNotify(exc));
+                if (msg.callId != InvocationRequest.ONE_WAY) {
+                    remote.sendFailure(msg.callId, unwrap(exc));
+                } else {
+                    channel.write(new ExceptionNotify(exc));
+                }
+            } finally {
+                if (entry != null && entry.streaming) {
+                    remote.getStreams().release(msg.args, result);
+                }
+            }
+        }
+
+        /**
+         * invokes implementation, reporting time request waited since it was received and time implementation took
+         */
+        private Object execute(MethodTable.Entry entry, Object impl, Object[] args, long received) throws Exception {
+            final long start = System.nanoTime();
+            boolean success = false;
+            try {
+                Object result = entry.invoker.invoke(impl, args);
+                success = true;
+                return result;
+            } finally {
+                metrics.invocationExecuted(entry.interfaceClass, entry.method, start - received, System.nanoTime() - start, success);
             }
         }
 
+        @Override
+        public void acceptInvocationResponse(InvocationResponse msg) {
+            remote.completeCall(msg);
+        }
+
         @Override
         public void acceptKeepAlive(KeepAlive msg) {
             // ignore
         }
 
-        private Object getImplementation(InvocationRequest msg, Class<?> clazz) {
+        @Override
+        public void acceptStreamChunk(StreamChunk msg) {
+            remote.getStreams().accept(msg);
+        }
+
+        @Override
+        public void acceptStreamCredit(StreamCredit msg) {
+            remote.getStreams().accept(msg);
+        }
+
+        private Object getImplementation(Class<?> clazz) {
             Object impl = implementations.get(clazz);
             if(impl == null) {
-                throw new RuntimeException("interface is not registered on client: " + msg.className);
+                throw new RuntimeException("interface is not registered on client: " + clazz.getName());
             }
             return impl;
         }
 
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            if (outageReported) {
+                log.debug("reconnect attempt to " + remoteAddress + " failed", e.getCause());
+                return;
+            }
             fireException(new TransportException(e.getCause()));
         }
 
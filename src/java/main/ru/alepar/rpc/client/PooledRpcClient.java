@@ -0,0 +1,247 @@
+package ru.alepar.rpc.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.alepar.rpc.api.DefaultRpcFuture;
+import ru.alepar.rpc.api.LoadBalancer;
+import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RpcClient;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcFutureListener;
+
+import static ru.alepar.rpc.common.Util.runDetached;
+
+/**
+ * keeps several connections, possibly to several servers, and spreads invocations among them with {@link LoadBalancer}
+ */
+public class PooledRpcClient implements RpcClient {
+
+    private final List<RpcClient> clients;
+    private final PooledRemote remote;
+
+    /**
+     * @param members clients being connected
+     * @param balancer to pick connection for each invocation
+     * @return future, which completes once all members are connected, <br/>
+     *         or fails once all members are settled and some have failed, in which case connected ones are shut down
+     */
+    public static RpcFuture<RpcClient> connect(final List<RpcFuture<RpcClient>> members, final LoadBalancer balancer) {
+        final DefaultRpcFuture<RpcClient> result = new DefaultRpcFuture<RpcClient>();
+        final AtomicInteger remaining = new AtomicInteger(members.size());
+        final RpcFutureListener<RpcClient> listener = new RpcFutureListener<RpcClient>() {
+            @Override
+            public void operationComplete(RpcFuture<RpcClient> future) {
+                if (remaining.decrementAndGet() == 0) {
+                    settle(members, balancer, result);
+                }
+            }
+        };
+        for (RpcFuture<RpcClient> member : members) {
+            member.addListener(listener);
+        }
+        return result;
+    }
+
+    private static void settle(List<RpcFuture<RpcClient>> members, LoadBalancer balancer, final DefaultRpcFuture<RpcClient> result) {
+        final List<RpcClient> clients = new ArrayList<RpcClient>(members.size());
+        Throwable failure = null;
+        for (RpcFuture<RpcClient> member : members) {
+            if (member.isSuccess()) {
+                clients.add(get(member));
+            } else if (failure == null) {
+                failure = member.getCause();
+            }
+        }
+        final PooledRpcClient pool = new PooledRpcClient(clients, balancer);
+        if (failure == null && result.setSuccess(pool)) {
+            return;
+        }
+
+        // either some member failed or nobody waits for the pool anymore
+        final Throwable cause = failure;
+        runDetached("NettyRpc-release", new Runnable() {
+            @Override
+            public void run() {
+                pool.shutdown();
+                if (cause != null) {
+                    result.setFailure(cause);
+                }
+            }
+        });
+    }
+
+    private static RpcClient get(RpcFuture<RpcClient> completed) {
+        try {
+            return completed.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("completed future failed to return result", e);
+        }
+    }
+
+    private PooledRpcClient(List<RpcClient> clients, LoadBalancer balancer) {
+        this.clients = clients;
+
+        List<Remote> remotes = new ArrayList<Remote>(clients.size());
+        for (RpcClient client : clients) {
+            remotes.add(client.getRemote());
+        }
+        this.remote = new PooledRemote(Collections.unmodifiableList(remotes), balancer);
+    }
+
+    @Override
+    public Remote getRemote() {
+        return remote;
+    }
+
+    @Override
+    public void shutdown() {
+        for (RpcClient client : clients) {
+            client.shutdown();
+        }
+    }
+
+    private static class PooledRemote implements Remote {
+
+        private static final AtomicInteger ids = new AtomicInteger();
+
+        private final Id id = new PoolId(ids.incrementAndGet());
+        private final List<Remote> remotes;
+        private final LoadBalancer balancer;
+        private final ConcurrentMap<Class<?>, Object> proxies = new ConcurrentHashMap<Class<?>, Object>();
+
+        private PooledRemote(List<Remote> remotes, LoadBalancer balancer) {
+            this.remotes = remotes;
+            this.balancer = balancer;
+        }
+
+        @Override
+        public Id getId() {
+            return id;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            StringBuilder sb = new StringBuilder();
+            for (Remote remote : remotes) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(remote.getRemoteAddress());
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return true if any of pooled connections is writable
+         */
+        @Override
+        public boolean isWritable() {
+            for (Remote remote : remotes) {
+                if (remote.isWritable()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked"})
+        public <T> T getProxy(Class<T> clazz) {
+            Object proxy = proxies.get(clazz);
+            if (proxy == null) {
+                for (Remote remote : remotes) {
+                    remote.getProxy(clazz); // fail early if some server does not expose the interface
+                }
+                proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, new BalancingHandler(clazz));
+                Object existing = proxies.putIfAbsent(clazz, proxy);
+                if (existing != null) {
+                    proxy = existing;
+                }
+            }
+            return (T) proxy;
+        }
+
+        @Override
+        public String toString() {
+            return "PooledRemote{" + remotes + "}";
+        }
+
+        private class BalancingHandler implements InvocationHandler {
+
+            private final Class<?> clazz;
+
+            private BalancingHandler(Class<?> clazz) {
+                this.clazz = clazz;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    return invokeLocally(proxy, method, args);
+                }
+                Remote target = connected(balancer.select(remotes, method, args));
+                return Proxy.getInvocationHandler(target.getProxy(clazz)).invoke(proxy, method, args);
+            }
+
+            /**
+             * @return supplied remote if its connection is alive, otherwise any other alive one, if there is one
+             */
+            private Remote connected(Remote selected) {
+                if (LoadBalancers.isConnected(selected)) {
+                    return selected;
+                }
+                for (Remote remote : remotes) {
+                    if (LoadBalancers.isConnected(remote)) {
+                        return remote;
+                    }
+                }
+                return selected;
+            }
+
+            private Object invokeLocally(Object proxy, Method method, Object[] args) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Proxy{" + clazz.getName() + "@" + PooledRemote.this + "}";
+            }
+        }
+    }
+
+    private static class PoolId implements Remote.Id {
+
+        private final int id;
+
+        private PoolId(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            return id == ((PoolId) o).id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolId{" + id + "}";
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package ru.alepar.rpc.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.DefaultRpcFuture;
+import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcFutureListener;
+import ru.alepar.rpc.api.exception.TransportException;
+import ru.alepar.rpc.common.MethodTable;
+import ru.alepar.rpc.common.NettyRemote;
+
+import static ru.alepar.rpc.common.Util.runDetached;
+
+/**
+ * remote, which outlives connections to the server: proxies obtained from it invoke whatever connection is current <br/>
+ * invocations made while there is no connection are buffered and sent in order of arrival once connection is restored, <br/>
+ * calls start to time out only when they are actually sent <br/>
+ * buffered invocations are replayed by a thread of their own, as they may stream arguments or block on write buffer overflow, <br/>
+ * invocations made meanwhile are buffered behind them
+ */
+class ReconnectingRemote implements Remote {
+
+    private final Logger log = LoggerFactory.getLogger(ReconnectingRemote.class);
+
+    private final int maxBufferedCalls;
+    private final ConcurrentMap<Class<?>, Object> proxies = new ConcurrentHashMap<Class<?>, Object>();
+
+    private final Object lock = new Object();
+    private final Queue<BufferedCall> buffer = new ArrayDeque<BufferedCall>();
+    private volatile NettyRemote current;
+    private volatile boolean connected;
+    private NettyRemote replaying;
+    private Throwable closeCause;
+
+    ReconnectingRemote(NettyRemote initial, int maxBufferedCalls) {
+        this.current = initial;
+        this.connected = true;
+        this.maxBufferedCalls = maxBufferedCalls;
+    }
+
+    /**
+     * switches proxies to freshly handshaken connection, once buffered invocations are sent
+     */
+    void connected(final NettyRemote remote) {
+        synchronized (lock) {
+            if (closeCause != null) {
+                return;
+            }
+            current = remote;
+            replaying = remote;
+        }
+        runDetached("NettyRpc-replay", new Runnable() {
+            @Override
+            public void run() {
+                replay(remote);
+            }
+        });
+    }
+
+    /**
+     * sends buffered invocations one by one, until buffer is empty or connection is lost again
+     */
+    private void replay(NettyRemote remote) {
+        while (true) {
+            BufferedCall call;
+            synchronized (lock) {
+                if (replaying != remote) {
+                    return;
+                }
+                call = buffer.poll();
+                if (call == null) {
+                    replaying = null;
+                    connected = true;
+                    return;
+                }
+            }
+            call.replay(remote);
+        }
+    }
+
+    /**
+     * starts buffering invocations
+     */
+    void disconnected() {
+        synchronized (lock) {
+            connected = false;
+            replaying = null;
+        }
+    }
+
+    /**
+     * fails buffered invocations and all invocations to come
+     */
+    void close(Throwable cause) {
+        synchronized (lock) {
+            connected = false;
+            replaying = null;
+            closeCause = cause;
+            BufferedCall call;
+            while ((call = buffer.poll()) != null) {
+                call.fail(cause);
+            }
+        }
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return invocations of current connection, which are not yet written or wait for response, along with buffered ones
+     */
+    int getOutstanding() {
+        int buffered;
+        synchronized (lock) {
+            buffered = buffer.size();
+        }
+        return current.getOutstanding() + buffered;
+    }
+
+    @Override
+    public Id getId() {
+        return current.getId();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return current.getRemoteAddress();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return connected && current.isWritable();
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked"})
+    public <T> T getProxy(Class<T> clazz) {
+        Object proxy = proxies.get(clazz);
+        if (proxy == null) {
+            current.getProxy(clazz); // fail early if server does not expose the interface
+            proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, new ReconnectingHandler(clazz));
+            Object existing = proxies.putIfAbsent(clazz, proxy);
+            if (existing != null) {
+                proxy = existing;
+            }
+        }
+        return (T) proxy;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectingRemote{" + current + "}";
+    }
+
+    private static Object invoke(NettyRemote remote, Class<?> clazz, Object proxy, Method method, Object[] args) throws Throwable {
+        return Proxy.getInvocationHandler(remote.getProxy(clazz)).invoke(proxy, method, args);
+    }
+
+    private class ReconnectingHandler implements InvocationHandler {
+
+        private final Class<?> clazz;
+
+        private ReconnectingHandler(Class<?> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return invokeLocally(proxy, method, args);
+            }
+            NettyRemote target;
+            synchronized (lock) {
+                if (!connected) {
+                    return buffer(proxy, method, args);
+                }
+                target = current;
+            }
+            return ReconnectingRemote.invoke(target, clazz, proxy, method, args);
+        }
+
+        private Object buffer(Object proxy, Method method, Object[] args) {
+            boolean oneWay = method.getReturnType() == Void.TYPE;
+            Throwable failure = closeCause;
+            if (failure == null && buffer.size() >= maxBufferedCalls) {
+                failure = new TransportException("not connected to server and " + maxBufferedCalls + " calls are already buffered, rejected call to " + MethodTable.signature(clazz, method));
+            }
+            if (failure != null) {
+                if (oneWay) {
+                    throw failure instanceof TransportException ? (TransportException) failure : new TransportException(failure);
+                }
+                return DefaultRpcFuture.failed(failure);
+            }
+            BufferedCall call = new BufferedCall(clazz, proxy, method, args, oneWay ? null : new DefaultRpcFuture<Object>());
+            buffer.add(call);
+            return call.future;
+        }
+
+        private Object invokeLocally(Object proxy, Method method, Object[] args) {
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            return "Proxy{" + clazz.getName() + "@" + ReconnectingRemote.this + "}";
+        }
+    }
+
+    private class BufferedCall {
+
+        private final Class<?> clazz;
+        private final Object proxy;
+        private final Method method;
+        private final Object[] args;
+        private final DefaultRpcFuture<Object> future;
+
+        private BufferedCall(Class<?> clazz, Object proxy, Method method, Object[] args, DefaultRpcFuture<Object> future) {
+            this.clazz = clazz;
+            this.proxy = proxy;
+            this.method = method;
+            this.args = args;
+            this.future = future;
+        }
+
+        private void replay(NettyRemote remote) {
+            if (future != null && future.isDone()) {
+                return; // cancelled while waiting for connection
+            }
+            try {
+                Object result = invoke(remote, clazz, proxy, method, args);
+                if (future != null) {
+                    @SuppressWarnings({"unchecked"})
+                    RpcFuture<Object> sent = (RpcFuture<Object>) result;
+                    sent.addListener(new RpcFutureListener<Object>() {
+                        @Override
+                        public void operationComplete(RpcFuture<Object> sent) {
+                            if (sent.isSuccess()) {
+                                future.setSuccess(get(sent));
+                            } else {
+                                future.setFailure(sent.getCause());
+                            }
+                        }
+                    });
+                }
+            } catch (Throwable e) {
+                if (future != null) {
+                    future.setFailure(e);
+                } else {
+                    log.error("failed to send buffered call to " + MethodTable.signature(clazz, method), e);
+                }
+            }
+        }
+
+        private void fail(Throwable cause) {
+            if (future != null) {
+                future.setFailure(cause);
+            }
+        }
+
+        private Object get(RpcFuture<Object> completed) {
+            try {
+                return completed.get();
+            } catch (Exception e) {
+                throw new IllegalStateException("completed future failed to return result", e);
+            }
+        }
+    }
+}
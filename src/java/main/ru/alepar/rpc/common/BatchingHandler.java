@@ -0,0 +1,124 @@
+package ru.alepar.rpc.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import ru.alepar.rpc.api.BatchingPolicy;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * coalesces encoded frames written in a burst into one write <br/>
+ * frames are concatenated as is, so receiving side splits them back without any special handling <br/>
+ * buffers of policy's max bytes or more are written on their own, so that large segments are not copied into a batch
+ */
+public class BatchingHandler extends SimpleChannelDownstreamHandler {
+
+    private final BatchingPolicy policy;
+    private final Timer timer;
+
+    private final List<ChannelBuffer> buffers = new ArrayList<ChannelBuffer>();
+    private final List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+    private int bytes;
+    private Timeout flushTimeout;
+
+    public BatchingHandler(BatchingPolicy policy, Timer timer) {
+        this.policy = policy;
+        this.timer = timer;
+    }
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof ChannelBuffer) || ((ChannelBuffer) e.getMessage()).readableBytes() >= policy.getMaxBytes()) {
+            synchronized (this) {
+                flush(ctx);
+                ctx.sendDownstream(e);
+            }
+            return;
+        }
+
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        synchronized (this) {
+            buffers.add(buffer);
+            futures.add(e.getFuture());
+            bytes += buffer.readableBytes();
+
+            if (buffers.size() >= policy.getMaxMessages() || bytes >= policy.getMaxBytes()) {
+                flush(ctx);
+            } else if (flushTimeout == null) {
+                flushTimeout = timer.newTimeout(new TimerTask() {
+                    @Override
+                    public void run(Timeout timeout) throws Exception {
+                        synchronized (BatchingHandler.this) {
+                            if (flushTimeout == timeout) {
+                                flush(ctx);
+                            }
+                        }
+                    }
+                }, policy.getMaxDelayMicros(), TimeUnit.MICROSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            flush(ctx);
+        }
+        super.closeRequested(ctx, e);
+    }
+
+    @Override
+    public void disconnectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            flush(ctx);
+        }
+        super.disconnectRequested(ctx, e);
+    }
+
+    /**
+     * must be called holding the lock, so that batches leave in the same order messages came in
+     */
+    private void flush(ChannelHandlerContext ctx) {
+        if (flushTimeout != null) {
+            flushTimeout.cancel();
+            flushTimeout = null;
+        }
+        if (buffers.isEmpty()) {
+            return;
+        }
+
+        final ChannelFuture[] batchFutures = futures.toArray(new ChannelFuture[futures.size()]);
+        ChannelBuffer batch = wrappedBuffer(buffers.toArray(new ChannelBuffer[buffers.size()]));
+        buffers.clear();
+        futures.clear();
+        bytes = 0;
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                for (ChannelFuture f : batchFutures) {
+                    if (future.isSuccess()) {
+                        f.setSuccess();
+                    } else {
+                        f.setFailure(future.getCause());
+                    }
+                }
+            }
+        });
+        Channels.write(ctx, future, batch);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.alepar.rpc.common;
+
+import java.lang.reflect.Method;
+
+/**
+ * methods of exposed interface along with their invokers <br/>
+ * resolved once, when interface is registered in builder
+ */
+public class InterfaceMethods {
+
+    private final Class<?> interfaceClass;
+    private final Method[] methods;
+    private final Invoker[] invokers;
+
+    public InterfaceMethods(Class<?> interfaceClass) {
+        this.interfaceClass = interfaceClass;
+        this.methods = interfaceClass.getMethods();
+        this.invokers = new Invoker[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            invokers[i] = new ReflectiveInvoker(methods[i]);
+        }
+    }
+
+    public Class<?> getInterfaceClass() {
+        return interfaceClass;
+    }
+
+    public int size() {
+        return methods.length;
+    }
+
+    public Method getMethod(int index) {
+        return methods[index];
+    }
+
+    public Invoker getInvoker(int index) {
+        return invokers[index];
+    }
+}
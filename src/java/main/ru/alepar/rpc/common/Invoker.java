@@ -0,0 +1,16 @@
+package ru.alepar.rpc.common;
+
+/**
+ * already resolved target of remote invocation
+ */
+public interface Invoker {
+
+    /**
+     * @param impl object implementing the interface
+     * @param args invocation arguments, may be null for methods without params
+     * @return value returned by implementation
+     * @throws Exception if invocation failed, exceptions thrown by implementation are wrapped into InvocationTargetException
+     */
+    Object invoke(Object impl, Object[] args) throws Exception;
+
+}
@@ -0,0 +1,29 @@
+package ru.alepar.rpc.common;
+
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.timeout.IdleState;
+import org.jboss.netty.handler.timeout.IdleStateAwareChannelHandler;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.jboss.netty.handler.timeout.ReadTimeoutException;
+import ru.alepar.rpc.common.message.KeepAlive;
+
+/**
+ * reacts on idle events fired by {@link org.jboss.netty.handler.timeout.IdleStateHandler IdleStateHandler} <br/>
+ * pings remote side when nothing was written for a while, <br/>
+ * closes connection when nothing was read for a while, as remote side is either dead or unreachable
+ */
+@ChannelHandler.Sharable
+public class KeepAliveHandler extends IdleStateAwareChannelHandler {
+
+    @Override
+    public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e) throws Exception {
+        if (e.getState() == IdleState.WRITER_IDLE) {
+            e.getChannel().write(KeepAlive.INSTANCE);
+        } else if (e.getState() == IdleState.READER_IDLE) {
+            Channels.fireExceptionCaught(ctx, new ReadTimeoutException("nothing received from " + e.getChannel().getRemoteAddress() + " since " + e.getLastActivityTimeMillis()));
+            e.getChannel().close();
+        }
+    }
+}
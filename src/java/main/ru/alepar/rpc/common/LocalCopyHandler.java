@@ -0,0 +1,130 @@
+package ru.alepar.rpc.common;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import ru.alepar.rpc.api.CopyPolicy;
+import ru.alepar.rpc.api.FileArgument;
+import ru.alepar.rpc.common.codec.Codec;
+import ru.alepar.rpc.common.codec.SessionCodec;
+import ru.alepar.rpc.common.message.ExceptionNotify;
+import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.InvocationResponse;
+import ru.alepar.rpc.common.message.RpcMessage;
+import ru.alepar.rpc.common.stream.StreamRef;
+
+/**
+ * copies outgoing messages of in-JVM connection according to {@link CopyPolicy CopyPolicy}, <br/>
+ * so that sides do not share mutable arguments and results, unless told to
+ */
+public class LocalCopyHandler extends SimpleChannelDownstreamHandler {
+
+    private static final Set<Class<?>> IMMUTABLE = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+            BigInteger.class, BigDecimal.class, FileArgument.class, StreamRef.class
+    ));
+
+    /**
+     * returned by {@link #cloneValue(Object)} for values, which cannot be cloned
+     */
+    private static final Object UNCLONEABLE = new Object();
+
+    private final CopyPolicy policy;
+    private final Codec codec;
+
+    public LocalCopyHandler(CopyPolicy policy, Codec codec) {
+        this.policy = policy;
+        this.codec = codec;
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (policy == CopyPolicy.NONE || !(e.getMessage() instanceof RpcMessage)) {
+            ctx.sendDownstream(e);
+            return;
+        }
+
+        RpcMessage copy;
+        try {
+            copy = copy((RpcMessage) e.getMessage());
+        } catch (Exception exc) {
+            e.getFuture().setFailure(exc);
+            throw exc;
+        }
+        Channels.write(ctx, e.getFuture(), copy, e.getRemoteAddress());
+    }
+
+    private RpcMessage copy(RpcMessage msg) throws Exception {
+        if (!(msg instanceof InvocationRequest || msg instanceof InvocationResponse || msg instanceof ExceptionNotify)) {
+            return msg; // internal messages, which are never modified
+        }
+        if (policy == CopyPolicy.CLONE) {
+            RpcMessage clone = cloneMessage(msg);
+            if (clone != null) {
+                return clone;
+            }
+        }
+        if (codec instanceof SessionCodec) {
+            // copies are decoded right away, remembering classes would only keep encode and decode in lockstep
+            return codec.decode(((SessionCodec) codec).encodeStateless(msg));
+        }
+        return codec.decode(codec.encode(msg));
+    }
+
+    /**
+     * @return copy of message, or null if it holds values which cannot be cloned
+     */
+    private static RpcMessage cloneMessage(RpcMessage msg) {
+        if (msg instanceof InvocationRequest) {
+            InvocationRequest request = (InvocationRequest) msg;
+            if (request.args == null) {
+                return request;
+            }
+            Object[] args = new Object[request.args.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = cloneValue(request.args[i]);
+                if (args[i] == UNCLONEABLE) {
+                    return null;
+                }
+            }
+            return new InvocationRequest(request.callId, request.methodId, args);
+        }
+        if (msg instanceof InvocationResponse) {
+            InvocationResponse response = (InvocationResponse) msg;
+            if (response.exc != null) {
+                return null;
+            }
+            Object result = cloneValue(response.result);
+            return result != UNCLONEABLE ? new InvocationResponse(response.callId, result, null) : null;
+        }
+        return null;
+    }
+
+    private static Object cloneValue(Object value) {
+        if (value == null || value instanceof Enum || IMMUTABLE.contains(value.getClass())) {
+            return value;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz.isArray() && clazz.getComponentType().isPrimitive()) {
+            int length = Array.getLength(value);
+            Object clone = Array.newInstance(clazz.getComponentType(), length);
+            System.arraycopy(value, 0, clone, 0, length);
+            return clone;
+        }
+        if (value instanceof ByteBuffer) {
+            ByteBuffer clone = ByteBuffer.allocate(((ByteBuffer) value).remaining());
+            clone.put(((ByteBuffer) value).duplicate()).flip();
+            return clone;
+        }
+        return UNCLONEABLE;
+    }
+}
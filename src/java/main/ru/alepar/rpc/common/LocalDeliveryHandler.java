@@ -0,0 +1,48 @@
+package ru.alepar.rpc.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+
+/**
+ * hands upstream events of in-JVM connection over to shared executor, one at a time in order of arrival <br/>
+ * local channels deliver messages right in the writing thread, so without it remote side would run in caller's thread, <br/>
+ * making every call synchronous; with it local connection gets an io thread of its own, just like socket one <br/>
+ * queue of undelivered events is not bounded: local channels are always writable, <br/>
+ * so write buffer watermarks and overflow policy do not throttle writers of in-JVM connection
+ */
+public class LocalDeliveryHandler implements ChannelUpstreamHandler {
+
+    private final Executor events;
+
+    /**
+     * @param executor to borrow threads from, see {@link ru.alepar.rpc.api.TransportResources#getLocalExecutor()}
+     */
+    public LocalDeliveryHandler(final Executor executor) {
+        this.events = new SerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                DeadLockProofWorker.start(executor, task);
+            }
+        });
+    }
+
+    @Override
+    public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                ctx.sendUpstream(e);
+            }
+        };
+        try {
+            events.execute(delivery);
+        } catch (RejectedExecutionException exc) {
+            delivery.run(); // resources are released, connection is being torn down
+        }
+    }
+}
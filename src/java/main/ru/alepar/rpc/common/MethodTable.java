@@ -0,0 +1,168 @@
+package ru.alepar.rpc.common;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * numeric ids for every method of exposed interfaces <br/>
+ * side exposing implementations assigns ids and sends their signatures during handshake, <br/>
+ * other side maps received signatures back onto its own Method objects, so each invocation carries just an id <br/>
+ */
+public class MethodTable {
+
+    private final Set<Class<?>> interfaces;
+    private final Entry[] entries;
+    private final Map<Class<?>, Map<Method, Entry>> byInterface = new HashMap<Class<?>, Map<Method, Entry>>();
+
+    private MethodTable(Set<Class<?>> interfaces, Entry[] entries) {
+        this.interfaces = interfaces;
+        this.entries = entries;
+
+        for (Class<?> clazz : interfaces) {
+            byInterface.put(clazz, new HashMap<Method, Entry>());
+        }
+        for (Entry entry : entries) {
+            if (entry != null) {
+                byInterface.get(entry.interfaceClass).put(entry.method, entry);
+            }
+        }
+    }
+
+    /**
+     * assigns ids to all methods of supplied interfaces, used by exposing side
+     */
+    public static MethodTable forInterfaces(Collection<InterfaceMethods> interfaces) {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+        List<Entry> entries = new ArrayList<Entry>();
+        for (InterfaceMethods methods : interfaces) {
+            classes.add(methods.getInterfaceClass());
+            for (int i = 0; i < methods.size(); i++) {
+                entries.add(new Entry(entries.size(), methods.getInterfaceClass(), methods.getMethod(i), methods.getInvoker(i)));
+            }
+        }
+        return new MethodTable(classes, entries.toArray(new Entry[entries.size()]));
+    }
+
+    /**
+     * resolves signatures received from exposing side, index in array is the id <br/>
+     * signatures not matching any method of supplied interfaces are ignored <br/>
+     * entries of resulting table have no invokers
+     */
+    public static MethodTable forSignatures(Collection<Class<?>> interfaces, String[] signatures) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < signatures.length; i++) {
+            ids.put(signatures[i], i);
+        }
+
+        Entry[] entries = new Entry[signatures.length];
+        for (Class<?> clazz : interfaces) {
+            for (Method method : clazz.getMethods()) {
+                Integer id = ids.get(signature(clazz, method));
+                if (id != null) {
+                    entries[id] = new Entry(id, clazz, method, null);
+                }
+            }
+        }
+        return new MethodTable(new HashSet<Class<?>>(interfaces), entries);
+    }
+
+    public static String signature(Class<?> interfaceClass, Method method) {
+        StringBuilder result = new StringBuilder();
+        result.append(interfaceClass.getName()).append('#').append(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(types[i].getName());
+        }
+        return result.append(')').toString();
+    }
+
+    /**
+     * @return signatures of all methods, index in array is the id
+     */
+    public String[] getSignatures() {
+        String[] result = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            result[i] = signature(entries[i].interfaceClass, entries[i].method);
+        }
+        return result;
+    }
+
+    public Set<Class<?>> getInterfaces() {
+        return Collections.unmodifiableSet(interfaces);
+    }
+
+    public boolean exposes(Class<?> interfaceClass) {
+        return interfaces.contains(interfaceClass);
+    }
+
+    /**
+     * @return entry for given id, or null if there's no such method
+     */
+    public Entry get(int id) {
+        if (id < 0 || id >= entries.length) {
+            return null;
+        }
+        return entries[id];
+    }
+
+    /**
+     * @return all resolved entries of given interface, keyed by method, empty if interface is not exposed
+     */
+    public Map<Method, Entry> entriesOf(Class<?> interfaceClass) {
+        Map<Method, Entry> methods = byInterface.get(interfaceClass);
+        if (methods == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(methods);
+    }
+
+    /**
+     * @return entry for given method of given interface, or null if there's no such method
+     */
+    public Entry find(Class<?> interfaceClass, Method method) {
+        Map<Method, Entry> methods = byInterface.get(interfaceClass);
+        if (methods == null) {
+            return null;
+        }
+        return methods.get(method);
+    }
+
+    public static class Entry {
+
+        public final int id;
+        public final Class<?> interfaceClass;
+        public final Method method;
+        public final Invoker invoker;
+        public final boolean oneWay;
+        /**
+         * true if method has InputStream parameters, which are sent as chunks following the invocation
+         */
+        public final boolean streaming;
+
+        private Entry(int id, Class<?> interfaceClass, Method method, Invoker invoker) {
+            this.id = id;
+            this.interfaceClass = interfaceClass;
+            this.method = method;
+            this.invoker = invoker;
+            this.oneWay = method.getReturnType() == Void.TYPE;
+            this.streaming = Arrays.asList(method.getParameterTypes()).contains(InputStream.class);
+        }
+
+        @Override
+        public String toString() {
+            return signature(interfaceClass, method);
+        }
+    }
+}
@@ -4,37 +4,77 @@ import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.Arrays;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+import ru.alepar.rpc.api.DefaultRpcFuture;
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.api.OverflowPolicy;
 import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcFutureListener;
 import ru.alepar.rpc.api.exception.ConfigurationException;
+import ru.alepar.rpc.api.exception.TransportException;
+import ru.alepar.rpc.api.exception.WriteBufferOverflowException;
 import ru.alepar.rpc.common.message.InvocationRequest;
-
-import static ru.alepar.rpc.common.Util.foldClassesToStrings;
-import static ru.alepar.rpc.common.Util.toSerializable;
+import ru.alepar.rpc.common.message.InvocationResponse;
+import ru.alepar.rpc.common.stream.Streams;
 
 public class NettyRemote implements Remote, Serializable {
 
     private final Channel channel;
     private final Id clientId;
-    private final Set<Class<?>> classes;
+    private final MethodTable methods;
+    private final PendingCalls calls;
+    private final OverflowPolicy overflowPolicy;
+    private final Metrics metrics;
+    private final Streams streams;
+    private final ConcurrentMap<Class<?>, Object> proxies = new ConcurrentHashMap<Class<?>, Object>();
+
+    private final AtomicInteger unflushedWrites = new AtomicInteger();
+    private final ChannelFutureListener writeTracker = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            unflushedWrites.decrementAndGet();
+            metrics.writeCompleted();
+        }
+    };
+
+    private final Object writabilityLock = new Object();
+    private boolean writable = true;
 
-    public NettyRemote(Channel channel, Id clientId, Set<Class<?>> classes) {
+    public NettyRemote(Channel channel, Id clientId, MethodTable methods, PendingCalls calls, OverflowPolicy overflowPolicy, Metrics metrics) {
         this.channel = channel;
         this.clientId = clientId;
-        this.classes = classes;
+        this.methods = methods;
+        this.calls = calls;
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        this.streams = new Streams(channel);
     }
 
     @Override
     @SuppressWarnings({"unchecked"})
     public <T> T getProxy(Class<T> clazz) {
-        if (classes.contains(clazz)) {
-            return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, new ProxyHandler());
+        Object proxy = proxies.get(clazz);
+        if (proxy == null) {
+            if (!methods.exposes(clazz)) {
+                throw new ConfigurationException("no implementation on remote side for " + clazz.getCanonicalName());
+            }
+            proxy = Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, new ProxyHandler(clazz));
+            Object existing = proxies.putIfAbsent(clazz, proxy);
+            if (existing != null) {
+                proxy = existing;
+            }
         }
-
-        throw new ConfigurationException("no implementation on remote side for " + clazz.getCanonicalName());
+        return (T) proxy;
     }
 
     @Override
@@ -56,6 +96,111 @@ public class NettyRemote implements Remote, Serializable {
         return channel;
     }
 
+    /**
+     * @return stream arguments in flight over this connection
+     */
+    public Streams getStreams() {
+        return streams;
+    }
+
+    /**
+     * @return methods exposed by remote side
+     */
+    public MethodTable getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return number of invocations made through proxies, which are either not yet written to the socket or wait for response
+     */
+    public int getOutstanding() {
+        return unflushedWrites.get() + calls.size();
+    }
+
+    /**
+     * to be called on channel interest change or close, wakes up callers blocked by {@link OverflowPolicy#BLOCK BLOCK} policy
+     * @return true if writability has changed since last call
+     */
+    public boolean updateWritability() {
+        synchronized (writabilityLock) {
+            writabilityLock.notifyAll();
+            boolean current = channel.isWritable();
+            if (current != writable) {
+                writable = current;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * completes pending call, which given response belongs to
+     */
+    public void completeCall(InvocationResponse msg) {
+        calls.complete(msg.callId, msg.result, msg.exc);
+    }
+
+    /**
+     * fails all calls still waiting for response, to be used when connection is lost
+     */
+    public void failPendingCalls(Throwable cause) {
+        calls.failAll(cause);
+    }
+
+    /**
+     * sends result of the call back to the caller <br/>
+     * if result is a future, response is sent once it completes
+     */
+    public void sendResult(final long callId, Object result) {
+        if (result instanceof RpcFuture) {
+            @SuppressWarnings({"unchecked"})
+            RpcFuture<Object> future = (RpcFuture<Object>) result;
+            future.addListener(new RpcFutureListener<Object>() {
+                @Override
+                public void operationComplete(RpcFuture<Object> future) {
+                    if (future.isSuccess()) {
+                        sendResponse(callId, get(future), null);
+                    } else {
+                        sendResponse(callId, null, future.getCause());
+                    }
+                }
+            });
+        } else {
+            sendResponse(callId, result, null);
+        }
+    }
+
+    /**
+     * writes invocation, either message or its encoded frame, counting it as outstanding until it is written
+     */
+    public ChannelFuture write(Object invocation) {
+        unflushedWrites.incrementAndGet();
+        metrics.writeQueued();
+        ChannelFuture future = channel.write(invocation);
+        future.addListener(writeTracker);
+        return future;
+    }
+
+    public void sendFailure(long callId, Throwable exc) {
+        sendResponse(callId, null, exc);
+    }
+
+    private void sendResponse(long callId, Object result, Throwable exc) {
+        if (result != null && !(result instanceof Serializable)) {
+            exc = new ConfigurationException("result is not serializable: " + result.getClass().getName());
+            result = null;
+        }
+        channel.write(new InvocationResponse(callId, result, exc));
+    }
+
+    private static Object get(Future<?> future) {
+        try {
+            return future.get();
+        } catch (Exception e) {
+            throw new IllegalStateException("completed future failed to return result", e);
+        }
+    }
+
     @Override
     public int hashCode() {
         return clientId.hashCode();
@@ -78,15 +223,114 @@ public class NettyRemote implements Remote, Serializable {
 
     private class ProxyHandler implements InvocationHandler {
 
+        private final Class<?> clazz;
+        private final Map<Method, MethodTable.Entry> entries;
+
+        private ProxyHandler(Class<?> clazz) {
+            this.clazz = clazz;
+            this.entries = methods.entriesOf(clazz);
+        }
+
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            channel.write(new InvocationRequest(
-                    method.getDeclaringClass().getName(),
-                    method.getName(),
-                    toSerializable(args),
-                    foldClassesToStrings(Arrays.asList(method.getParameterTypes())))
-            );
-            return null;
+            MethodTable.Entry entry = entries.get(method);
+            if (entry == null) {
+                return invokeLocally(proxy, method, args);
+            }
+            if (!channel.isWritable() && !admitOverflowing(entry)) {
+                return entry.oneWay ? null : DefaultRpcFuture.failed(overflow(entry));
+            }
+            metrics.invocationSent(clazz, entry.method);
+            if (entry.streaming) {
+                args = streams.export(args);
+            }
+            Object result = null;
+            if (entry.oneWay) {
+                send(new InvocationRequest(InvocationRequest.ONE_WAY, entry.id, args));
+            } else {
+                result = call(entry, args);
+            }
+            if (entry.streaming) {
+                streams.send(args);
+            }
+            return result;
+        }
+
+        /**
+         * @return false if invocation must be dropped
+         */
+        private boolean admitOverflowing(MethodTable.Entry entry) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    awaitWritable();
+                    return true;
+                case FAIL:
+                    throw overflow(entry);
+                case DROP:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private void awaitWritable() {
+            if (DeadLockProofWorker.PARENT.get() != null) {
+                return;
+            }
+            synchronized (writabilityLock) {
+                while (!channel.isWritable() && channel.isOpen()) {
+                    try {
+                        writabilityLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new TransportException("interrupted waiting for write buffer to drain", e);
+                    }
+                }
+            }
+        }
+
+        private WriteBufferOverflowException overflow(MethodTable.Entry entry) {
+            return new WriteBufferOverflowException("write buffer of " + NettyRemote.this + " is full, rejected call to " + MethodTable.signature(clazz, entry.method));
+        }
+
+        private RpcFuture<Object> call(final MethodTable.Entry entry, Object[] args) {
+            final long start = System.nanoTime();
+            final DefaultRpcFuture<Object> future = new DefaultRpcFuture<Object>();
+            future.addListener(new RpcFutureListener<Object>() {
+                @Override
+                public void operationComplete(RpcFuture<Object> future) {
+                    metrics.callCompleted(clazz, entry.method, System.nanoTime() - start, future.isSuccess());
+                }
+            });
+            final long callId = calls.register(future);
+            send(new InvocationRequest(callId, entry.id, args)).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture writeFuture) throws Exception {
+                    if (!writeFuture.isSuccess()) {
+                        future.setFailure(new TransportException("failed to send call", writeFuture.getCause()));
+                    }
+                }
+            });
+            return future;
+        }
+
+        private ChannelFuture send(InvocationRequest msg) {
+            return write(msg);
+        }
+
+        private Object invokeLocally(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("toString".equals(method.getName())) {
+                    return "Proxy{" + clazz.getName() + "@" + NettyRemote.this + "}";
+                }
+            }
+            throw new ConfigurationException("method is not exposed on remote side: " + MethodTable.signature(clazz, method));
         }
 
     }
@@ -0,0 +1,101 @@
+package ru.alepar.rpc.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import ru.alepar.rpc.api.DefaultRpcFuture;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcFutureListener;
+import ru.alepar.rpc.api.exception.CallTimeoutException;
+import ru.alepar.rpc.api.exception.RemoteException;
+
+/**
+ * calls sent to remote side, which are still waiting for response <br/>
+ * entry is removed as soon as its future completes - be it response, timeout, cancellation or connection loss
+ */
+public class PendingCalls {
+
+    private final AtomicLong ids = new AtomicLong();
+    private final ConcurrentMap<Long, DefaultRpcFuture<Object>> calls = new ConcurrentHashMap<Long, DefaultRpcFuture<Object>>();
+
+    private final Timer timer;
+    private final long timeout;
+
+    /**
+     * @param timer to schedule timeouts on
+     * @param timeout in milliseconds, if zero - calls never time out
+     */
+    public PendingCalls(Timer timer, long timeout) {
+        this.timer = timer;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return id, under which call is registered, never equal to {@link ru.alepar.rpc.common.message.InvocationRequest#ONE_WAY}
+     */
+    public long register(final DefaultRpcFuture<Object> future) {
+        final long id = ids.incrementAndGet();
+        calls.put(id, future);
+
+        final Timeout expiry = timeout > 0 ? timer.newTimeout(new ExpiryTask(id), timeout, TimeUnit.MILLISECONDS) : null;
+        future.addListener(new RpcFutureListener<Object>() {
+            @Override
+            public void operationComplete(RpcFuture<Object> f) {
+                calls.remove(id);
+                if (expiry != null) {
+                    expiry.cancel();
+                }
+            }
+        });
+        return id;
+    }
+
+    public void complete(long id, Object result, Throwable exc) {
+        // removed before completing, so that caller woken up by response does not see its call as pending
+        DefaultRpcFuture<Object> future = calls.remove(id);
+        if (future == null) {
+            return; // already timed out or cancelled
+        }
+        if (exc != null) {
+            future.setFailure(new RemoteException(exc));
+        } else {
+            future.setSuccess(result);
+        }
+    }
+
+    public void fail(long id, Throwable cause) {
+        DefaultRpcFuture<Object> future = calls.get(id);
+        if (future != null) {
+            future.setFailure(cause);
+        }
+    }
+
+    public void failAll(Throwable cause) {
+        for (DefaultRpcFuture<Object> future : calls.values()) {
+            future.setFailure(cause);
+        }
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+    private class ExpiryTask implements TimerTask {
+
+        private final long id;
+
+        private ExpiryTask(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run(Timeout t) throws Exception {
+            fail(id, new CallTimeoutException("no response for call #" + id + " in " + timeout + "ms"));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.alepar.rpc.common;
+
+import org.jboss.netty.channel.Channel;
+
+/**
+ * bounds invocations of one connection waiting for executor, like OrderedMemoryAwareThreadPoolExecutor does: <br/>
+ * channel stops reading once {@link #MAX_QUEUED MAX_QUEUED} invocations are queued and resumes once half of them are done, <br/>
+ * so that peer flooding the connection is held back by tcp flow control instead of filling the heap
+ */
+public class ReadThrottle {
+
+    public static final int MAX_QUEUED = 1024;
+    private static final int RESUME_AT = MAX_QUEUED / 2;
+
+    private final Channel channel;
+    private int queued;
+    private boolean suspended;
+
+    public ReadThrottle(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * to be called when invocation is handed to executor
+     * @param suspendable false if reads must go on anyway, e.g. because queued invocations wait for stream chunks
+     */
+    public synchronized void queued(boolean suspendable) {
+        queued++;
+        if (suspendable && !suspended && queued >= MAX_QUEUED) {
+            suspended = true;
+            channel.setReadable(false);
+        }
+    }
+
+    /**
+     * to be called when queued invocation is done, whatever its outcome
+     */
+    public synchronized void done() {
+        queued--;
+        if (suspended && queued <= RESUME_AT) {
+            suspended = false;
+            channel.setReadable(true);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.alepar.rpc.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import ru.alepar.rpc.api.Invocation;
+import ru.alepar.rpc.api.exception.ConfigurationException;
+
+/**
+ * single call captured by passing recording proxy to {@link Invocation}
+ */
+public class RecordedCall {
+
+    public final Method method;
+    public final Object[] args;
+
+    private RecordedCall(Method method, Object[] args) {
+        this.method = method;
+        this.args = args;
+    }
+
+    /**
+     * @throws ConfigurationException if invocation makes no calls, more than one call, or calls method not returning void
+     */
+    public static <T> RecordedCall record(Class<T> clazz, Invocation<T> invocation) {
+        Recorder recorder = new Recorder();
+        invocation.invoke(clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, recorder)));
+        if (recorder.call == null) {
+            throw new ConfigurationException("invocation made no calls on " + clazz.getName());
+        }
+        return recorder.call;
+    }
+
+    private static class Recorder implements InvocationHandler {
+
+        private RecordedCall call;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                throw new ConfigurationException("only interface methods can be recorded, got " + method);
+            }
+            if (method.getReturnType() != void.class) {
+                throw new ConfigurationException("only methods returning void can be recorded, got " + method);
+            }
+            if (call != null) {
+                throw new ConfigurationException("invocation must make exactly one call, second was " + method);
+            }
+            call = new RecordedCall(method, args);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.alepar.rpc.common;
+
+import java.lang.reflect.Method;
+
+/**
+ * invokes pre-resolved method with access checks suppressed <br/>
+ * after a few invocations jvm replaces reflective call with generated accessor, so steady state cost is close to direct call
+ */
+public class ReflectiveInvoker implements Invoker {
+
+    private final Method method;
+
+    public ReflectiveInvoker(Method method) {
+        this.method = method;
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException ignored) {
+            // fall back to checked invocation
+        }
+    }
+
+    @Override
+    public Object invoke(Object impl, Object[] args) throws Exception {
+        return method.invoke(impl, args);
+    }
+
+    @Override
+    public String toString() {
+        return "ReflectiveInvoker{" + method + '}';
+    }
+}
@@ -0,0 +1,76 @@
+package ru.alepar.rpc.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * runs tasks one at a time in submission order, borrowing threads from shared executor <br/>
+ * used to keep invocations coming over one connection ordered, while many connections share a thread pool
+ */
+public class SerialExecutor implements Executor {
+
+    /**
+     * tasks run in one go before thread is given back to shared executor, so that busy connection does not hog it
+     */
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainer = new Drainer();
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * @return true if no task is queued or running, stays true until next task is submitted
+     */
+    public boolean isIdle() {
+        return !scheduled.get() && tasks.isEmpty();
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainer);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private class Drainer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Runnable task;
+                for (int i = 0; i < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null; i++) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("task " + task + " threw exception", e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ru.alepar.rpc.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * starts new thread for every task, meant to be used with cheap threads, i.e. virtual ones
+ */
+public class ThreadPerTaskExecutor implements Executor {
+
+    private final ThreadFactory threadFactory;
+
+    public ThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threadFactory.newThread(task).start();
+    }
+}
@@ -0,0 +1,20 @@
+package ru.alepar.rpc.common;
+
+import java.util.concurrent.ThreadFactory;
+
+public class TimerThreadFactory implements ThreadFactory {
+
+    private static final ThreadGroup group = new ThreadGroup("NettyRpc-timer");
+
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(
+                group, r,
+                ""
+        );
+
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY);
+
+        return t;
+    }
+}
@@ -1,43 +1,24 @@
 package ru.alepar.rpc.common;
 
-import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.nio.NioSocketChannelConfig;
 import org.jboss.netty.handler.codec.serialization.ClassResolver;
-import ru.alepar.rpc.api.exception.ConfigurationException;
-import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.shm.SharedMemoryChannelConfig;
 
 public class Util {
 
-    public static Serializable[] toSerializable(Object[] args) {
-        if(args == null) {
-            return null;
-        }
-        Serializable[] result = new Serializable[args.length];
-        for (int i = 0; i < args.length; i++) {
-            result[i] = (Serializable) args[i];
-        }
-        return result;
-    }
-
-    public static void invokeMethod(InvocationRequest msg, Object impl, ClassResolver classResolver) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, ClassNotFoundException {
-        Method method;
-        if (msg.args != null) {
-            method = impl.getClass().getMethod(msg.methodName, unfoldStringToClasses(classResolver, msg.paramClassNames).toArray(new Class<?>[msg.paramClassNames.length]));
-            if(method == null) {
-                throw new ConfigurationException("method is not found in server implementation: " + msg.methodName);
-            }
-            method.invoke(impl, (Object[]) msg.args);
-        } else {
-            method = impl.getClass().getMethod(msg.methodName);
-            if(method == null) {
-                throw new ConfigurationException("method is not found in server implementation: " + msg.methodName);
-            }
-            method.invoke(impl);
+    /**
+     * @return exception thrown by implementation if supplied exception is InvocationTargetException, supplied exception otherwise
+     */
+    public static Throwable unwrap(Exception exc) {
+        if (exc instanceof InvocationTargetException && exc.getCause() != null) {
+            return exc.getCause();
         }
+        return exc;
     }
 
     public static String[] foldClassesToStrings(List<Class<?>> classes) {
@@ -56,4 +37,41 @@ public class Util {
         }
         return result;
     }
+
+    /**
+     * sets write buffer watermarks, which drive {@link Channel#isWritable()}, if channel supports them <br/>
+     * netty refuses high watermark below current low one and vice versa, so the order depends on current values
+     */
+    public static void setWriteBufferWatermarks(Channel channel, int low, int high) {
+        if (channel.getConfig() instanceof SharedMemoryChannelConfig) {
+            SharedMemoryChannelConfig config = (SharedMemoryChannelConfig) channel.getConfig();
+            if (high >= config.getWriteBufferLowWaterMark()) {
+                config.setWriteBufferHighWaterMark(high);
+                config.setWriteBufferLowWaterMark(low);
+            } else {
+                config.setWriteBufferLowWaterMark(low);
+                config.setWriteBufferHighWaterMark(high);
+            }
+            return;
+        }
+        if (!(channel.getConfig() instanceof NioSocketChannelConfig)) {
+            return;
+        }
+        NioSocketChannelConfig config = (NioSocketChannelConfig) channel.getConfig();
+        if (high >= config.getWriteBufferLowWaterMark()) {
+            config.setWriteBufferHighWaterMark(high);
+            config.setWriteBufferLowWaterMark(low);
+        } else {
+            config.setWriteBufferLowWaterMark(low);
+            config.setWriteBufferHighWaterMark(high);
+        }
+    }
+
+    /**
+     * runs task in a new thread <br/>
+     * io and timer threads can not release executors and timers they run on, so they hand releasing over to such thread
+     */
+    public static void runDetached(String name, Runnable task) {
+        new Thread(task, name).start();
+    }
 }
@@ -1,9 +1,12 @@
 package ru.alepar.rpc.common;
 
+import ru.alepar.rpc.api.RpcFuture;
 import ru.alepar.rpc.api.exception.ConfigurationException;
 
+import java.io.InputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 
 public class Validator {
     
@@ -20,13 +23,13 @@ public class Validator {
     public void validateMethod(Method method) {
         for (int i = 0; i < method.getParameterTypes().length; i++) {
             Class<?> clazz = method.getParameterTypes()[i];
-            if (!clazz.isPrimitive() && !Serializable.class.isAssignableFrom(clazz)) {
+            if (!clazz.isPrimitive() && !Serializable.class.isAssignableFrom(clazz) && clazz != ByteBuffer.class && clazz != InputStream.class) {
                 throw new ConfigurationException("param #" + (i + 1) + "(" + clazz.getName() + ") is not serializable");
             }
         }
         Class<?> clazz = method.getReturnType();
-        if(clazz != Void.TYPE) {
-            throw new ConfigurationException("method must have void as return type");
+        if(clazz != Void.TYPE && clazz != RpcFuture.class) {
+            throw new ConfigurationException("method must have void or RpcFuture as return type");
         }
     }
 
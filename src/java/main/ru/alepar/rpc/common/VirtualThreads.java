@@ -0,0 +1,40 @@
+package ru.alepar.rpc.common;
+
+import java.util.concurrent.ThreadFactory;
+
+import ru.alepar.rpc.api.exception.ConfigurationException;
+
+/**
+ * looks up virtual thread factory, which is available since java 21 <br/>
+ * done through reflection, as the library itself is built for older java
+ */
+public class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = lookupFactory();
+
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * @return factory creating virtual threads named NettyRpc-virtual-N
+     * @throws ConfigurationException if running on java older than 21
+     */
+    public static ThreadFactory factory() {
+        if (FACTORY == null) {
+            throw new ConfigurationException("virtual threads are not supported by this jvm, java 21 or newer is required");
+        }
+        return FACTORY;
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "NettyRpc-virtual-", 0l);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
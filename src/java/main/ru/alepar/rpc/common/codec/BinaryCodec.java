@@ -0,0 +1,479 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+import ru.alepar.rpc.api.FileArgument;
+import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.common.message.ExceptionNotify;
+import ru.alepar.rpc.common.message.HandshakeFromClient;
+import ru.alepar.rpc.common.message.HandshakeFromServer;
+import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.InvocationResponse;
+import ru.alepar.rpc.common.message.KeepAlive;
+import ru.alepar.rpc.common.message.RpcMessage;
+import ru.alepar.rpc.common.message.StreamChunk;
+import ru.alepar.rpc.common.message.StreamCredit;
+import ru.alepar.rpc.common.stream.StreamRef;
+
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static ru.alepar.rpc.common.codec.Wire.readLength;
+import static ru.alepar.rpc.common.codec.Wire.readNullableLength;
+import static ru.alepar.rpc.common.codec.Wire.readSignedVarint;
+import static ru.alepar.rpc.common.codec.Wire.readSignedVarlong;
+import static ru.alepar.rpc.common.codec.Wire.readString;
+import static ru.alepar.rpc.common.codec.Wire.readStrings;
+import static ru.alepar.rpc.common.codec.Wire.readVarint;
+import static ru.alepar.rpc.common.codec.Wire.readVarlong;
+import static ru.alepar.rpc.common.codec.Wire.writeSignedVarint;
+import static ru.alepar.rpc.common.codec.Wire.writeSignedVarlong;
+import static ru.alepar.rpc.common.codec.Wire.writeString;
+import static ru.alepar.rpc.common.codec.Wire.writeStrings;
+import static ru.alepar.rpc.common.codec.Wire.writeVarint;
+import static ru.alepar.rpc.common.codec.Wire.writeVarlong;
+
+/**
+ * hand-written codec for RpcMessage hierarchy <br/>
+ * every message starts with one byte tag, followed by message fields <br/>
+ * arguments are prefixed with one byte type tag, primitives, strings, byte arrays and byte buffers are written directly, <br/>
+ * anything else falls back to java serialization <br/>
+ * <br/>
+ * byte arrays and byte buffers of {@link #SEGMENT_THRESHOLD SEGMENT_THRESHOLD} bytes or more are not copied, but referenced as separate segments, <br/>
+ * so they must not be modified until written; {@link FileArgument FileArgument}s are referenced as file regions <br/>
+ * on receiving side byte buffers and file arguments are slices of received frame <br/>
+ * <br/>
+ * with class dictionary on, serialized values describe each class in full only the first time it is sent over connection, <br/>
+ * see {@link ClassDictionary ClassDictionary}, both sides must have it on then
+ */
+public class BinaryCodec implements SegmentedCodec, SessionCodec {
+
+    /**
+     * size, starting from which byte arrays and byte buffers are written as separate segments
+     */
+    public static final int SEGMENT_THRESHOLD = 8192;
+
+    private static final byte MSG_EXCEPTION_NOTIFY = 1;
+    private static final byte MSG_HANDSHAKE_FROM_CLIENT = 2;
+    private static final byte MSG_HANDSHAKE_FROM_SERVER = 3;
+    private static final byte MSG_INVOCATION_REQUEST = 4;
+    private static final byte MSG_KEEP_ALIVE = 5;
+    private static final byte MSG_INVOCATION_RESPONSE = 6;
+    private static final byte MSG_STREAM_CHUNK = 7;
+    private static final byte MSG_STREAM_CREDIT = 8;
+
+    private static final byte VAL_NULL = 0;
+    private static final byte VAL_TRUE = 1;
+    private static final byte VAL_FALSE = 2;
+    private static final byte VAL_BYTE = 3;
+    private static final byte VAL_SHORT = 4;
+    private static final byte VAL_CHAR = 5;
+    private static final byte VAL_INT = 6;
+    private static final byte VAL_LONG = 7;
+    private static final byte VAL_FLOAT = 8;
+    private static final byte VAL_DOUBLE = 9;
+    private static final byte VAL_STRING = 10;
+    private static final byte VAL_BYTES = 11;
+    private static final byte VAL_SERIALIZED = 12;
+    private static final byte VAL_BYTE_BUFFER = 13;
+    private static final byte VAL_FILE = 14;
+    private static final byte VAL_STREAM = 15;
+
+    private final ClassResolver classResolver;
+    private final boolean classDictionary;
+    private final ClassDictionary dictionary;
+
+    public BinaryCodec(ClassResolver classResolver) {
+        this(classResolver, false);
+    }
+
+    /**
+     * @param classDictionary whether class descriptors are remembered for the lifetime of the codec
+     */
+    public BinaryCodec(ClassResolver classResolver, boolean classDictionary) {
+        this.classResolver = classResolver;
+        this.classDictionary = classDictionary;
+        this.dictionary = classDictionary ? new ClassDictionary() : null;
+    }
+
+    @Override
+    public ChannelBuffer encode(RpcMessage message) throws IOException {
+        return encodeSegments(message).toBuffer();
+    }
+
+    @Override
+    public Segments encodeSegments(RpcMessage message) throws IOException {
+        return encodeSegments(message, dictionary);
+    }
+
+    @Override
+    public boolean isStateful() {
+        return dictionary != null;
+    }
+
+    @Override
+    public ChannelBuffer encodeStateless(RpcMessage message) throws IOException {
+        return encodeSegments(message, null).toBuffer();
+    }
+
+    private Segments encodeSegments(RpcMessage message, ClassDictionary dictionary) throws IOException {
+        MessageWriter writer = new MessageWriter(dictionary);
+        try {
+            message.visit(writer);
+        } catch (RuntimeException e) {
+            if (dictionary != null) {
+                dictionary.rollback();
+            }
+            writer.segments.release();
+            throw e;
+        }
+        writer.segments.add(writer.out);
+        if (writer.failure != null) {
+            if (dictionary != null) {
+                dictionary.rollback();
+            }
+            writer.segments.release();
+            throw writer.failure;
+        }
+        if (dictionary != null) {
+            dictionary.commit();
+        }
+        return writer.segments;
+    }
+
+    @Override
+    public RpcMessage decode(ChannelBuffer in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case MSG_EXCEPTION_NOTIFY:
+                return new ExceptionNotify((Exception) readValue(in));
+            case MSG_HANDSHAKE_FROM_CLIENT:
+                String[] clientClassNames = readStrings(in);
+                String[] clientSignatures = readStrings(in);
+                return new HandshakeFromClient(clientClassNames, clientSignatures, readVarint(in));
+            case MSG_HANDSHAKE_FROM_SERVER:
+                Remote.Id clientId = (Remote.Id) readValue(in);
+                String[] serverClassNames = readStrings(in);
+                String[] serverSignatures = readStrings(in);
+                return new HandshakeFromServer(clientId, serverClassNames, serverSignatures, readVarint(in));
+            case MSG_INVOCATION_REQUEST:
+                long callId = readVarlong(in);
+                int methodId = readVarint(in);
+                Object[] args = null;
+                ClassNotFoundException notFound = null;
+                int length = readNullableLength(in);
+                if (length >= 0) {
+                    args = new Object[length];
+                    for (int i = 0; i < args.length; i++) {
+                        try {
+                            args[i] = readValue(in);
+                        } catch (ClassNotFoundException e) {
+                            notFound = e; // read the rest anyway, so that class dictionary learns all descriptors
+                        }
+                    }
+                }
+                if (notFound != null) {
+                    throw notFound;
+                }
+                return new InvocationRequest(callId, methodId, args);
+            case MSG_INVOCATION_RESPONSE:
+                long responseCallId = readVarlong(in);
+                Object result;
+                try {
+                    result = readValue(in);
+                } catch (ClassNotFoundException e) {
+                    readValue(in);
+                    throw e;
+                }
+                return new InvocationResponse(responseCallId, result, (Throwable) readValue(in));
+            case MSG_KEEP_ALIVE:
+                return KeepAlive.INSTANCE;
+            case MSG_STREAM_CHUNK:
+                long streamId = readVarlong(in);
+                boolean last = in.readByte() != 0;
+                byte[] data = null;
+                int dataLength = readNullableLength(in);
+                if (dataLength >= 0) {
+                    data = new byte[dataLength];
+                    in.readBytes(data);
+                }
+                return new StreamChunk(streamId, data, last);
+            case MSG_STREAM_CREDIT:
+                long creditedId = readVarlong(in);
+                return new StreamCredit(creditedId, readSignedVarint(in));
+            default:
+                throw new StreamCorruptedException("unknown message tag: " + tag);
+        }
+    }
+
+    private void writeValue(ChannelBuffer out, Object value, ClassDictionary dictionary) throws IOException {
+        if (value == null) {
+            out.writeByte(VAL_NULL);
+            return;
+        }
+
+        Class<?> clazz = value.getClass();
+        if (clazz == Boolean.class) {
+            out.writeByte((Boolean) value ? VAL_TRUE : VAL_FALSE);
+        } else if (clazz == Byte.class) {
+            out.writeByte(VAL_BYTE);
+            out.writeByte((Byte) value);
+        } else if (clazz == Short.class) {
+            out.writeByte(VAL_SHORT);
+            writeSignedVarint(out, (Short) value);
+        } else if (clazz == Character.class) {
+            out.writeByte(VAL_CHAR);
+            writeVarint(out, (Character) value);
+        } else if (clazz == Integer.class) {
+            out.writeByte(VAL_INT);
+            writeSignedVarint(out, (Integer) value);
+        } else if (clazz == Long.class) {
+            out.writeByte(VAL_LONG);
+            writeSignedVarlong(out, (Long) value);
+        } else if (clazz == Float.class) {
+            out.writeByte(VAL_FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (clazz == Double.class) {
+            out.writeByte(VAL_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (clazz == String.class) {
+            out.writeByte(VAL_STRING);
+            writeString(out, (String) value);
+        } else if (clazz == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(VAL_BYTES);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        } else if (clazz == StreamRef.class) {
+            out.writeByte(VAL_STREAM);
+            writeVarlong(out, ((StreamRef) value).id);
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) value;
+            out.writeByte(VAL_BYTE_BUFFER);
+            writeVarint(out, buffer.remaining());
+            out.writeBytes(buffer.duplicate());
+        } else {
+            out.writeByte(VAL_SERIALIZED);
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            ObjectOutputStream oout = newOutputStream(new ChannelBufferOutputStream(out), dictionary);
+            oout.writeObject(value);
+            oout.flush();
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        }
+    }
+
+    private Object readValue(ChannelBuffer in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case VAL_NULL:
+                return null;
+            case VAL_TRUE:
+                return Boolean.TRUE;
+            case VAL_FALSE:
+                return Boolean.FALSE;
+            case VAL_BYTE:
+                return in.readByte();
+            case VAL_SHORT:
+                return (short) readSignedVarint(in);
+            case VAL_CHAR:
+                return (char) readVarint(in);
+            case VAL_INT:
+                return readSignedVarint(in);
+            case VAL_LONG:
+                return readSignedVarlong(in);
+            case VAL_FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case VAL_DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case VAL_STRING:
+                return readString(in);
+            case VAL_BYTES:
+                byte[] bytes = new byte[readLength(in)];
+                in.readBytes(bytes);
+                return bytes;
+            case VAL_BYTE_BUFFER:
+                return in.readSlice(readLength(in)).toByteBuffer().slice();
+            case VAL_FILE:
+                return new FileArgument(in.readSlice(readLength(in)).toByteBuffer());
+            case VAL_STREAM:
+                return new StreamRef(readVarlong(in));
+            case VAL_SERIALIZED:
+                int length = in.readInt();
+                int end = in.readerIndex() + length;
+                try {
+                    return newInputStream(new ChannelBufferInputStream(in, length)).readObject();
+                } finally {
+                    in.readerIndex(end);
+                }
+            default:
+                throw new StreamCorruptedException("unknown value tag: " + tag);
+        }
+    }
+
+    private ObjectOutputStream newOutputStream(OutputStream out, ClassDictionary dictionary) throws IOException {
+        if (dictionary != null) {
+            return dictionary.newOutputStream(out);
+        }
+        return classDictionary ? ClassDictionary.newStatelessOutputStream(out) : new ObjectOutputStream(out);
+    }
+
+    private ObjectInputStream newInputStream(InputStream in) throws IOException {
+        if (dictionary != null) {
+            return dictionary.newInputStream(in, classResolver);
+        }
+        return new ClassResolvingObjectInputStream(in, classResolver);
+    }
+
+    private class MessageWriter implements RpcMessage.Visitor {
+
+        private final Segments segments = new Segments();
+        private final ClassDictionary dictionary;
+        private ChannelBuffer out = dynamicBuffer(64);
+        private IOException failure;
+
+        private MessageWriter(ClassDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void acceptExceptionNotify(ExceptionNotify msg) {
+            out.writeByte(MSG_EXCEPTION_NOTIFY);
+            write(msg.exc);
+        }
+
+        @Override
+        public void acceptHandshakeFromClient(HandshakeFromClient msg) {
+            out.writeByte(MSG_HANDSHAKE_FROM_CLIENT);
+            writeStrings(out, msg.classNames);
+            writeStrings(out, msg.methodSignatures);
+            writeVarint(out, msg.compressionThreshold);
+        }
+
+        @Override
+        public void acceptHandshakeFromServer(HandshakeFromServer msg) {
+            out.writeByte(MSG_HANDSHAKE_FROM_SERVER);
+            write(msg.clientId);
+            writeStrings(out, msg.classNames);
+            writeStrings(out, msg.methodSignatures);
+            writeVarint(out, msg.compressionThreshold);
+        }
+
+        @Override
+        public void acceptInvocationRequest(InvocationRequest msg) {
+            out.writeByte(MSG_INVOCATION_REQUEST);
+            writeVarlong(out, msg.callId);
+            writeVarint(out, msg.methodId);
+            if (msg.args == null) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, msg.args.length + 1);
+                for (Object arg : msg.args) {
+                    write(arg);
+                }
+            }
+        }
+
+        @Override
+        public void acceptInvocationResponse(InvocationResponse msg) {
+            out.writeByte(MSG_INVOCATION_RESPONSE);
+            writeVarlong(out, msg.callId);
+            write(msg.result);
+            write(msg.exc);
+        }
+
+        @Override
+        public void acceptKeepAlive(KeepAlive msg) {
+            out.writeByte(MSG_KEEP_ALIVE);
+        }
+
+        @Override
+        public void acceptStreamChunk(StreamChunk msg) {
+            out.writeByte(MSG_STREAM_CHUNK);
+            writeVarlong(out, msg.streamId);
+            out.writeByte(msg.last ? 1 : 0);
+            if (msg.data == null) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, msg.data.length + 1);
+                if (msg.data.length >= SEGMENT_THRESHOLD) {
+                    cut(wrappedBuffer(msg.data));
+                } else {
+                    out.writeBytes(msg.data);
+                }
+            }
+        }
+
+        @Override
+        public void acceptStreamCredit(StreamCredit msg) {
+            out.writeByte(MSG_STREAM_CREDIT);
+            writeVarlong(out, msg.streamId);
+            writeSignedVarint(out, msg.bytes);
+        }
+
+        private void write(Object value) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                if (value instanceof FileArgument) {
+                    writeFile((FileArgument) value);
+                } else if (value instanceof byte[] && ((byte[]) value).length >= SEGMENT_THRESHOLD) {
+                    byte[] bytes = (byte[]) value;
+                    out.writeByte(VAL_BYTES);
+                    writeVarint(out, bytes.length);
+                    cut(wrappedBuffer(bytes));
+                } else if (value instanceof ByteBuffer && ((ByteBuffer) value).remaining() >= SEGMENT_THRESHOLD) {
+                    ByteBuffer buffer = (ByteBuffer) value;
+                    out.writeByte(VAL_BYTE_BUFFER);
+                    writeVarint(out, buffer.remaining());
+                    cut(wrappedBuffer(buffer.duplicate()));
+                } else {
+                    writeValue(out, value, dictionary);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        private void writeFile(FileArgument file) throws IOException {
+            if (file.getLength() > Integer.MAX_VALUE) {
+                throw new IOException("file argument is too long: " + file);
+            }
+            out.writeByte(VAL_FILE);
+            writeVarint(out, (int) file.getLength());
+            if (file.getFile() == null) {
+                cut(wrappedBuffer(file.getContent()));
+            } else {
+                FileChannel channel = file.open();
+                if (channel.size() < file.getPosition() + file.getLength()) {
+                    channel.close();
+                    throw new IOException("file is shorter than file argument: " + file);
+                }
+                segments.add(out);
+                segments.add(new DefaultFileRegion(channel, file.getPosition(), file.getLength(), true));
+                out = dynamicBuffer(64);
+            }
+        }
+
+        /**
+         * ends current buffer and appends segment after it, next values go to new buffer
+         */
+        private void cut(ChannelBuffer segment) {
+            segments.add(out);
+            segments.add(segment);
+            out = dynamicBuffer(64);
+        }
+    }
+}
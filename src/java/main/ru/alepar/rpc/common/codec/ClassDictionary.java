@@ -0,0 +1,168 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+
+/**
+ * class descriptors of java serialization exchanged over one connection <br/>
+ * first time a class is written, its descriptor is sent in full along with a number, later only the number is sent <br/>
+ * streams carry no stream header, and every descriptor is prefixed with a tag telling which of the two it is, <br/>
+ * or that it is sent in full without being remembered, which is how stateless frames are written <br/>
+ * <br/>
+ * classes described while encoding a message are remembered only once it is {@link #commit() committed}, <br/>
+ * so that message which failed to encode and never was sent does not leave peer without descriptors <br/>
+ * encoding side is to be used by one thread at a time, same goes for decoding side
+ */
+class ClassDictionary {
+
+    private static final int PLAIN = 0;
+    private static final int DEFINE = 1;
+    private static final int REFERENCE = 2;
+
+    private final Map<Class<?>, Integer> sent = new HashMap<Class<?>, Integer>();
+    private final List<Class<?>> pending = new ArrayList<Class<?>>();
+    private final List<ObjectStreamClass> received = new ArrayList<ObjectStreamClass>();
+
+    /**
+     * @return stream, which remembers classes it describes, until {@link #rollback() rolled back}
+     */
+    ObjectOutputStream newOutputStream(OutputStream out) throws IOException {
+        return new Output(out, this);
+    }
+
+    /**
+     * @return stream, which sends every descriptor in full, readable by any peer's dictionary
+     */
+    static ObjectOutputStream newStatelessOutputStream(OutputStream out) throws IOException {
+        return new Output(out, null);
+    }
+
+    ObjectInputStream newInputStream(InputStream in, ClassResolver classResolver) throws IOException {
+        return new Input(in, classResolver, this);
+    }
+
+    /**
+     * keeps classes described since last commit or rollback
+     */
+    void commit() {
+        pending.clear();
+    }
+
+    /**
+     * forgets classes described since last commit or rollback, as message describing them is not going to be sent
+     */
+    void rollback() {
+        for (Class<?> clazz : pending) {
+            sent.remove(clazz);
+        }
+        pending.clear();
+    }
+
+    private static class Output extends ObjectOutputStream {
+
+        private final ClassDictionary dictionary;
+
+        private Output(OutputStream out, ClassDictionary dictionary) throws IOException {
+            super(out);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            // both sides know what follows
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Class<?> clazz = desc.forClass();
+            if (dictionary == null || clazz == null) {
+                write(PLAIN);
+                super.writeClassDescriptor(desc);
+                return;
+            }
+            Integer id = dictionary.sent.get(clazz);
+            if (id != null) {
+                write(REFERENCE);
+                writeVarint(id);
+                return;
+            }
+            id = dictionary.sent.size();
+            dictionary.sent.put(clazz, id);
+            dictionary.pending.add(clazz);
+            write(DEFINE);
+            writeVarint(id);
+            super.writeClassDescriptor(desc);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+
+    private static class Input extends ClassResolvingObjectInputStream {
+
+        private final ClassDictionary dictionary;
+
+        private Input(InputStream in, ClassResolver classResolver, ClassDictionary dictionary) throws IOException {
+            super(in, classResolver);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            // both sides know what follows
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int tag = readUnsignedByte();
+            switch (tag) {
+                case PLAIN:
+                    return super.readClassDescriptor();
+                case DEFINE:
+                    int id = readVarint();
+                    if (id != dictionary.received.size()) {
+                        throw new StreamCorruptedException("class descriptor " + id + " is out of order, expected " + dictionary.received.size());
+                    }
+                    ObjectStreamClass desc = super.readClassDescriptor();
+                    dictionary.received.add(desc);
+                    return desc;
+                case REFERENCE:
+                    int referenced = readVarint();
+                    if (referenced >= dictionary.received.size()) {
+                        throw new StreamCorruptedException("unknown class descriptor " + referenced);
+                    }
+                    return dictionary.received.get(referenced);
+                default:
+                    throw new StreamCorruptedException("unknown class descriptor tag: " + tag);
+            }
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("malformed varint");
+        }
+    }
+}
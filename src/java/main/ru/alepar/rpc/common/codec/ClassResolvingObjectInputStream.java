@@ -0,0 +1,23 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+
+class ClassResolvingObjectInputStream extends ObjectInputStream {
+
+    private final ClassResolver classResolver;
+
+    ClassResolvingObjectInputStream(InputStream in, ClassResolver classResolver) throws IOException {
+        super(in);
+        this.classResolver = classResolver;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        return classResolver.resolve(desc.getName());
+    }
+}
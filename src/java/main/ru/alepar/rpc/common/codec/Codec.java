@@ -0,0 +1,29 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import ru.alepar.rpc.common.message.RpcMessage;
+
+/**
+ * turns RpcMessages into bytes and back <br/>
+ * one instance is created per connection, so implementations are free to keep per-connection state <br/>
+ */
+public interface Codec {
+
+    /**
+     * @param message to be encoded
+     * @return buffer holding encoded message, without any framing
+     * @throws IOException if message cannot be encoded
+     */
+    ChannelBuffer encode(RpcMessage message) throws IOException;
+
+    /**
+     * @param frame buffer holding exactly one encoded message
+     * @return decoded message
+     * @throws IOException if frame is malformed
+     * @throws ClassNotFoundException if frame references class which cannot be resolved
+     */
+    RpcMessage decode(ChannelBuffer frame) throws IOException, ClassNotFoundException;
+
+}
@@ -0,0 +1,14 @@
+package ru.alepar.rpc.common.codec;
+
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+
+public interface CodecFactory {
+
+    /**
+     * called once for every new connection
+     * @param classResolver to be used for resolving classes of received objects
+     * @return new codec instance, which will serve this connection only
+     */
+    Codec newCodec(ClassResolver classResolver);
+
+}
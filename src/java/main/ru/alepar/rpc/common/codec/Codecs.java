@@ -0,0 +1,65 @@
+package ru.alepar.rpc.common.codec;
+
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+
+/**
+ * factories for codecs shipped with the library
+ */
+public class Codecs {
+
+    /**
+     * @return factory for compact hand-written binary codec <br/>
+     * primitives, strings and byte arrays are written directly, everything else falls back to java serialization <br/>
+     * large byte arrays, byte buffers and {@link ru.alepar.rpc.api.FileArgument FileArgument}s are written to the socket without copying
+     */
+    public static CodecFactory binary() {
+        return new CodecFactory() {
+            @Override
+            public Codec newCodec(ClassResolver classResolver) {
+                return new BinaryCodec(classResolver);
+            }
+        };
+    }
+
+    /**
+     * @return factory for {@link #binary() binary} codec, which sends descriptor of serialized class in full only the first time <br/>
+     * class is sent over connection, and refers to it by number afterwards; dictionary is started anew on every connection <br/>
+     * pays off when the same serializable classes are sent again and again, both client and server must use it
+     */
+    public static CodecFactory binaryWithClassDictionary() {
+        return new CodecFactory() {
+            @Override
+            public Codec newCodec(ClassResolver classResolver) {
+                return new BinaryCodec(classResolver, true);
+            }
+        };
+    }
+
+    /**
+     * @return factory for codec which passes whole messages through java serialization <br/>
+     * byte buffers cannot be passed with this codec
+     */
+    public static CodecFactory serialization() {
+        return new CodecFactory() {
+            @Override
+            public Codec newCodec(ClassResolver classResolver) {
+                return new SerializationCodec(classResolver);
+            }
+        };
+    }
+
+    /**
+     * @return factory for {@link #serialization() serialization} codec, which sends descriptor of each class in full only the first time <br/>
+     * class is sent over connection, and refers to it by number afterwards; dictionary is started anew on every connection <br/>
+     * both client and server must use it
+     */
+    public static CodecFactory serializationWithClassDictionary() {
+        return new CodecFactory() {
+            @Override
+            public Codec newCodec(ClassResolver classResolver) {
+                return new SerializationCodec(classResolver, true);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,210 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.CompositeChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.common.metrics.NoMetrics;
+
+import static org.jboss.netty.buffer.ChannelBuffers.buffer;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static ru.alepar.rpc.common.codec.Wire.readVarint;
+import static ru.alepar.rpc.common.codec.Wire.varintLength;
+
+/**
+ * splits incoming stream into frames written by {@link RpcEncoder RpcEncoder} and decodes them with supplied codec <br/>
+ * compressed frames are inflated first, their uncompressed length is limited by max frame length too <br/>
+ * unlike FrameDecoder, received buffers are not copied into a cumulation buffer: <br/>
+ * they are kept as they are until frame is complete and then joined into composite buffer, <br/>
+ * so that large frames are never copied and decoded values may safely reference them <br/>
+ * frames of {@link SessionCodec#isStateful() stateful} codec depend on each other, so connection is closed once a frame fails to decode, <br/>
+ * unless it failed on unknown class, which codecs read past
+ */
+public class RpcDecoder extends SimpleChannelUpstreamHandler {
+
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1048576;
+
+    private final Codec codec;
+    private final int maxFrameLength;
+    private final Metrics metrics;
+    private final boolean stateful;
+
+    /**
+     * received buffers, which do not hold complete frame yet, accessed from io thread only
+     */
+    private final List<ChannelBuffer> received = new ArrayList<ChannelBuffer>();
+    private int receivedBytes;
+    private int awaitedBytes;
+    private Inflater inflater;
+
+    public RpcDecoder(Codec codec) {
+        this(codec, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public RpcDecoder(Codec codec, int maxFrameLength) {
+        this(codec, maxFrameLength, NoMetrics.INSTANCE);
+    }
+
+    public RpcDecoder(Codec codec, Metrics metrics) {
+        this(codec, DEFAULT_MAX_FRAME_LENGTH, metrics);
+    }
+
+    public RpcDecoder(Codec codec, int maxFrameLength, Metrics metrics) {
+        this.codec = codec;
+        this.maxFrameLength = maxFrameLength;
+        this.metrics = metrics;
+        this.stateful = codec instanceof SessionCodec && ((SessionCodec) codec).isStateful();
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+        ChannelBuffer input = (ChannelBuffer) e.getMessage();
+        if (!input.readable()) {
+            return;
+        }
+
+        received.add(input);
+        receivedBytes += input.readableBytes();
+        if (receivedBytes < awaitedBytes) {
+            return;
+        }
+
+        ChannelBuffer buffer = received.size() == 1 ? received.get(0) : wrappedBuffer(received.toArray(new ChannelBuffer[received.size()]));
+        received.clear();
+        receivedBytes = 0;
+        awaitedBytes = 0;
+
+        try {
+            Object message;
+            while (buffer.readable() && (message = decode(ctx, e.getChannel(), buffer)) != null) {
+                Channels.fireMessageReceived(ctx, message, e.getRemoteAddress());
+            }
+        } finally {
+            if (buffer.readable()) {
+                keep(buffer);
+            }
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * keeps the rest of incomplete frame, decomposing composite buffer so that composites are never nested
+     */
+    private void keep(ChannelBuffer buffer) {
+        receivedBytes = buffer.readableBytes();
+        if (buffer instanceof CompositeChannelBuffer) {
+            received.addAll(((CompositeChannelBuffer) buffer).decompose(buffer.readerIndex(), buffer.readableBytes()));
+        } else {
+            received.add(buffer.slice());
+        }
+    }
+
+    /**
+     * @return decoded message, or null if buffer does not hold complete frame yet
+     */
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        int headerLength = varintLength(buffer);
+        if (headerLength < 0) {
+            return null;
+        }
+
+        buffer.markReaderIndex();
+        int header = readVarint(buffer);
+        int length = header >>> 1;
+        if (length > maxFrameLength) {
+            buffer.skipBytes(buffer.readableBytes());
+            channel.close();
+            throw new TooLongFrameException("frame length exceeds " + maxFrameLength + ": " + length);
+        }
+        if (buffer.readableBytes() < length) {
+            buffer.resetReaderIndex();
+            awaitedBytes = headerLength + length;
+            return null;
+        }
+
+        long start = System.nanoTime();
+        ChannelBuffer body = buffer.readSlice(length);
+        if ((header & 1) != 0) {
+            body = inflate(channel, body);
+        }
+        Object message;
+        try {
+            message = codec.decode(body);
+        } catch (ClassNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            if (stateful) {
+                channel.close();
+            }
+            throw e;
+        }
+        metrics.messageDecoded(length, System.nanoTime() - start);
+        return message;
+    }
+
+    private ChannelBuffer inflate(Channel channel, ChannelBuffer body) throws Exception {
+        int length = readVarint(body);
+        if (length > maxFrameLength) {
+            channel.close();
+            throw new TooLongFrameException("uncompressed frame length exceeds " + maxFrameLength + ": " + length);
+        }
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        ChannelBuffer out = buffer(length);
+        int inflated = 0;
+        try {
+            for (ByteBuffer input : body.toByteBuffers()) {
+                if (input.hasArray()) {
+                    inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                } else {
+                    byte[] copy = new byte[input.remaining()];
+                    input.get(copy);
+                    inflater.setInput(copy);
+                }
+                while (inflated < length && !inflater.needsInput() && !inflater.finished()) {
+                    int n = inflater.inflate(out.array(), out.arrayOffset() + inflated, length - inflated);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        throw new StreamCorruptedException("compressed frame requires dictionary");
+                    }
+                    inflated += n;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("malformed compressed frame: " + e.getMessage());
+        } finally {
+            inflater.reset();
+        }
+        if (inflated != length) {
+            throw new StreamCorruptedException("compressed frame holds " + inflated + " bytes instead of " + length);
+        }
+        out.writerIndex(length);
+        return out;
+    }
+}
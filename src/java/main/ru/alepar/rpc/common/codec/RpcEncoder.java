@@ -0,0 +1,289 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FileRegion;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.common.message.RpcMessage;
+import ru.alepar.rpc.common.metrics.NoMetrics;
+
+import static org.jboss.netty.buffer.ChannelBuffers.buffer;
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static ru.alepar.rpc.common.codec.Wire.writeVarint;
+
+/**
+ * encodes RpcMessages with supplied codec and prepends frame header: varint of body length shifted left by one, <br/>
+ * with lowest bit set for bodies compressed with raw Deflate and prefixed by varint of uncompressed length <br/>
+ * compression is off until {@link #setCompressionThreshold(int)} is called, once both sides agreed on it during handshake <br/>
+ * messages of {@link SegmentedCodec SegmentedCodec} may be written as several buffers and file regions, <br/>
+ * so all writes, closes and disconnects are serialized through a queue to keep segments of one frame together, <br/>
+ * without holding locks while writing <br/>
+ * frames of {@link SessionCodec#isStateful() stateful} codec are encoded and queued under a lock, so that they are written in the order they were encoded
+ */
+public class RpcEncoder extends SimpleChannelDownstreamHandler {
+
+    private final Codec codec;
+    private final Metrics metrics;
+    private final boolean stateful;
+
+    /**
+     * largest body length, which fits into frame header along with compression flag
+     */
+    public static final int MAX_BODY_LENGTH = Integer.MAX_VALUE >> 1;
+
+    private static final int MAX_POOLED_DEFLATERS = 4;
+
+    private final Queue<Write> writes = new ConcurrentLinkedQueue<Write>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    private volatile int compressionThreshold;
+
+    public RpcEncoder(Codec codec) {
+        this(codec, NoMetrics.INSTANCE);
+    }
+
+    public RpcEncoder(Codec codec, Metrics metrics) {
+        this.codec = codec;
+        this.metrics = metrics;
+        this.stateful = codec instanceof SessionCodec && ((SessionCodec) codec).isStateful();
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object msg = e.getMessage();
+        if (!(msg instanceof RpcMessage)) {
+            write(ctx, new Write(e));
+            return;
+        }
+
+        if (stateful) {
+            synchronized (codec) {
+                writes.add(encode((RpcMessage) msg, e));
+            }
+            flush(ctx);
+        } else {
+            write(ctx, encode((RpcMessage) msg, e));
+        }
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        write(ctx, new Write(e));
+    }
+
+    @Override
+    public void disconnectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        write(ctx, new Write(e));
+    }
+
+    /**
+     * @param threshold messages of this many bytes or more are compressed, zero turns compression off
+     */
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * @return body framed without compression
+     */
+    public static ChannelBuffer frame(ChannelBuffer body) {
+        ChannelBuffer header = buffer(5);
+        writeVarint(header, body.readableBytes() << 1);
+        return wrappedBuffer(header, body);
+    }
+
+    private Write encode(RpcMessage msg, MessageEvent e) throws IOException {
+        long start = System.nanoTime();
+        Object[] parts;
+        try {
+            parts = frame(encode(msg), compressionThreshold);
+        } catch (IOException exc) {
+            e.getFuture().setFailure(exc);
+            throw exc;
+        }
+        metrics.messageEncoded(length(parts), System.nanoTime() - start);
+        return new Write(parts, e.getFuture(), e.getRemoteAddress());
+    }
+
+    private Segments encode(RpcMessage msg) throws IOException {
+        if (codec instanceof SegmentedCodec) {
+            return ((SegmentedCodec) codec).encodeSegments(msg);
+        }
+        return Segments.of(codec.encode(msg));
+    }
+
+    private Object[] frame(Segments segments, int threshold) throws IOException {
+        if (segments.length() > MAX_BODY_LENGTH) {
+            segments.release();
+            throw new IOException("message is too long: " + segments.length() + " bytes");
+        }
+        if (threshold > 0 && segments.length() >= threshold) {
+            ChannelBuffer plain = segments.toBuffer();
+            ChannelBuffer compressed = compress(plain);
+            if (compressed.readableBytes() < plain.readableBytes()) {
+                return new Object[]{wrappedBuffer(header(compressed.readableBytes(), true), compressed)};
+            }
+            return new Object[]{wrappedBuffer(header(plain.readableBytes(), false), plain)};
+        }
+        ChannelBuffer header = header((int) segments.length(), false);
+
+        List<Object> parts = segments.parts();
+        if (parts.isEmpty() || !(parts.get(0) instanceof ChannelBuffer)) {
+            Object[] result = new Object[parts.size() + 1];
+            result[0] = header;
+            for (int i = 0; i < parts.size(); i++) {
+                result[i + 1] = parts.get(i);
+            }
+            return result;
+        }
+        Object[] result = parts.toArray();
+        result[0] = wrappedBuffer(header, (ChannelBuffer) result[0]);
+        return result;
+    }
+
+    private static ChannelBuffer header(int length, boolean compressed) {
+        ChannelBuffer header = buffer(5);
+        writeVarint(header, length << 1 | (compressed ? 1 : 0));
+        return header;
+    }
+
+    /**
+     * @return varint of plain length followed by raw Deflate of plain
+     */
+    private ChannelBuffer compress(ChannelBuffer plain) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            ChannelBuffer out = dynamicBuffer(plain.readableBytes() / 2 + 16);
+            writeVarint(out, plain.readableBytes());
+            for (ByteBuffer input : plain.toByteBuffers()) {
+                if (input.hasArray()) {
+                    deflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                } else {
+                    byte[] copy = new byte[input.remaining()];
+                    input.get(copy);
+                    deflater.setInput(copy);
+                }
+                while (!deflater.needsInput()) {
+                    deflate(deflater, out);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(deflater, out);
+            }
+            return out;
+        } finally {
+            deflater.reset();
+            if (deflaters.size() < MAX_POOLED_DEFLATERS) {
+                deflaters.offer(deflater);
+            } else {
+                deflater.end();
+            }
+        }
+    }
+
+    private static void deflate(Deflater deflater, ChannelBuffer out) {
+        out.ensureWritableBytes(8192);
+        int written = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+        out.writerIndex(out.writerIndex() + written);
+    }
+
+    private static int length(Object[] parts) {
+        long length = 0;
+        for (Object part : parts) {
+            length += part instanceof ChannelBuffer ? ((ChannelBuffer) part).readableBytes() : ((FileRegion) part).getCount();
+        }
+        return (int) length;
+    }
+
+    private void write(ChannelHandlerContext ctx, Write write) {
+        writes.add(write);
+        flush(ctx);
+    }
+
+    /**
+     * whichever thread finds the queue idle writes everything queued, including writes enqueued meanwhile by others
+     */
+    private void flush(ChannelHandlerContext ctx) {
+        while (!writes.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                Write next;
+                while ((next = writes.poll()) != null) {
+                    next.send(ctx);
+                }
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    private static class Write {
+
+        private final Object[] parts;
+        private final ChannelFuture future;
+        private final SocketAddress remoteAddress;
+        private final ChannelEvent event;
+
+        private Write(Object[] parts, ChannelFuture future, SocketAddress remoteAddress) {
+            this.parts = parts;
+            this.future = future;
+            this.remoteAddress = remoteAddress;
+            this.event = null;
+        }
+
+        /**
+         * event to be passed downstream as is
+         */
+        private Write(ChannelEvent event) {
+            this.parts = null;
+            this.future = event.getFuture();
+            this.remoteAddress = null;
+            this.event = event;
+        }
+
+        private void send(ChannelHandlerContext ctx) {
+            try {
+                if (event != null) {
+                    ctx.sendDownstream(event);
+                    return;
+                }
+                for (int i = 0; i < parts.length - 1; i++) {
+                    ChannelFuture partFuture = Channels.future(ctx.getChannel());
+                    partFuture.addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture partFuture) throws Exception {
+                            if (!partFuture.isSuccess()) {
+                                future.setFailure(partFuture.getCause());
+                            }
+                        }
+                    });
+                    Channels.write(ctx, partFuture, parts[i], remoteAddress);
+                }
+                Channels.write(ctx, future, parts[parts.length - 1], remoteAddress);
+            } catch (RuntimeException e) {
+                future.setFailure(e);
+            }
+        }
+    }
+}
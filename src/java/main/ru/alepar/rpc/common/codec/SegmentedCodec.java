@@ -0,0 +1,20 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+
+import ru.alepar.rpc.common.message.RpcMessage;
+
+/**
+ * codec, which keeps large values out of the encoded buffer <br/>
+ * {@link RpcEncoder RpcEncoder} writes such values to the channel as they are, without copying them
+ */
+public interface SegmentedCodec extends Codec {
+
+    /**
+     * @param message to be encoded
+     * @return segments holding encoded message, without any framing
+     * @throws IOException if message cannot be encoded
+     */
+    Segments encodeSegments(RpcMessage message) throws IOException;
+
+}
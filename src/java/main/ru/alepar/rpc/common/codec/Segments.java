@@ -0,0 +1,102 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.channel.FileRegion;
+
+import static java.nio.channels.Channels.newChannel;
+import static org.jboss.netty.buffer.ChannelBuffers.EMPTY_BUFFER;
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * encoded message made of buffers and file regions, which are put on the wire one after another <br/>
+ * large values are kept as separate segments, so they reach the socket without being copied into one buffer
+ */
+public class Segments {
+
+    private final List<Object> parts = new ArrayList<Object>();
+    private long length;
+
+    public static Segments of(ChannelBuffer buffer) {
+        Segments segments = new Segments();
+        segments.add(buffer);
+        return segments;
+    }
+
+    public void add(ChannelBuffer buffer) {
+        if (buffer.readable()) {
+            parts.add(buffer);
+            length += buffer.readableBytes();
+        }
+    }
+
+    public void add(FileRegion region) {
+        parts.add(region);
+        length += region.getCount();
+    }
+
+    /**
+     * @return total number of bytes in all segments
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return ChannelBuffers and FileRegions in the order they must be written
+     */
+    public List<Object> parts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * joins all segments into one buffer, reading file regions into heap
+     * @return buffer holding the whole message
+     * @throws IOException if file region cannot be read
+     */
+    public ChannelBuffer toBuffer() throws IOException {
+        if (parts.isEmpty()) {
+            return EMPTY_BUFFER;
+        }
+        if (parts.size() == 1 && parts.get(0) instanceof ChannelBuffer) {
+            return (ChannelBuffer) parts.get(0);
+        }
+
+        ChannelBuffer[] buffers = new ChannelBuffer[parts.size()];
+        try {
+            for (int i = 0; i < buffers.length; i++) {
+                Object part = parts.get(i);
+                buffers[i] = part instanceof ChannelBuffer ? (ChannelBuffer) part : read((FileRegion) part);
+            }
+        } finally {
+            release();
+        }
+        return wrappedBuffer(buffers);
+    }
+
+    /**
+     * frees resources held by file regions, must be called if segments are not going to be written
+     */
+    public void release() {
+        for (Object part : parts) {
+            if (part instanceof FileRegion) {
+                ((FileRegion) part).releaseExternalResources();
+            }
+        }
+    }
+
+    private static ChannelBuffer read(FileRegion region) throws IOException {
+        ChannelBufferOutputStream out = new ChannelBufferOutputStream(dynamicBuffer((int) region.getCount()));
+        long position = 0;
+        while (position < region.getCount()) {
+            position += region.transferTo(newChannel(out), position);
+        }
+        return out.buffer();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.handler.codec.serialization.ClassResolver;
+import ru.alepar.rpc.common.message.RpcMessage;
+
+import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
+
+/**
+ * passes whole message through java serialization, same as ObjectEncoder/ObjectDecoder did <br/>
+ * with class dictionary on, each class is described in full only the first time it is sent over connection, <br/>
+ * see {@link ClassDictionary ClassDictionary}, both sides must have it on then
+ */
+public class SerializationCodec implements SessionCodec {
+
+    private final ClassResolver classResolver;
+    private final ClassDictionary dictionary;
+
+    public SerializationCodec(ClassResolver classResolver) {
+        this(classResolver, false);
+    }
+
+    /**
+     * @param classDictionary whether class descriptors are remembered for the lifetime of the codec
+     */
+    public SerializationCodec(ClassResolver classResolver, boolean classDictionary) {
+        this.classResolver = classResolver;
+        this.dictionary = classDictionary ? new ClassDictionary() : null;
+    }
+
+    @Override
+    public ChannelBuffer encode(RpcMessage message) throws IOException {
+        ChannelBufferOutputStream bout = new ChannelBufferOutputStream(dynamicBuffer(256));
+        if (dictionary == null) {
+            return encode(message, bout, new ObjectOutputStream(bout));
+        }
+        try {
+            ChannelBuffer encoded = encode(message, bout, dictionary.newOutputStream(bout));
+            dictionary.commit();
+            return encoded;
+        } catch (IOException e) {
+            dictionary.rollback();
+            throw e;
+        } catch (RuntimeException e) {
+            dictionary.rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isStateful() {
+        return dictionary != null;
+    }
+
+    @Override
+    public ChannelBuffer encodeStateless(RpcMessage message) throws IOException {
+        if (dictionary == null) {
+            return encode(message);
+        }
+        ChannelBufferOutputStream bout = new ChannelBufferOutputStream(dynamicBuffer(256));
+        return encode(message, bout, ClassDictionary.newStatelessOutputStream(bout));
+    }
+
+    @Override
+    public RpcMessage decode(ChannelBuffer frame) throws IOException, ClassNotFoundException {
+        ChannelBufferInputStream in = new ChannelBufferInputStream(frame);
+        ObjectInputStream oin = dictionary != null ? dictionary.newInputStream(in, classResolver) : new ClassResolvingObjectInputStream(in, classResolver);
+        return (RpcMessage) oin.readObject();
+    }
+
+    private static ChannelBuffer encode(RpcMessage message, ChannelBufferOutputStream bout, ObjectOutputStream oout) throws IOException {
+        oout.writeObject(message);
+        oout.flush();
+        return bout.buffer();
+    }
+}
@@ -0,0 +1,27 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.IOException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import ru.alepar.rpc.common.message.RpcMessage;
+
+/**
+ * codec, which may remember what it has already sent over the connection, like descriptors of serialized classes <br/>
+ * frames of stateful codec refer to earlier ones, so they must be written in the order they were encoded <br/>
+ * and are understood only by peer's decoder, which has seen all of them
+ */
+public interface SessionCodec extends Codec {
+
+    /**
+     * @return true if encoded frames depend on earlier frames of the connection
+     */
+    boolean isStateful();
+
+    /**
+     * @param message to be encoded
+     * @return buffer holding encoded message, which does not depend on connection state <br/>
+     *         so that it can be written to any connection using the same codec, in any order
+     * @throws IOException if message cannot be encoded
+     */
+    ChannelBuffer encodeStateless(RpcMessage message) throws IOException;
+}
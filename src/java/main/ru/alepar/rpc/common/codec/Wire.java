@@ -0,0 +1,140 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * low-level primitives of the binary wire format
+ */
+public class Wire {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static void writeVarint(ChannelBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarint(ChannelBuffer in) throws StreamCorruptedException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint");
+    }
+
+    /**
+     * reads length of what follows, which takes at least one byte per unit, so that corrupt or hostile length is rejected before anything is allocated for it
+     * @throws StreamCorruptedException if length is negative or exceeds bytes left in the buffer
+     */
+    public static int readLength(ChannelBuffer in) throws StreamCorruptedException {
+        int length = readVarint(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new StreamCorruptedException("length " + length + " is out of bounds, " + in.readableBytes() + " bytes left");
+        }
+        return length;
+    }
+
+    /**
+     * reads length written as length plus one, so that zero stands for null, checked as {@link #readLength(ChannelBuffer) readLength} does
+     * @return length, or -1 for null
+     */
+    public static int readNullableLength(ChannelBuffer in) throws StreamCorruptedException {
+        int length = readVarint(in) - 1;
+        if (length < -1 || length > in.readableBytes()) {
+            throw new StreamCorruptedException("length " + length + " is out of bounds, " + in.readableBytes() + " bytes left");
+        }
+        return length;
+    }
+
+    /**
+     * @return number of bytes occupied by varint at the reader index, or -1 if buffer does not hold complete varint yet
+     */
+    public static int varintLength(ChannelBuffer in) throws StreamCorruptedException {
+        int readable = Math.min(in.readableBytes(), 5);
+        for (int i = 0; i < readable; i++) {
+            if ((in.getByte(in.readerIndex() + i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        if (readable == 5) {
+            throw new StreamCorruptedException("malformed varint");
+        }
+        return -1;
+    }
+
+    public static void writeVarlong(ChannelBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarlong(ChannelBuffer in) throws StreamCorruptedException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new StreamCorruptedException("malformed varlong");
+    }
+
+    public static void writeSignedVarint(ChannelBuffer out, int value) {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarint(ChannelBuffer in) throws StreamCorruptedException {
+        int raw = readVarint(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public static void writeSignedVarlong(ChannelBuffer out, long value) {
+        writeVarlong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarlong(ChannelBuffer in) throws StreamCorruptedException {
+        long raw = readVarlong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public static void writeString(ChannelBuffer out, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    public static String readString(ChannelBuffer in) throws StreamCorruptedException {
+        int length = readLength(in);
+        String result = in.toString(in.readerIndex(), length, UTF8);
+        in.skipBytes(length);
+        return result;
+    }
+
+    public static void writeStrings(ChannelBuffer out, String[] strings) {
+        writeVarint(out, strings.length);
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    public static String[] readStrings(ChannelBuffer in) throws StreamCorruptedException {
+        String[] result = new String[readLength(in)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readString(in);
+        }
+        return result;
+    }
+}
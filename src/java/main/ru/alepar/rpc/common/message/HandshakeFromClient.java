@@ -3,9 +3,16 @@ package ru.alepar.rpc.common.message;
 public class HandshakeFromClient extends RpcMessage {
 
     public final String[] classNames;
+    public final String[] methodSignatures;
+    /**
+     * smallest message client is willing to compress, zero if client does not support compression
+     */
+    public final int compressionThreshold;
 
-    public HandshakeFromClient(final String[] classNames) {
+    public HandshakeFromClient(final String[] classNames, final String[] methodSignatures, final int compressionThreshold) {
         this.classNames = classNames;
+        this.methodSignatures = methodSignatures;
+        this.compressionThreshold = compressionThreshold;
     }
 
     @Override
@@ -6,10 +6,17 @@ public class HandshakeFromServer extends RpcMessage {
 
     public final Remote.Id clientId;
     public final String[] classNames;
+    public final String[] methodSignatures;
+    /**
+     * smallest message both sides compress, zero if compression is not used on this connection
+     */
+    public final int compressionThreshold;
 
-    public HandshakeFromServer(final Remote.Id clientId, final String[] classNames) {
+    public HandshakeFromServer(final Remote.Id clientId, final String[] classNames, final String[] methodSignatures, final int compressionThreshold) {
         this.clientId = clientId;
         this.classNames = classNames;
+        this.methodSignatures = methodSignatures;
+        this.compressionThreshold = compressionThreshold;
     }
 
     @Override
@@ -21,6 +28,7 @@ public class HandshakeFromServer extends RpcMessage {
     public String toString() {
         return "HandshakeFromServer{" +
                 "clientId=" + clientId +
+                ", compressionThreshold=" + compressionThreshold +
                 '}';
     }
 }
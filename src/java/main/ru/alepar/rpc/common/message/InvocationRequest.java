@@ -1,19 +1,20 @@
 package ru.alepar.rpc.common.message;
 
-import java.io.Serializable;
-
 public class InvocationRequest extends RpcMessage {
 
-    public final String className;
-    public final String methodName;
-    public final Serializable[] args;
-    public final String[] paramClassNames;
+    /**
+     * callId for one-way invocations, which do not expect any response
+     */
+    public static final long ONE_WAY = 0;
+
+    public final long callId;
+    public final int methodId;
+    public final Object[] args;
 
-    public InvocationRequest(final String className, final String methodName, final Serializable[] args, final String[] paramClassNames) {
-        this.className = className;
-        this.methodName = methodName;
+    public InvocationRequest(final long callId, final int methodId, final Object[] args) {
+        this.callId = callId;
+        this.methodId = methodId;
         this.args = args;
-        this.paramClassNames = paramClassNames;
     }
 
     @Override
@@ -24,8 +25,8 @@ public class InvocationRequest extends RpcMessage {
     @Override
     public String toString() {
         return "InvocationRequest{" +
-                "className='" + className + '\'' +
-                ", methodName='" + methodName + '\'' +
+                "callId=" + callId +
+                ", methodId=" + methodId +
                 '}';
     }
 }
@@ -0,0 +1,27 @@
+package ru.alepar.rpc.common.message;
+
+public class InvocationResponse extends RpcMessage {
+
+    public final long callId;
+    public final Object result;
+    public final Throwable exc;
+
+    public InvocationResponse(final long callId, final Object result, final Throwable exc) {
+        this.callId = callId;
+        this.result = result;
+        this.exc = exc;
+    }
+
+    @Override
+    public void visit(Visitor visitor) {
+        visitor.acceptInvocationResponse(this);
+    }
+
+    @Override
+    public String toString() {
+        return "InvocationResponse{" +
+                "callId=" + callId +
+                ", exc=" + exc +
+                '}';
+    }
+}
@@ -2,6 +2,11 @@ package ru.alepar.rpc.common.message;
 
 public class KeepAlive extends RpcMessage {
 
+    /**
+     * message carries no state, so one instance is shared by all connections
+     */
+    public static final KeepAlive INSTANCE = new KeepAlive();
+
     @Override
     public void visit(Visitor visitor) {
         visitor.acceptKeepAlive(this);
@@ -11,6 +11,9 @@ public abstract class RpcMessage implements Serializable {
         void acceptHandshakeFromClient(HandshakeFromClient msg);
         void acceptHandshakeFromServer(HandshakeFromServer msg);
         void acceptInvocationRequest(InvocationRequest msg);
+        void acceptInvocationResponse(InvocationResponse msg);
         void acceptKeepAlive(KeepAlive msg);
+        void acceptStreamChunk(StreamChunk msg);
+        void acceptStreamCredit(StreamCredit msg);
     }
 }
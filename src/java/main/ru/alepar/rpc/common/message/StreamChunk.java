@@ -0,0 +1,36 @@
+package ru.alepar.rpc.common.message;
+
+/**
+ * piece of stream argument, sent after the invocation which carries it
+ */
+public class StreamChunk extends RpcMessage {
+
+    public final long streamId;
+    public final byte[] data;
+    public final boolean last;
+
+    /**
+     * @param streamId stream this chunk belongs to
+     * @param data bytes of the chunk, or null if sending side failed to read the stream
+     * @param last true if no more chunks follow
+     */
+    public StreamChunk(final long streamId, final byte[] data, final boolean last) {
+        this.streamId = streamId;
+        this.data = data;
+        this.last = last;
+    }
+
+    @Override
+    public void visit(Visitor visitor) {
+        visitor.acceptStreamChunk(this);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamChunk{" +
+                "streamId=" + streamId +
+                ", length=" + (data != null ? data.length : -1) +
+                ", last=" + last +
+                '}';
+    }
+}
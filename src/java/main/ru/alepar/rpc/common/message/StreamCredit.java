@@ -0,0 +1,33 @@
+package ru.alepar.rpc.common.message;
+
+/**
+ * sent by receiving side of stream argument as it consumes chunks, allowing sender to send more bytes
+ */
+public class StreamCredit extends RpcMessage {
+
+    /**
+     * credit telling sender that receiver closed the stream and wants no more chunks
+     */
+    public static final int CANCEL = -1;
+
+    public final long streamId;
+    public final int bytes;
+
+    public StreamCredit(final long streamId, final int bytes) {
+        this.streamId = streamId;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void visit(Visitor visitor) {
+        visitor.acceptStreamCredit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamCredit{" +
+                "streamId=" + streamId +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
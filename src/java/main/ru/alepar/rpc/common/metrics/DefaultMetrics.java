@@ -0,0 +1,225 @@
+package ru.alepar.rpc.common.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.api.MetricsSnapshot;
+import ru.alepar.rpc.api.exception.ConfigurationException;
+import ru.alepar.rpc.common.MethodTable;
+
+/**
+ * lock-free metrics: counters are striped, durations are kept in {@link LatencyHistogram LatencyHistogram}s <br/>
+ * one instance may be shared by any number of clients and servers, to be read with {@link #getSnapshot()} or over JMX
+ */
+public class DefaultMetrics implements Metrics, MetricsMXBean {
+
+    private final ConcurrentMap<Method, MethodMetrics> methods = new ConcurrentHashMap<Method, MethodMetrics>();
+
+    private final StripedCounter encodedMessages = new StripedCounter();
+    private final StripedCounter encodedBytes = new StripedCounter();
+    private final LatencyHistogram encodeLatency = new LatencyHistogram();
+    private final StripedCounter decodedMessages = new StripedCounter();
+    private final StripedCounter decodedBytes = new StripedCounter();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final StripedCounter writeQueueDepth = new StripedCounter();
+
+    private ObjectName objectName;
+
+    @Override
+    public void invocationSent(Class<?> interfaceClass, Method method) {
+        metricsOf(interfaceClass, method).sent.increment();
+    }
+
+    @Override
+    public void callCompleted(Class<?> interfaceClass, Method method, long nanos, boolean success) {
+        MethodMetrics metrics = metricsOf(interfaceClass, method);
+        metrics.callLatency.record(nanos);
+        if (!success) {
+            metrics.failedCalls.increment();
+        }
+    }
+
+    @Override
+    public void invocationExecuted(Class<?> interfaceClass, Method method, long queueNanos, long runNanos, boolean success) {
+        MethodMetrics metrics = metricsOf(interfaceClass, method);
+        metrics.executed.increment();
+        metrics.queueLatency.record(queueNanos);
+        metrics.runLatency.record(runNanos);
+        if (!success) {
+            metrics.failedExecutions.increment();
+        }
+    }
+
+    @Override
+    public void messageEncoded(int bytes, long nanos) {
+        encodedMessages.increment();
+        encodedBytes.add(bytes);
+        encodeLatency.record(nanos);
+    }
+
+    @Override
+    public void messageDecoded(int bytes, long nanos) {
+        decodedMessages.increment();
+        decodedBytes.add(bytes);
+        decodeLatency.record(nanos);
+    }
+
+    @Override
+    public void writeQueued() {
+        writeQueueDepth.increment();
+    }
+
+    @Override
+    public void writeCompleted() {
+        writeQueueDepth.add(-1);
+    }
+
+    @Override
+    public MetricsSnapshot getSnapshot() {
+        Map<String, MetricsSnapshot.MethodStats> methodStats = new TreeMap<String, MetricsSnapshot.MethodStats>();
+        Map<String, MethodCounts> interfaceCounts = new HashMap<String, MethodCounts>();
+        for (MethodMetrics metrics : methods.values()) {
+            MethodCounts counts = new MethodCounts(metrics);
+            methodStats.put(metrics.signature, counts.toStats());
+
+            MethodCounts total = interfaceCounts.get(metrics.interfaceName);
+            if (total == null) {
+                interfaceCounts.put(metrics.interfaceName, counts);
+            } else {
+                total.add(counts);
+            }
+        }
+        Map<String, MetricsSnapshot.MethodStats> interfaceStats = new TreeMap<String, MetricsSnapshot.MethodStats>();
+        for (Map.Entry<String, MethodCounts> entry : interfaceCounts.entrySet()) {
+            interfaceStats.put(entry.getKey(), entry.getValue().toStats());
+        }
+
+        return new MetricsSnapshot(
+                Collections.unmodifiableMap(methodStats),
+                Collections.unmodifiableMap(interfaceStats),
+                encodedMessages.sum(),
+                encodedBytes.sum(),
+                LatencyHistogram.summarize(encodeLatency.counts()),
+                decodedMessages.sum(),
+                decodedBytes.sum(),
+                LatencyHistogram.summarize(decodeLatency.counts()),
+                writeQueueDepth.sum()
+        );
+    }
+
+    /**
+     * registers this object in platform MBeanServer as "ru.alepar.rpc:type=Metrics,name=&lt;name&gt;"
+     * @param name to tell apart several registered metrics
+     * @throws ConfigurationException if name is malformed or already taken
+     */
+    public synchronized void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("ru.alepar.rpc:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new ConfigurationException("failed to register metrics MBean " + name, e);
+        }
+    }
+
+    /**
+     * removes this object from platform MBeanServer, if it was registered
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        } catch (JMException e) {
+            throw new ConfigurationException("failed to unregister metrics MBean " + objectName, e);
+        }
+    }
+
+    private MethodMetrics metricsOf(Class<?> interfaceClass, Method method) {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = new MethodMetrics(interfaceClass, method);
+            MethodMetrics existing = methods.putIfAbsent(method, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    private static class MethodMetrics {
+
+        private final String interfaceName;
+        private final String signature;
+        private final StripedCounter sent = new StripedCounter();
+        private final StripedCounter failedCalls = new StripedCounter();
+        private final LatencyHistogram callLatency = new LatencyHistogram();
+        private final StripedCounter executed = new StripedCounter();
+        private final StripedCounter failedExecutions = new StripedCounter();
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final LatencyHistogram runLatency = new LatencyHistogram();
+
+        private MethodMetrics(Class<?> interfaceClass, Method method) {
+            this.interfaceName = interfaceClass.getName();
+            this.signature = MethodTable.signature(interfaceClass, method);
+        }
+    }
+
+    /**
+     * point-in-time copy of method metrics, which can be summed up per interface
+     */
+    private static class MethodCounts {
+
+        private long sent;
+        private long failedCalls;
+        private final long[] callLatency;
+        private long executed;
+        private long failedExecutions;
+        private final long[] queueLatency;
+        private final long[] runLatency;
+
+        private MethodCounts(MethodMetrics metrics) {
+            sent = metrics.sent.sum();
+            failedCalls = metrics.failedCalls.sum();
+            callLatency = metrics.callLatency.counts();
+            executed = metrics.executed.sum();
+            failedExecutions = metrics.failedExecutions.sum();
+            queueLatency = metrics.queueLatency.counts();
+            runLatency = metrics.runLatency.counts();
+        }
+
+        private void add(MethodCounts other) {
+            sent += other.sent;
+            failedCalls += other.failedCalls;
+            LatencyHistogram.merge(callLatency, other.callLatency);
+            executed += other.executed;
+            failedExecutions += other.failedExecutions;
+            LatencyHistogram.merge(queueLatency, other.queueLatency);
+            LatencyHistogram.merge(runLatency, other.runLatency);
+        }
+
+        private MetricsSnapshot.MethodStats toStats() {
+            return new MetricsSnapshot.MethodStats(
+                    sent,
+                    failedCalls,
+                    LatencyHistogram.summarize(callLatency),
+                    executed,
+                    failedExecutions,
+                    LatencyHistogram.summarize(queueLatency),
+                    LatencyHistogram.summarize(runLatency)
+            );
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.alepar.rpc.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ru.alepar.rpc.api.MetricsSnapshot;
+
+/**
+ * lock-free histogram of durations in the manner of HdrHistogram: <br/>
+ * buckets grow by powers of two and each is split into 16 linear sub-buckets, <br/>
+ * so that any value up to Long.MAX_VALUE is kept with relative error under 1/16 in fixed amount of memory
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(nanos, 0)));
+    }
+
+    /**
+     * @return copy of bucket counts, which may be merged with other copies and summarized
+     */
+    public long[] counts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    public static void merge(long[] into, long[] counts) {
+        for (int i = 0; i < BUCKETS; i++) {
+            into[i] += counts[i];
+        }
+    }
+
+    public static MetricsSnapshot.Latency summarize(long[] counts) {
+        long total = 0;
+        double sum = 0;
+        int last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                total += counts[i];
+                sum += (double) counts[i] * valueOf(i);
+                last = i;
+            }
+        }
+        if (total == 0) {
+            return new MetricsSnapshot.Latency(0, 0, 0, 0, 0, 0, 0);
+        }
+        return new MetricsSnapshot.Latency(
+                total,
+                (long) (sum / total),
+                percentile(counts, total, 0.5),
+                percentile(counts, total, 0.9),
+                percentile(counts, total, 0.99),
+                percentile(counts, total, 0.999),
+                valueOf(last)
+        );
+    }
+
+    private static long percentile(long[] counts, long total, double fraction) {
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        throw new IllegalStateException("rank " + rank + " is beyond " + total + " recorded values");
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return middle of the range of values, which fall into bucket with given index
+     */
+    static long valueOf(int index) {
+        int shift = (index >> SUB_BITS) - 1;
+        int sub = index & (SUB_BUCKETS - 1);
+        if (shift < 0) {
+            return sub;
+        }
+        return ((long) (SUB_BUCKETS + sub) << shift) + ((1L << shift) >> 1);
+    }
+}
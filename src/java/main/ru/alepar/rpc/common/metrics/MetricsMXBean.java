@@ -0,0 +1,11 @@
+package ru.alepar.rpc.common.metrics;
+
+import ru.alepar.rpc.api.MetricsSnapshot;
+
+/**
+ * JMX view of {@link DefaultMetrics DefaultMetrics}
+ */
+public interface MetricsMXBean {
+
+    MetricsSnapshot getSnapshot();
+}
@@ -0,0 +1,44 @@
+package ru.alepar.rpc.common.metrics;
+
+import java.lang.reflect.Method;
+
+import ru.alepar.rpc.api.Metrics;
+
+/**
+ * discards all measurements, used when no metrics are configured
+ */
+public class NoMetrics implements Metrics {
+
+    public static final Metrics INSTANCE = new NoMetrics();
+
+    private NoMetrics() {
+    }
+
+    @Override
+    public void invocationSent(Class<?> interfaceClass, Method method) {
+    }
+
+    @Override
+    public void callCompleted(Class<?> interfaceClass, Method method, long nanos, boolean success) {
+    }
+
+    @Override
+    public void invocationExecuted(Class<?> interfaceClass, Method method, long queueNanos, long runNanos, boolean success) {
+    }
+
+    @Override
+    public void messageEncoded(int bytes, long nanos) {
+    }
+
+    @Override
+    public void messageDecoded(int bytes, long nanos) {
+    }
+
+    @Override
+    public void writeQueued() {
+    }
+
+    @Override
+    public void writeCompleted() {
+    }
+}
@@ -0,0 +1,51 @@
+package ru.alepar.rpc.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counter, which spreads concurrent updates over several cells picked by thread, so that threads rarely contend, <br/>
+ * value is summed up on read
+ */
+public class StripedCounter {
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final int PADDING = 8; // cells are 64 bytes apart, so that they do not share cache line
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.addAndGet(cell(), delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * @return power of two, which is at least twice the number of processors
+     */
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
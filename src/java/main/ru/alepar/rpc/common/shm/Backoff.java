@@ -0,0 +1,36 @@
+package ru.alepar.rpc.common.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * spin-then-park idle strategy of threads polling shared memory <br/>
+ * busy spins first, then yields, then parks for growing periods; parking is always timed, <br/>
+ * as the other side lives in another process and cannot unpark us
+ */
+class Backoff {
+
+    private static final int SPINS = 10000;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK_NANOS = 1000;
+    private static final long MAX_PARK_NANOS = 100000;
+
+    private int idleRounds;
+    private long parkNanos = MIN_PARK_NANOS;
+
+    void reset() {
+        idleRounds = 0;
+        parkNanos = MIN_PARK_NANOS;
+    }
+
+    void idle() {
+        if (idleRounds < SPINS) {
+            idleRounds++;
+        } else if (idleRounds < SPINS + YIELDS) {
+            idleRounds++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ru.alepar.rpc.common.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static ru.alepar.rpc.common.shm.Memory.UNSAFE;
+
+/**
+ * memory-mapped file of one connection: header followed by client-to-server and server-to-client rings <br/>
+ * client creates the file in server's directory and marks it requested once rings are initialized, <br/>
+ * server accepts it by switching the state, whoever closes connection first deletes the file
+ */
+class ConnectionFile {
+
+    static final String SUFFIX = ".shm";
+
+    static final int REQUESTED = 1;
+    static final int ACCEPTED = 2;
+
+    private static final int HEADER = 64;
+    private static final int MAGIC = 0;
+    private static final int STATE = 4;
+    private static final int CAPACITY = 8;
+    private static final int MAGIC_VALUE = 0x4e525043;
+
+    final File file;
+    final Ring clientToServer;
+    final Ring serverToClient;
+
+    private final MappedByteBuffer mapped;
+    private final long address;
+
+    private ConnectionFile(File file, MappedByteBuffer mapped, int capacity) {
+        this.file = file;
+        this.mapped = mapped;
+        this.address = Memory.address(mapped);
+        this.clientToServer = new Ring(mapped, HEADER, capacity);
+        this.serverToClient = new Ring(mapped, HEADER + Ring.size(capacity), capacity);
+    }
+
+    /**
+     * creates connection file in server's directory, to be called by client
+     * @throws IOException if directory does not exist or file cannot be created
+     */
+    static ConnectionFile create(File directory, int capacity) throws IOException {
+        File file = File.createTempFile("connection-", SUFFIX, directory);
+        ConnectionFile connection = new ConnectionFile(file, map(file, length(capacity)), capacity);
+        UNSAFE.putInt(connection.address + CAPACITY, capacity);
+        UNSAFE.putInt(connection.address + MAGIC, MAGIC_VALUE);
+        UNSAFE.putIntVolatile(null, connection.address + STATE, REQUESTED);
+        return connection;
+    }
+
+    /**
+     * opens connection file created by client, to be called by server <br/>
+     * header is read rather than mapped, as files are probed on every rescan and mappings are released only by gc
+     * @return opened file, or null if client has not finished creating it yet
+     * @throws IOException if file cannot be read or mapped
+     */
+    static ConnectionFile open(File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    return null;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        if (header.getInt(STATE) != REQUESTED || header.getInt(MAGIC) != MAGIC_VALUE) {
+            return null;
+        }
+        int capacity = header.getInt(CAPACITY);
+        if (Integer.bitCount(capacity) != 1 || file.length() != length(capacity)) {
+            return null;
+        }
+        return new ConnectionFile(file, map(file, length(capacity)), capacity);
+    }
+
+    boolean compareAndSetState(int expected, int state) {
+        return UNSAFE.compareAndSwapInt(null, address + STATE, expected, state);
+    }
+
+    int getState() {
+        return UNSAFE.getIntVolatile(null, address + STATE);
+    }
+
+    void delete() {
+        file.delete();
+    }
+
+    private static long length(int capacity) {
+        return HEADER + 2l * Ring.size(capacity);
+    }
+
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < length) {
+                raf.setLength(length);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+}
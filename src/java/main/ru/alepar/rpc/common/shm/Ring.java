@@ -0,0 +1,114 @@
+package ru.alepar.rpc.common.shm;
+
+import java.nio.ByteBuffer;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import static org.jboss.netty.buffer.ChannelBuffers.buffer;
+import static ru.alepar.rpc.common.shm.Memory.UNSAFE;
+
+/**
+ * single-producer single-consumer byte ring in shared memory <br/>
+ * head and tail are running byte counts, each on its own cache line, written only by consumer and producer respectively; <br/>
+ * producer publishes bytes with ordered write of tail, consumer frees space with ordered write of head
+ */
+class Ring {
+
+    static final int HEADER = 192;
+
+    private static final int HEAD = 0;
+    private static final int TAIL = 64;
+    private static final int CLOSED = 128;
+
+    private final long address;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * @param mapped memory holding the ring
+     * @param offset of the ring in mapped memory
+     * @param capacity of the ring, power of two
+     */
+    Ring(ByteBuffer mapped, int offset, int capacity) {
+        this.address = Memory.address(mapped) + offset;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        ByteBuffer region = mapped.duplicate();
+        region.limit(offset + HEADER + capacity).position(offset + HEADER);
+        this.data = region.slice();
+    }
+
+    static int size(int capacity) {
+        return HEADER + capacity;
+    }
+
+    /**
+     * copies as many readable bytes of src as there is free space for, advancing its reader index, to be called by producer
+     * @return number of bytes copied
+     */
+    int write(ChannelBuffer src) {
+        long tail = UNSAFE.getLong(address + TAIL);
+        long head = UNSAFE.getLongVolatile(null, address + HEAD);
+        int length = Math.min(capacity - (int) (tail - head), src.readableBytes());
+        if (length == 0) {
+            return 0;
+        }
+
+        int offset = (int) (tail & mask);
+        int first = Math.min(length, capacity - offset);
+        copyIn(src, offset, first);
+        copyIn(src, 0, length - first);
+        UNSAFE.putOrderedLong(null, address + TAIL, tail + length);
+        return length;
+    }
+
+    /**
+     * takes all bytes published so far, to be called by consumer
+     * @return buffer holding the bytes, or null if ring is empty
+     */
+    ChannelBuffer read() {
+        long head = UNSAFE.getLong(address + HEAD);
+        long tail = UNSAFE.getLongVolatile(null, address + TAIL);
+        int length = (int) (tail - head);
+        if (length == 0) {
+            return null;
+        }
+
+        ChannelBuffer out = buffer(length);
+        int offset = (int) (head & mask);
+        int first = Math.min(length, capacity - offset);
+        copyOut(out, offset, first);
+        copyOut(out, 0, length - first);
+        UNSAFE.putOrderedLong(null, address + HEAD, head + length);
+        return out;
+    }
+
+    /**
+     * marks that producer is not going to write anymore
+     */
+    void close() {
+        UNSAFE.putIntVolatile(null, address + CLOSED, 1);
+    }
+
+    boolean isClosed() {
+        return UNSAFE.getIntVolatile(null, address + CLOSED) != 0;
+    }
+
+    private void copyIn(ChannelBuffer src, int offset, int length) {
+        if (length > 0) {
+            ByteBuffer target = data.duplicate();
+            target.limit(offset + length).position(offset);
+            src.getBytes(src.readerIndex(), target);
+            src.skipBytes(length);
+        }
+    }
+
+    private void copyOut(ChannelBuffer out, int offset, int length) {
+        if (length > 0) {
+            ByteBuffer source = data.duplicate();
+            source.limit(offset + length).position(offset);
+            out.writeBytes(source);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.alepar.rpc.common.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * lock file, held by server bound to the directory, so that clients may tell whether anybody is going to accept their connection files <br/>
+ * clients probe it by briefly taking the lock themselves, so server retries for a while before considering it taken
+ */
+class ServerLock {
+
+    private static final String NAME = "server.lock";
+    private static final int ATTEMPTS = 20;
+
+    /**
+     * @return lock held until released, or null if another server holds it
+     * @throws IOException if lock file cannot be opened
+     */
+    static FileLock acquire(File directory) throws IOException {
+        for (int i = 0; i < ATTEMPTS; i++) {
+            FileLock lock = tryLock(directory);
+            if (lock != null) {
+                return lock;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true unless lock file is missing or nobody holds the lock
+     */
+    static boolean isHeld(File directory) {
+        if (!new File(directory, NAME).exists()) {
+            return false;
+        }
+        try {
+            FileLock lock = tryLock(directory);
+            if (lock == null) {
+                return true;
+            }
+            release(lock);
+            return false;
+        } catch (IOException e) {
+            return true; // let the client wait for acceptance rather than refuse it on a hunch
+        }
+    }
+
+    static void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                lock.channel().close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static FileLock tryLock(File directory) throws IOException {
+        FileChannel channel = new RandomAccessFile(new File(directory, NAME), "rw").getChannel();
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by this very JVM
+        } finally {
+            if (lock == null) {
+                channel.close();
+            }
+        }
+        return lock;
+    }
+}
@@ -0,0 +1,332 @@
+package ru.alepar.rpc.common.shm;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+import org.jboss.netty.channel.FileRegion;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+import ru.alepar.rpc.api.SharedMemoryAddress;
+
+import static java.nio.channels.Channels.newChannel;
+import static org.jboss.netty.buffer.ChannelBuffers.buffer;
+import static org.jboss.netty.channel.Channels.fireChannelBound;
+import static org.jboss.netty.channel.Channels.fireChannelClosed;
+import static org.jboss.netty.channel.Channels.fireChannelConnected;
+import static org.jboss.netty.channel.Channels.fireChannelDisconnected;
+import static org.jboss.netty.channel.Channels.fireChannelInterestChanged;
+import static org.jboss.netty.channel.Channels.fireChannelOpen;
+import static org.jboss.netty.channel.Channels.fireChannelUnbound;
+import static org.jboss.netty.channel.Channels.fireExceptionCaught;
+import static org.jboss.netty.channel.Channels.fireMessageReceived;
+import static org.jboss.netty.channel.Channels.fireWriteComplete;
+import static org.jboss.netty.channel.Channels.future;
+
+/**
+ * connection over a {@link ConnectionFile ConnectionFile}, either made by client or accepted by server <br/>
+ * writes go straight into outgoing ring in the writing thread, whatever does not fit is left for io thread; <br/>
+ * io thread polls incoming ring with {@link Backoff backoff} and fires received bytes upstream <br/>
+ * <br/>
+ * bytes waiting for room in the ring are counted against {@link SharedMemoryChannelConfig write buffer watermarks}: <br/>
+ * channel turns unwritable above high watermark and writable again below low one, just like nio socket <br/>
+ * peer closing its ring is the only way to learn of disconnect, so connections of crashed processes are detected by idle timeout only
+ */
+class SharedMemoryChannel extends AbstractChannel {
+
+    private final SharedMemoryChannelConfig config = new SharedMemoryChannelConfig();
+    private final Executor executor;
+    private final Queue<Write> writes = new ConcurrentLinkedQueue<Write>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Object writabilityLock = new Object();
+
+    private volatile ConnectionFile connection;
+    private volatile Ring in;
+    private volatile Ring out;
+    private volatile SharedMemoryAddress localAddress;
+    private volatile SharedMemoryAddress remoteAddress;
+    private volatile boolean connected;
+
+    SharedMemoryChannel(Channel parent, ChannelFactory factory, ChannelPipeline pipeline, ChannelSink sink, Executor executor) {
+        super(parent, factory, pipeline, sink);
+        this.executor = executor;
+        fireChannelOpen(this);
+    }
+
+    @Override
+    public SharedMemoryChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return connected;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public SharedMemoryAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public SharedMemoryAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    protected boolean setClosed() {
+        return super.setClosed();
+    }
+
+    /**
+     * applies interest ops requested by user, keeping write bit, which reflects write buffer watermarks
+     */
+    void applyInterestOps(int interestOps) {
+        synchronized (writabilityLock) {
+            setInterestOpsNow(interestOps & ~OP_WRITE | getInterestOps() & OP_WRITE);
+        }
+    }
+
+    /**
+     * creates connection file in server's directory and waits in io thread for server to accept it
+     */
+    void connect(final SharedMemoryAddress address, final ChannelFuture future) {
+        if (!ServerLock.isHeld(address.getDirectory())) {
+            failConnect(future, new ConnectException("connection refused: no server is bound to " + address));
+            return;
+        }
+        try {
+            connection = ConnectionFile.create(address.getDirectory(), address.getRingCapacity());
+        } catch (IOException e) {
+            failConnect(future, new ConnectException("failed to create connection file in " + address + ": " + e.getMessage()));
+            return;
+        }
+        in = connection.serverToClient;
+        out = connection.clientToServer;
+        localAddress = new SharedMemoryAddress(connection.file, address.getRingCapacity());
+        remoteAddress = address;
+
+        DeadLockProofWorker.start(executor, new Runnable() {
+            @Override
+            public void run() {
+                long timeout = config.getConnectTimeoutMillis();
+                long deadline = System.currentTimeMillis() + timeout;
+                Backoff backoff = new Backoff();
+                while (connection.getState() != ConnectionFile.ACCEPTED) {
+                    if (!isOpen()) {
+                        failConnect(future, new ClosedChannelException());
+                        return;
+                    }
+                    if (timeout > 0 && System.currentTimeMillis() >= deadline) {
+                        failConnect(future, new ConnectException("connection timed out: " + address));
+                        return;
+                    }
+                    backoff.idle();
+                }
+                connected = true;
+                future.setSuccess();
+                fireChannelBound(SharedMemoryChannel.this, localAddress);
+                fireChannelConnected(SharedMemoryChannel.this, remoteAddress);
+                loop();
+            }
+        });
+    }
+
+    /**
+     * takes over connection file accepted by server and starts io thread
+     */
+    void accepted(ConnectionFile connection, SharedMemoryAddress serverAddress) {
+        this.connection = connection;
+        in = connection.clientToServer;
+        out = connection.serverToClient;
+        localAddress = serverAddress;
+        remoteAddress = new SharedMemoryAddress(connection.file, serverAddress.getRingCapacity());
+        connected = true;
+        fireChannelBound(this, localAddress);
+        fireChannelConnected(this, remoteAddress);
+
+        DeadLockProofWorker.start(executor, new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        });
+    }
+
+    void write(Object message, ChannelFuture future) {
+        ChannelBuffer buffer;
+        try {
+            buffer = toBuffer(message);
+        } catch (IOException e) {
+            future.setFailure(e);
+            fireExceptionCaught(this, e);
+            return;
+        }
+        writes.add(new Write(buffer, future));
+        queuedBytes.addAndGet(buffer.readableBytes());
+        if (connected && isOpen()) {
+            flush();
+            updateWritability();
+        } else {
+            failWrites();
+        }
+    }
+
+    void close(ChannelFuture future) {
+        boolean wasConnected = connected;
+        if (!setClosed()) {
+            future.setSuccess();
+            return;
+        }
+        connected = false;
+        if (connection != null) {
+            out.close();
+            connection.delete();
+        }
+        failWrites();
+        future.setSuccess();
+        if (wasConnected) {
+            fireChannelDisconnected(this);
+            fireChannelUnbound(this);
+        }
+        fireChannelClosed(this);
+    }
+
+    private void loop() {
+        Backoff backoff = new Backoff();
+        while (isOpen()) {
+            boolean peerClosed = in.isClosed();
+            ChannelBuffer received = isReadable() ? in.read() : null;
+            if (received != null) {
+                fireMessageReceived(this, received);
+            } else if (peerClosed) {
+                close(future(this));
+                return;
+            }
+            boolean flushed = flush();
+            if (flushed) {
+                updateWritability();
+            }
+            if (received != null || flushed) {
+                backoff.reset();
+            } else {
+                backoff.idle();
+            }
+        }
+    }
+
+    /**
+     * writes queued buffers into ring until it is full, whichever thread finds the queue idle does the writing
+     * @return true if anything was written
+     */
+    private boolean flush() {
+        boolean written = false;
+        while (!writes.isEmpty() && flushing.compareAndSet(false, true)) {
+            try {
+                Write write;
+                while ((write = writes.peek()) != null) {
+                    int length = out.write(write.buffer);
+                    queuedBytes.addAndGet(-length);
+                    written |= length > 0;
+                    if (write.buffer.readable()) {
+                        return written;
+                    }
+                    writes.poll();
+                    write.future.setSuccess();
+                    fireWriteComplete(this, write.length);
+                }
+            } finally {
+                flushing.set(false);
+            }
+        }
+        return written;
+    }
+
+    private void failWrites() {
+        Write write;
+        while ((write = writes.poll()) != null) {
+            queuedBytes.addAndGet(-write.buffer.readableBytes());
+            write.future.setFailure(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * turns channel unwritable once queued bytes exceed high watermark and writable again once they drop below low one
+     */
+    private void updateWritability() {
+        boolean changed = false;
+        synchronized (writabilityLock) {
+            long queued = queuedBytes.get();
+            boolean writable = (getInterestOps() & OP_WRITE) == 0;
+            if (writable && queued > config.getWriteBufferHighWaterMark()) {
+                setInterestOpsNow(getInterestOps() | OP_WRITE);
+                changed = true;
+            } else if (!writable && queued < config.getWriteBufferLowWaterMark()) {
+                setInterestOpsNow(getInterestOps() & ~OP_WRITE);
+                changed = true;
+            }
+        }
+        if (changed) {
+            fireChannelInterestChanged(this);
+        }
+    }
+
+    private void failConnect(ChannelFuture future, Exception cause) {
+        future.setFailure(cause);
+        fireExceptionCaught(this, cause);
+        close(future(this));
+    }
+
+    private static ChannelBuffer toBuffer(Object message) throws IOException {
+        if (message instanceof ChannelBuffer) {
+            return ((ChannelBuffer) message).slice();
+        }
+        if (message instanceof FileRegion) {
+            FileRegion region = (FileRegion) message;
+            try {
+                ChannelBuffer buffer = buffer((int) region.getCount());
+                WritableByteChannel target = newChannel(new ChannelBufferOutputStream(buffer));
+                long position = 0;
+                while (position < region.getCount()) {
+                    position += region.transferTo(target, position);
+                }
+                return buffer;
+            } finally {
+                region.releaseExternalResources();
+            }
+        }
+        throw new IllegalArgumentException("unsupported message type: " + message.getClass());
+    }
+
+    private static class Write {
+
+        private final ChannelBuffer buffer;
+        private final ChannelFuture future;
+        private final int length;
+
+        private Write(ChannelBuffer buffer, ChannelFuture future) {
+            this.buffer = buffer;
+            this.future = future;
+            this.length = buffer.readableBytes();
+        }
+    }
+}
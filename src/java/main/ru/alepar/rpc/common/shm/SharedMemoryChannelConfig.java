@@ -0,0 +1,56 @@
+package ru.alepar.rpc.common.shm;
+
+import org.jboss.netty.channel.DefaultChannelConfig;
+
+/**
+ * config of shared-memory connection, adds write buffer watermarks to the default one <br/>
+ * watermarks apply to bytes waiting for room in outgoing ring, they have the same meaning and defaults as for nio sockets
+ */
+public class SharedMemoryChannelConfig extends DefaultChannelConfig {
+
+    private volatile int writeBufferHighWaterMark = 64 * 1024;
+    private volatile int writeBufferLowWaterMark = 32 * 1024;
+
+    @Override
+    public boolean setOption(String key, Object value) {
+        if (super.setOption(key, value)) {
+            return true;
+        }
+        if ("writeBufferHighWaterMark".equals(key)) {
+            setWriteBufferHighWaterMark(((Number) value).intValue());
+        } else if ("writeBufferLowWaterMark".equals(key)) {
+            setWriteBufferLowWaterMark(((Number) value).intValue());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * @throws IllegalArgumentException if high watermark is below low one
+     */
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        if (writeBufferHighWaterMark < writeBufferLowWaterMark) {
+            throw new IllegalArgumentException("writeBufferHighWaterMark must not be less than writeBufferLowWaterMark (" + writeBufferLowWaterMark + "): " + writeBufferHighWaterMark);
+        }
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @throws IllegalArgumentException if low watermark is above high one
+     */
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        if (writeBufferLowWaterMark > writeBufferHighWaterMark) {
+            throw new IllegalArgumentException("writeBufferLowWaterMark must not be greater than writeBufferHighWaterMark (" + writeBufferHighWaterMark + "): " + writeBufferLowWaterMark);
+        }
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+}
@@ -0,0 +1,34 @@
+package ru.alepar.rpc.common.shm;
+
+import java.util.concurrent.Executor;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+
+/**
+ * creates client connections to servers bound to {@link ru.alepar.rpc.api.SharedMemoryAddress SharedMemoryAddress}
+ */
+public class SharedMemoryClientChannelFactory implements ChannelFactory {
+
+    private final ChannelSink sink = new SharedMemoryPipelineSink();
+    private final Executor executor;
+
+    /**
+     * @param executor to take io threads from, one per connection, owned by caller
+     */
+    public SharedMemoryClientChannelFactory(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Channel newChannel(ChannelPipeline pipeline) {
+        return new SharedMemoryChannel(null, this, pipeline, sink, executor);
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        // executor belongs to whoever passed it in
+    }
+}
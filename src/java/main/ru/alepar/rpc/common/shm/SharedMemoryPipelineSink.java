@@ -0,0 +1,90 @@
+package ru.alepar.rpc.common.shm;
+
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.MessageEvent;
+import ru.alepar.rpc.api.SharedMemoryAddress;
+
+import static org.jboss.netty.channel.Channels.fireChannelInterestChanged;
+
+/**
+ * carries out downstream events of both {@link SharedMemoryServerChannel server} and {@link SharedMemoryChannel connection} channels
+ */
+class SharedMemoryPipelineSink extends AbstractChannelSink {
+
+    @Override
+    public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) throws Exception {
+        if (e.getChannel() instanceof SharedMemoryServerChannel) {
+            serverEventSunk((SharedMemoryServerChannel) e.getChannel(), e);
+        } else {
+            channelEventSunk((SharedMemoryChannel) e.getChannel(), e);
+        }
+    }
+
+    private static void serverEventSunk(SharedMemoryServerChannel channel, ChannelEvent e) {
+        if (!(e instanceof ChannelStateEvent)) {
+            return;
+        }
+        ChannelStateEvent event = (ChannelStateEvent) e;
+        ChannelFuture future = event.getFuture();
+        switch (event.getState()) {
+            case OPEN:
+                if (Boolean.FALSE.equals(event.getValue())) {
+                    channel.close(future);
+                }
+                break;
+            case BOUND:
+                if (event.getValue() != null) {
+                    channel.bind(address(event), future);
+                } else {
+                    channel.close(future);
+                }
+                break;
+        }
+    }
+
+    private static void channelEventSunk(SharedMemoryChannel channel, ChannelEvent e) {
+        if (e instanceof MessageEvent) {
+            channel.write(((MessageEvent) e).getMessage(), e.getFuture());
+            return;
+        }
+        if (!(e instanceof ChannelStateEvent)) {
+            return;
+        }
+        ChannelStateEvent event = (ChannelStateEvent) e;
+        ChannelFuture future = event.getFuture();
+        switch (event.getState()) {
+            case OPEN:
+                if (Boolean.FALSE.equals(event.getValue())) {
+                    channel.close(future);
+                }
+                break;
+            case BOUND:
+                if (event.getValue() == null) {
+                    channel.close(future);
+                } else {
+                    future.setFailure(new UnsupportedOperationException("shared memory connections are bound by connecting"));
+                }
+                break;
+            case CONNECTED:
+                if (event.getValue() != null) {
+                    channel.connect(address(event), future);
+                } else {
+                    channel.close(future);
+                }
+                break;
+            case INTEREST_OPS:
+                channel.applyInterestOps((Integer) event.getValue());
+                future.setSuccess();
+                fireChannelInterestChanged(channel);
+                break;
+        }
+    }
+
+    private static SharedMemoryAddress address(ChannelStateEvent event) {
+        return (SharedMemoryAddress) event.getValue();
+    }
+}
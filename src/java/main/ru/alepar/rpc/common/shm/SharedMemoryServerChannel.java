@@ -0,0 +1,178 @@
+package ru.alepar.rpc.common.shm;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.BindException;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.netty.channel.AbstractServerChannel;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+import org.jboss.netty.channel.DefaultServerChannelConfig;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.SharedMemoryAddress;
+
+import static org.jboss.netty.channel.Channels.fireChannelBound;
+import static org.jboss.netty.channel.Channels.fireChannelClosed;
+import static org.jboss.netty.channel.Channels.fireChannelOpen;
+import static org.jboss.netty.channel.Channels.fireChannelUnbound;
+
+/**
+ * server bound to a directory: holds {@link ServerLock ServerLock} there and accepts connection files created by clients <br/>
+ * directory is rescanned every few milliseconds, which is how long connecting takes at most; accepted connections poll on their own
+ */
+class SharedMemoryServerChannel extends AbstractServerChannel {
+
+    private static final long SCAN_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final FileFilter CONNECTION_FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(ConnectionFile.SUFFIX);
+        }
+    };
+
+    private final Logger log = LoggerFactory.getLogger(SharedMemoryServerChannel.class);
+
+    private final ChannelConfig config = new DefaultServerChannelConfig();
+    private final ChannelSink sink;
+    private final Executor executor;
+
+    private volatile SharedMemoryAddress localAddress;
+    private volatile FileLock lock;
+
+    SharedMemoryServerChannel(ChannelFactory factory, ChannelPipeline pipeline, ChannelSink sink, Executor executor) {
+        super(factory, pipeline, sink);
+        this.sink = sink;
+        this.executor = executor;
+        fireChannelOpen(this);
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return lock != null && isOpen();
+    }
+
+    @Override
+    public SharedMemoryAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public SharedMemoryAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    protected boolean setClosed() {
+        return super.setClosed();
+    }
+
+    void bind(SharedMemoryAddress address, ChannelFuture future) {
+        File directory = address.getDirectory();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("failed to create directory " + directory);
+            }
+            lock = ServerLock.acquire(directory);
+        } catch (IOException e) {
+            future.setFailure(e);
+            return;
+        }
+        if (lock == null) {
+            future.setFailure(new BindException("address already in use: " + address));
+            return;
+        }
+        localAddress = address;
+        future.setSuccess();
+        fireChannelBound(this, address);
+
+        DeadLockProofWorker.start(executor, new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    void close(ChannelFuture future) {
+        boolean wasBound = isBound();
+        if (!setClosed()) {
+            future.setSuccess();
+            return;
+        }
+        if (lock != null) {
+            ServerLock.release(lock);
+        }
+        future.setSuccess();
+        if (wasBound) {
+            fireChannelUnbound(this);
+        }
+        fireChannelClosed(this);
+    }
+
+    private void accept() {
+        File directory = localAddress.getDirectory();
+        Set<String> accepted = new HashSet<String>();
+        while (isBound()) {
+            File[] files = directory.listFiles(CONNECTION_FILES);
+            Set<String> present = new HashSet<String>();
+            for (File file : files != null ? files : new File[0]) {
+                present.add(file.getName());
+                if (!accepted.contains(file.getName()) && accept(file)) {
+                    accepted.add(file.getName());
+                }
+            }
+            accepted.retainAll(present);
+            LockSupport.parkNanos(SCAN_PERIOD_NANOS);
+        }
+    }
+
+    /**
+     * @return true if file should not be looked at anymore
+     */
+    private boolean accept(File file) {
+        ConnectionFile connection;
+        try {
+            connection = ConnectionFile.open(file);
+        } catch (IOException e) {
+            log.debug("failed to open connection file " + file, e);
+            return false;
+        }
+        if (connection == null) {
+            return false;
+        }
+        if (!connection.compareAndSetState(ConnectionFile.REQUESTED, ConnectionFile.ACCEPTED)) {
+            return true;
+        }
+
+        ChannelPipeline pipeline;
+        try {
+            pipeline = config.getPipelineFactory().getPipeline();
+        } catch (Exception e) {
+            log.warn("failed to create pipeline for " + connection, e);
+            connection.serverToClient.close();
+            connection.delete();
+            return true;
+        }
+        SharedMemoryChannel child = new SharedMemoryChannel(this, getFactory(), pipeline, sink, executor);
+        child.accepted(connection, localAddress);
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package ru.alepar.rpc.common.shm;
+
+import java.util.concurrent.Executor;
+
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelSink;
+import org.jboss.netty.channel.ServerChannel;
+import org.jboss.netty.channel.ServerChannelFactory;
+
+/**
+ * creates servers accepting connections at {@link ru.alepar.rpc.api.SharedMemoryAddress SharedMemoryAddress}
+ */
+public class SharedMemoryServerChannelFactory implements ServerChannelFactory {
+
+    private final ChannelSink sink = new SharedMemoryPipelineSink();
+    private final Executor executor;
+
+    /**
+     * @param executor to take io threads from, one per server and one per accepted connection, owned by caller
+     */
+    public SharedMemoryServerChannelFactory(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public ServerChannel newChannel(ChannelPipeline pipeline) {
+        return new SharedMemoryServerChannel(this, pipeline, sink, executor);
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        // executor belongs to whoever passed it in
+    }
+}
@@ -0,0 +1,131 @@
+package ru.alepar.rpc.common.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * stream argument as seen by implementation, fed by chunks coming from remote side <br/>
+ * credit is returned to sender every half a window consumed, so at most one window of bytes is buffered
+ */
+public class IncomingStream extends InputStream {
+
+    private final long id;
+    private final Streams streams;
+
+    private final Deque<byte[]> chunks = new ArrayDeque<byte[]>();
+    private byte[] current;
+    private int offset;
+    private int unacknowledged;
+    private boolean ended;
+    private boolean closed;
+    private IOException failure;
+
+    IncomingStream(long id, Streams streams) {
+        this.id = id;
+        this.streams = streams;
+    }
+
+    synchronized void offer(byte[] data, boolean last) {
+        if (closed) {
+            return;
+        }
+        if (data == null) {
+            failure = new IOException("remote side failed to read stream");
+        } else if (data.length > 0) {
+            chunks.add(data);
+        }
+        ended = last;
+        notifyAll();
+    }
+
+    synchronized void fail(IOException cause) {
+        if (!ended && failure == null) {
+            failure = cause;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read;
+        int credit;
+        synchronized (this) {
+            while (current == null || offset == current.length) {
+                if (closed) {
+                    throw new IOException("stream is closed");
+                }
+                byte[] next = chunks.poll();
+                if (next != null) {
+                    current = next;
+                    offset = 0;
+                    continue;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for stream chunk");
+                }
+            }
+            read = Math.min(len, current.length - offset);
+            System.arraycopy(current, offset, b, off, read);
+            offset += read;
+
+            unacknowledged += read;
+            if (ended || unacknowledged < Streams.WINDOW / 2) {
+                return read;
+            }
+            credit = unacknowledged;
+            unacknowledged = 0;
+        }
+        streams.credit(id, credit);
+        return read;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return current != null ? current.length - offset : 0;
+    }
+
+    /**
+     * discards buffered chunks, remote side is told to stop sending if stream has not ended yet
+     */
+    @Override
+    public void close() {
+        boolean cancel;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancel = !ended && failure == null;
+            chunks.clear();
+            current = null;
+            notifyAll();
+        }
+        streams.closed(id, cancel);
+    }
+
+    @Override
+    public String toString() {
+        return "IncomingStream{" + id + "}";
+    }
+}
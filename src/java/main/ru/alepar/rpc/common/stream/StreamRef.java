@@ -0,0 +1,20 @@
+package ru.alepar.rpc.common.stream;
+
+import java.io.Serializable;
+
+/**
+ * stands for stream argument in InvocationRequest, content of the stream follows in chunks
+ */
+public class StreamRef implements Serializable {
+
+    public final long id;
+
+    public StreamRef(long id) {
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamRef{" + id + "}";
+    }
+}
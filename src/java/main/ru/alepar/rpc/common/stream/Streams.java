@@ -0,0 +1,280 @@
+package ru.alepar.rpc.common.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.RpcFuture;
+import ru.alepar.rpc.api.RpcFutureListener;
+import ru.alepar.rpc.common.SerialExecutor;
+import ru.alepar.rpc.common.StreamThreadFactory;
+import ru.alepar.rpc.common.message.StreamChunk;
+import ru.alepar.rpc.common.message.StreamCredit;
+
+/**
+ * InputStream arguments of one connection, in both directions <br/>
+ * sending side replaces stream argument with {@link StreamRef StreamRef} and, once invocation is written, <br/>
+ * sends stream content as chunks from the calling thread, closing the stream at the end <br/>
+ * receiving side replaces StreamRef with {@link IncomingStream IncomingStream}, fed by chunks as they arrive <br/>
+ * <br/>
+ * flow is credit based: sender may have at most {@link #WINDOW WINDOW} bytes not yet consumed by implementation <br/>
+ * streams of one invocation are sent one after another, so implementation must read them in order of parameters <br/>
+ * incoming streams are closed when implementation returns, or when returned RpcFuture completes <br/>
+ * without invocation executor, invocations with stream arguments run on shared bounded pool of {@link #READERS READERS}, <br/>
+ * one at a time per connection along with invocations received after them, so that their order is kept
+ */
+public class Streams {
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+    public static final int WINDOW = 256 * 1024;
+
+    /**
+     * most threads running invocations with stream arguments at once, across all connections
+     */
+    public static final int MAX_READERS = 64;
+
+    /**
+     * runs invocations with stream arguments, which would otherwise block io thread waiting for chunks
+     */
+    public static final Executor READERS = newReaders();
+
+    private final Logger log = LoggerFactory.getLogger(Streams.class);
+
+    private final Channel channel;
+    private final AtomicLong lastId = new AtomicLong();
+    private final ConcurrentMap<Long, Outgoing> outgoing = new ConcurrentHashMap<Long, Outgoing>();
+    private final ConcurrentMap<Long, IncomingStream> incoming = new ConcurrentHashMap<Long, IncomingStream>();
+    private final SerialExecutor readers = new SerialExecutor(READERS);
+    private volatile IOException failure;
+
+    public Streams(Channel channel) {
+        this.channel = channel;
+    }
+
+    private static Executor newReaders() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_READERS, MAX_READERS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new StreamThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * to be used for invocations of connection without invocation executor, must be called in io thread
+     * @param streaming whether invocation has stream arguments
+     * @return executor running invocations of this connection in order on {@link #READERS READERS}, <br/>
+     *         or null if invocation may run in io thread, as no invocation received before it is still waiting there
+     */
+    public Executor readerFor(boolean streaming) {
+        return streaming || !readers.isIdle() ? readers : null;
+    }
+
+    /**
+     * @return whether chunks of some incoming stream are still to be received, so reads of connection must go on
+     */
+    public boolean isReceiving() {
+        return !incoming.isEmpty();
+    }
+
+    /**
+     * registers InputStream arguments for sending
+     * @param args of the invocation, left untouched
+     * @return copy of args with streams replaced by references
+     * @throws IllegalStateException if called from io thread, which cannot wait for credit
+     */
+    public Object[] export(Object[] args) {
+        if (DeadLockProofWorker.PARENT.get() != null) {
+            throw new IllegalStateException("stream arguments cannot be sent from io thread");
+        }
+        Object[] result = args.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] instanceof InputStream) {
+                Outgoing stream = new Outgoing(lastId.incrementAndGet(), (InputStream) result[i]);
+                outgoing.put(stream.id, stream);
+                if (failure != null) {
+                    stream.credit(StreamCredit.CANCEL);
+                }
+                result[i] = new StreamRef(stream.id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * sends content of exported streams, to be called after invocation carrying them is written
+     * @param args as returned by {@link #export(Object[])}
+     */
+    public void send(Object[] args) {
+        for (Object arg : args) {
+            if (arg instanceof StreamRef) {
+                Outgoing stream = outgoing.get(((StreamRef) arg).id);
+                if (stream != null) {
+                    pump(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * replaces stream references with streams, which will be fed by following chunks <br/>
+     * must be called in io thread, before any chunk of these streams is processed
+     */
+    public void open(Object[] args) {
+        if (args == null) {
+            return;
+        }
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof StreamRef) {
+                long id = ((StreamRef) args[i]).id;
+                IncomingStream stream = new IncomingStream(id, this);
+                if (failure != null) {
+                    stream.fail(failure);
+                }
+                incoming.put(id, stream);
+                args[i] = stream;
+            }
+        }
+    }
+
+    /**
+     * closes incoming streams among args, once invocation no longer needs them
+     * @param result returned by implementation, streams are kept open until it completes if it's RpcFuture
+     */
+    public void release(final Object[] args, Object result) {
+        if (args == null) {
+            return;
+        }
+        if (result instanceof RpcFuture) {
+            @SuppressWarnings("unchecked")
+            RpcFuture<Object> future = (RpcFuture<Object>) result;
+            future.addListener(new RpcFutureListener<Object>() {
+                @Override
+                public void operationComplete(RpcFuture<Object> future) {
+                    release(args, null);
+                }
+            });
+            return;
+        }
+        for (Object arg : args) {
+            if (arg instanceof IncomingStream) {
+                ((IncomingStream) arg).close();
+            }
+        }
+    }
+
+    public void accept(StreamChunk msg) {
+        IncomingStream stream = msg.last ? incoming.remove(msg.streamId) : incoming.get(msg.streamId);
+        if (stream != null) {
+            stream.offer(msg.data, msg.last);
+        }
+    }
+
+    public void accept(StreamCredit msg) {
+        Outgoing stream = outgoing.get(msg.streamId);
+        if (stream != null) {
+            stream.credit(msg.bytes);
+        }
+    }
+
+    /**
+     * fails streams in both directions, to be used when connection is lost
+     */
+    public void fail(Throwable cause) {
+        failure = new IOException("connection lost: " + cause.getMessage());
+        for (IncomingStream stream : new ArrayList<IncomingStream>(incoming.values())) {
+            stream.fail(failure);
+        }
+        incoming.clear();
+        for (Outgoing stream : outgoing.values()) {
+            stream.credit(StreamCredit.CANCEL);
+        }
+    }
+
+    void credit(long id, int bytes) {
+        channel.write(new StreamCredit(id, bytes));
+    }
+
+    void closed(long id, boolean cancel) {
+        incoming.remove(id);
+        if (cancel) {
+            channel.write(new StreamCredit(id, StreamCredit.CANCEL));
+        }
+    }
+
+    private void pump(Outgoing stream) {
+        try {
+            int allowed;
+            while ((allowed = stream.awaitCredit()) > 0) {
+                byte[] buffer = new byte[Math.min(allowed, CHUNK_SIZE)];
+                int read = stream.in.read(buffer);
+                if (read < 0) {
+                    channel.write(new StreamChunk(stream.id, new byte[0], true));
+                    return;
+                }
+                stream.consume(read);
+                channel.write(new StreamChunk(stream.id, read == buffer.length ? buffer : Arrays.copyOf(buffer, read), false));
+            }
+        } catch (IOException e) {
+            log.warn("failed to read stream argument, aborting it", e);
+            channel.write(new StreamChunk(stream.id, null, true));
+        } finally {
+            outgoing.remove(stream.id);
+            try {
+                stream.in.close();
+            } catch (IOException e) {
+                log.warn("failed to close stream argument", e);
+            }
+        }
+    }
+
+    private static class Outgoing {
+
+        private final long id;
+        private final InputStream in;
+        private int credit = WINDOW;
+        private boolean cancelled;
+
+        private Outgoing(long id, InputStream in) {
+            this.id = id;
+            this.in = in;
+        }
+
+        /**
+         * @return bytes which may be sent, or -1 if receiver does not want any more
+         */
+        private synchronized int awaitCredit() throws IOException {
+            while (credit <= 0 && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for stream credit");
+                }
+            }
+            return cancelled ? -1 : credit;
+        }
+
+        private synchronized void consume(int bytes) {
+            credit -= bytes;
+        }
+
+        private synchronized void credit(int bytes) {
+            if (bytes == StreamCredit.CANCEL) {
+                cancelled = true;
+            } else {
+                credit += bytes;
+            }
+            notifyAll();
+        }
+    }
+}
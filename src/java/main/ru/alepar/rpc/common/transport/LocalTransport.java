@@ -0,0 +1,53 @@
+package ru.alepar.rpc.common.transport;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jboss.netty.channel.local.LocalClientChannelFactory;
+import org.jboss.netty.channel.local.LocalServerChannelFactory;
+import ru.alepar.rpc.api.Transport;
+
+/**
+ * in-JVM connections to {@link LocalAddress LocalAddress}, messages are handed over as objects <br/>
+ * connections are always writable, write buffer watermarks and overflow policy have no effect on them
+ */
+public class LocalTransport implements Transport {
+
+    private final LocalClientChannelFactory clientChannelFactory = new DefaultLocalClientChannelFactory();
+    private final LocalServerChannelFactory serverChannelFactory = new DefaultLocalServerChannelFactory();
+
+    @Override
+    public boolean supports(SocketAddress address) {
+        return address instanceof LocalAddress;
+    }
+
+    @Override
+    public LocalClientChannelFactory getClientChannelFactory() {
+        return clientChannelFactory;
+    }
+
+    @Override
+    public LocalServerChannelFactory getServerChannelFactory() {
+        return serverChannelFactory;
+    }
+
+    @Override
+    public Map<String, Object> getConnectionOptions() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isInJvm() {
+        return true;
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        clientChannelFactory.releaseExternalResources();
+        serverChannelFactory.releaseExternalResources();
+    }
+}
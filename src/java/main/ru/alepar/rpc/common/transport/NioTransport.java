@@ -0,0 +1,70 @@
+package ru.alepar.rpc.common.transport;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import ru.alepar.rpc.api.Transport;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * TCP sockets driven by JDK NIO selectors, Nagle's algorithm is turned off as calls are mostly small and latency bound
+ */
+public class NioTransport implements Transport {
+
+    private final ClientSocketChannelFactory clientChannelFactory;
+    private final ServerSocketChannelFactory serverChannelFactory;
+    private final Map<String, Object> connectionOptions;
+
+    /**
+     * @param bossExecutor executor to take boss threads from, shut down once transport is released
+     * @param workerExecutor executor to take worker threads from, shut down once transport is released
+     * @param workerCount number of worker selectors for client connections, and as many for server ones
+     */
+    public NioTransport(ExecutorService bossExecutor, ExecutorService workerExecutor, int workerCount) {
+        this.clientChannelFactory = new NioClientSocketChannelFactory(bossExecutor, workerExecutor, workerCount);
+        this.serverChannelFactory = new NioServerSocketChannelFactory(bossExecutor, workerExecutor, workerCount);
+
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("tcpNoDelay", true);
+        this.connectionOptions = unmodifiableMap(options);
+    }
+
+    @Override
+    public boolean supports(SocketAddress address) {
+        return address instanceof InetSocketAddress;
+    }
+
+    @Override
+    public ClientSocketChannelFactory getClientChannelFactory() {
+        return clientChannelFactory;
+    }
+
+    @Override
+    public ServerSocketChannelFactory getServerChannelFactory() {
+        return serverChannelFactory;
+    }
+
+    @Override
+    public Map<String, Object> getConnectionOptions() {
+        return connectionOptions;
+    }
+
+    @Override
+    public boolean isInJvm() {
+        return false;
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        clientChannelFactory.releaseExternalResources();
+        serverChannelFactory.releaseExternalResources();
+    }
+}
@@ -0,0 +1,59 @@
+package ru.alepar.rpc.common.transport;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import ru.alepar.rpc.api.SharedMemoryAddress;
+import ru.alepar.rpc.api.Transport;
+import ru.alepar.rpc.common.shm.SharedMemoryClientChannelFactory;
+import ru.alepar.rpc.common.shm.SharedMemoryServerChannelFactory;
+
+/**
+ * connections to {@link SharedMemoryAddress SharedMemoryAddress} through memory-mapped ring buffers
+ */
+public class SharedMemoryTransport implements Transport {
+
+    private final SharedMemoryClientChannelFactory clientChannelFactory;
+    private final SharedMemoryServerChannelFactory serverChannelFactory;
+
+    /**
+     * @param executor to take io threads from, one per connection and one per server, owned by caller
+     */
+    public SharedMemoryTransport(Executor executor) {
+        this.clientChannelFactory = new SharedMemoryClientChannelFactory(executor);
+        this.serverChannelFactory = new SharedMemoryServerChannelFactory(executor);
+    }
+
+    @Override
+    public boolean supports(SocketAddress address) {
+        return address instanceof SharedMemoryAddress;
+    }
+
+    @Override
+    public SharedMemoryClientChannelFactory getClientChannelFactory() {
+        return clientChannelFactory;
+    }
+
+    @Override
+    public SharedMemoryServerChannelFactory getServerChannelFactory() {
+        return serverChannelFactory;
+    }
+
+    @Override
+    public Map<String, Object> getConnectionOptions() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public boolean isInJvm() {
+        return false;
+    }
+
+    @Override
+    public void releaseExternalResources() {
+        clientChannelFactory.releaseExternalResources();
+        serverChannelFactory.releaseExternalResources();
+    }
+}
@@ -1,19 +1,28 @@
 package ru.alepar.rpc.server;
 
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -22,31 +31,61 @@ import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.handler.codec.serialization.ClassResolver;
-import org.jboss.netty.handler.codec.serialization.ObjectDecoder;
-import org.jboss.netty.handler.codec.serialization.ObjectEncoder;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ru.alepar.rpc.api.BatchingPolicy;
+import ru.alepar.rpc.api.BroadcastResult;
 import ru.alepar.rpc.api.ClientListener;
+import ru.alepar.rpc.api.CopyPolicy;
+import ru.alepar.rpc.api.DefaultRpcFuture;
 import ru.alepar.rpc.api.ExceptionListener;
+import ru.alepar.rpc.api.Metrics;
+import ru.alepar.rpc.api.Invocation;
+import ru.alepar.rpc.api.OverflowPolicy;
 import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RemoteFilter;
+import ru.alepar.rpc.api.RpcFuture;
 import ru.alepar.rpc.api.RpcServer;
+import ru.alepar.rpc.api.Transport;
+import ru.alepar.rpc.api.TransportResources;
+import ru.alepar.rpc.api.WritabilityListener;
+import ru.alepar.rpc.api.exception.ConfigurationException;
 import ru.alepar.rpc.api.exception.TransportException;
-import ru.alepar.rpc.common.KeepAliveTimer;
+import ru.alepar.rpc.common.BatchingHandler;
+import ru.alepar.rpc.common.KeepAliveHandler;
+import ru.alepar.rpc.common.LocalCopyHandler;
+import ru.alepar.rpc.common.LocalDeliveryHandler;
+import ru.alepar.rpc.common.MethodTable;
 import ru.alepar.rpc.common.NettyId;
 import ru.alepar.rpc.common.NettyRemote;
+import ru.alepar.rpc.common.PendingCalls;
+import ru.alepar.rpc.common.ReadThrottle;
+import ru.alepar.rpc.common.RecordedCall;
+import ru.alepar.rpc.common.SerialExecutor;
+import ru.alepar.rpc.common.codec.Codec;
+import ru.alepar.rpc.common.codec.CodecFactory;
+import ru.alepar.rpc.common.codec.RpcDecoder;
+import ru.alepar.rpc.common.codec.RpcEncoder;
+import ru.alepar.rpc.common.codec.SessionCodec;
 import ru.alepar.rpc.common.message.ExceptionNotify;
 import ru.alepar.rpc.common.message.HandshakeFromClient;
 import ru.alepar.rpc.common.message.HandshakeFromServer;
 import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.InvocationResponse;
 import ru.alepar.rpc.common.message.KeepAlive;
 import ru.alepar.rpc.common.message.RpcMessage;
+import ru.alepar.rpc.common.message.StreamChunk;
+import ru.alepar.rpc.common.message.StreamCredit;
 
 import static java.util.Collections.unmodifiableCollection;
+import static org.jboss.netty.buffer.ChannelBuffers.unmodifiableBuffer;
 import static ru.alepar.rpc.common.Util.foldClassesToStrings;
-import static ru.alepar.rpc.common.Util.invokeMethod;
+import static ru.alepar.rpc.common.Util.setWriteBufferWatermarks;
 import static ru.alepar.rpc.common.Util.unfoldStringToClasses;
+import static ru.alepar.rpc.common.Util.unwrap;
 
 public class NettyRpcServer implements RpcServer {
 
@@ -54,44 +93,107 @@ public class NettyRpcServer implements RpcServer {
 
     private final ClientRepository clients = new ClientRepository();
     private final ClassResolver classResolver;
-    private final KeepAliveTimer keepAliveTimer;
+    private final TransportResources resources;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final Timer timer;
+    private final long callTimeout;
+    private final int compressionThreshold;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final OverflowPolicy overflowPolicy;
+    private final Metrics metrics;
+    private final Executor invocationExecutor;
+    private final Map<Class<?>, Executor> interfaceExecutors;
 
     private final Map<Class<?>, ServerProvider<?>> implementations;
+    private final MethodTable methods;
     private final ExceptionListener[] exceptionListeners;
     private final ClientListener[] clientListeners;
+    private final WritabilityListener[] writabilityListeners;
 
-    private final ServerBootstrap bootstrap;
-    private final Channel acceptChannel;
+    private final Codec broadcastCodec;
+    private final IdleStateHandler idleStateHandler;
+    private final KeepAliveHandler keepAliveHandler = new KeepAliveHandler();
 
-    public NettyRpcServer(final InetSocketAddress bindAddress, final Map<Class<?>, ServerProvider<?>> implementations, final ExceptionListener[] exceptionListeners, final ClientListener[] clientListeners, final ClassResolver classResolver, final long keepalivePeriod, final ExecutorService bossExecutor, final ExecutorService workerExecutor) {
+    private final List<Channel> acceptChannels = new ArrayList<Channel>();
+
+    public NettyRpcServer(final List<SocketAddress> bindAddresses, final Map<Class<?>, ServerProvider<?>> implementations, final MethodTable methods, final ExceptionListener[] exceptionListeners, final ClientListener[] clientListeners, final WritabilityListener[] writabilityListeners, final ClassResolver classResolver, final CodecFactory codecFactory, final int maxFrameLength, final int compressionThreshold, final CopyPolicy copyPolicy, final BatchingPolicy batchingPolicy, final int lowWaterMark, final int highWaterMark, final OverflowPolicy overflowPolicy, final Metrics metrics, final long keepalivePeriod, final long idleTimeout, final long callTimeout, final Executor invocationExecutor, final Map<Class<?>, Executor> interfaceExecutors, final TransportResources resources) {
+        final List<Transport> transports = new ArrayList<Transport>();
+        for (SocketAddress bindAddress : bindAddresses) {
+            transports.add(resources.getTransport(bindAddress));
+        }
+        this.resources = resources.retain();
+        this.timer = resources.getTimer();
         this.exceptionListeners = exceptionListeners;
         this.clientListeners = clientListeners;
+        this.writabilityListeners = writabilityListeners;
         this.implementations = implementations;
+        this.methods = methods;
         this.classResolver = classResolver;
-        bootstrap = new ServerBootstrap(
-                new NioServerSocketChannelFactory(bossExecutor,workerExecutor)
-        );
+        this.callTimeout = callTimeout;
+        this.compressionThreshold = compressionThreshold;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        this.invocationExecutor = invocationExecutor;
+        this.interfaceExecutors = interfaceExecutors;
+        this.broadcastCodec = codecFactory.newCodec(classResolver);
+        this.idleStateHandler = keepalivePeriod > 0 || idleTimeout > 0 ? new IdleStateHandler(timer, idleTimeout, keepalivePeriod, 0, TimeUnit.MILLISECONDS) : null;
+        try {
+            for (int i = 0; i < bindAddresses.size(); i++) {
+                acceptChannels.add(bind(bindAddresses.get(i), transports.get(i), codecFactory, maxFrameLength, copyPolicy, batchingPolicy));
+            }
+        } catch (RuntimeException e) {
+            for (Channel acceptChannel : acceptChannels) {
+                acceptChannel.close().awaitUninterruptibly();
+            }
+            resources.release();
+            throw e;
+        }
+    }
+
+    /**
+     * binds a listener of its own to address, accepted connections join the same set of clients
+     */
+    private Channel bind(SocketAddress bindAddress, final Transport transport, final CodecFactory codecFactory, final int maxFrameLength, final CopyPolicy copyPolicy, final BatchingPolicy batchingPolicy) {
+        final ServerBootstrap bootstrap = new ServerBootstrap(transport.getServerChannelFactory());
+        for (Map.Entry<String, Object> option : transport.getConnectionOptions().entrySet()) {
+            bootstrap.setOption("child." + option.getKey(), option.getValue());
+        }
 
         bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
             public ChannelPipeline getPipeline() throws Exception {
-                return Channels.pipeline(
-                        new ObjectEncoder(),
-                        new ObjectDecoder(classResolver),
-                        new RpcHandler());
+                final Codec codec = codecFactory.newCodec(classResolver);
+                final ChannelPipeline pipeline = Channels.pipeline();
+                if (transport.isInJvm()) {
+                    pipeline.addLast("delivery", new LocalDeliveryHandler(resources.getLocalExecutor()));
+                    pipeline.addLast("copier", new LocalCopyHandler(copyPolicy, codec));
+                } else {
+                    pipeline.addLast("decoder", new RpcDecoder(codec, maxFrameLength, metrics));
+                    if (batchingPolicy != null) {
+                        pipeline.addLast("batcher", new BatchingHandler(batchingPolicy, resources.getBatchTimer()));
+                    }
+                    pipeline.addLast("encoder", new RpcEncoder(codec, metrics));
+                }
+                if (idleStateHandler != null) {
+                    pipeline.addLast("idle", idleStateHandler);
+                    pipeline.addLast("keepalive", keepAliveHandler);
+                }
+                pipeline.addLast("handler", new RpcHandler());
+                return pipeline;
             }
         });
-        
-        keepAliveTimer = new KeepAliveTimer(this.clients.getClients(), keepalivePeriod);
-        acceptChannel = bootstrap.bind(bindAddress);
+        return bootstrap.bind(bindAddress);
     }
 
     @Override
     public void shutdown() {
         try {
-            keepAliveTimer.stop();
-
-            // close main channel
-            acceptChannel.close().await();
+            // close listening channels
+            for (Channel acceptChannel : acceptChannels) {
+                acceptChannel.close().await();
+            }
 
             // send close message to all clients
             List<ChannelFuture> futures = new LinkedList<ChannelFuture>();
@@ -106,8 +208,10 @@ public class NettyRpcServer implements RpcServer {
                 future.await();
             }
 
-            // release executors
-            bootstrap.releaseExternalResources();
+            // release executors, unless shared with someone else
+            if (released.compareAndSet(false, true)) {
+                resources.release();
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException("failed to shutdown properly", e);
         }
@@ -123,6 +227,118 @@ public class NettyRpcServer implements RpcServer {
         return unmodifiableCollection((Collection<? extends Remote>) clients.getClients());
     }
 
+    @Override
+    public <T> RpcFuture<BroadcastResult> broadcast(Class<T> clazz, Invocation<T> invocation, RemoteFilter filter) {
+        final RecordedCall call = RecordedCall.record(clazz, invocation);
+        if (hasStreams(call)) {
+            throw new ConfigurationException("stream arguments cannot be broadcast, as a stream can be read only once: " + call.method);
+        }
+
+        // select clients and encode all frames first, so that failure to encode leaves every client untouched
+        final List<NettyRemote> targets = new ArrayList<NettyRemote>();
+        final List<MethodTable.Entry> entries = new ArrayList<MethodTable.Entry>();
+        final Map<Integer, ChannelBuffer> frames = new HashMap<Integer, ChannelBuffer>();
+        int skipped = 0;
+        for (NettyRemote remote : clients.getClients()) {
+            MethodTable.Entry entry = remote.getMethods().find(clazz, call.method);
+            if (entry == null || !remote.getChannel().isOpen()
+                    || (!remote.isWritable() && overflowPolicy != OverflowPolicy.QUEUE)
+                    || (filter != null && !filter.accept(remote))) {
+                skipped++;
+                continue;
+            }
+            targets.add(remote);
+            entries.add(entry);
+            if (!isLocal(remote) && !frames.containsKey(entry.id)) {
+                frames.put(entry.id, encodeBroadcast(new InvocationRequest(InvocationRequest.ONE_WAY, entry.id, call.args)));
+            }
+        }
+
+        final BroadcastWrites writes = new BroadcastWrites();
+        for (int i = 0; i < targets.size(); i++) {
+            NettyRemote remote = targets.get(i);
+            MethodTable.Entry entry = entries.get(i);
+            if (isLocal(remote)) {
+                writes.add(remote.write(new InvocationRequest(InvocationRequest.ONE_WAY, entry.id, call.args)));
+            } else {
+                writes.add(remote.write(frames.get(entry.id).duplicate()));
+            }
+        }
+        return writes.done(skipped);
+    }
+
+    private static boolean hasStreams(RecordedCall call) {
+        if (Arrays.asList(call.method.getParameterTypes()).contains(InputStream.class)) {
+            return true;
+        }
+        if (call.args != null) {
+            for (Object arg : call.args) {
+                if (arg instanceof InputStream) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether remote is connected in-JVM, so that it takes messages as they are
+     */
+    private static boolean isLocal(NettyRemote remote) {
+        return remote.getChannel().getPipeline().get(RpcEncoder.class) == null;
+    }
+
+    private ChannelBuffer encodeBroadcast(InvocationRequest msg) {
+        try {
+            final long start = System.nanoTime();
+            final ChannelBuffer frame;
+            synchronized (broadcastCodec) {
+                // one frame goes to many connections, so it must not depend on what any of them has seen
+                ChannelBuffer body = broadcastCodec instanceof SessionCodec ? ((SessionCodec) broadcastCodec).encodeStateless(msg) : broadcastCodec.encode(msg);
+                frame = RpcEncoder.frame(body);
+            }
+            metrics.messageEncoded(frame.readableBytes(), System.nanoTime() - start);
+            return unmodifiableBuffer(frame);
+        } catch (IOException e) {
+            throw new TransportException("failed to encode broadcast message " + msg, e);
+        }
+    }
+
+    /**
+     * counts writes of one broadcast, completing result once all of them complete
+     */
+    private static class BroadcastWrites implements ChannelFutureListener {
+
+        private final DefaultRpcFuture<BroadcastResult> result = new DefaultRpcFuture<BroadcastResult>();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger(1); // held until all writes are added
+        private volatile int skipped;
+
+        private void add(ChannelFuture write) {
+            pending.incrementAndGet();
+            write.addListener(this);
+        }
+
+        private RpcFuture<BroadcastResult> done(int skipped) {
+            this.skipped = skipped;
+            complete();
+            return result;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture write) throws Exception {
+            (write.isSuccess() ? succeeded : failed).incrementAndGet();
+            complete();
+        }
+
+        private void complete() {
+            if (pending.decrementAndGet() == 0) {
+                result.setSuccess(new BroadcastResult(succeeded.get(), failed.get(), skipped));
+            }
+        }
+    }
+
     private void fireException(Remote remote, Exception exc) {
         for (ExceptionListener listener : exceptionListeners) {
             try {
@@ -153,20 +369,51 @@ public class NettyRpcServer implements RpcServer {
         }
     }
 
+    private void fireWritabilityChanged(Remote remote, boolean writable) {
+        for (WritabilityListener listener : writabilityListeners) {
+            try {
+                listener.onWritabilityChanged(remote, writable);
+            } catch (Exception e) {
+                log.error("writability listener " + listener + " threw exception", e);
+            }
+        }
+    }
+
     private class RpcHandler extends SimpleChannelHandler implements RpcMessage.Visitor {
 
         private final ConcurrentMap<Class<?>, Object> cache = new ConcurrentHashMap<Class<?>, Object> ();
-        
+        private final Map<Executor, SerialExecutor> serialExecutors = new IdentityHashMap<Executor, SerialExecutor>();
+
         private Channel channel;
+        private ReadThrottle throttle;
         private NettyRemote remote;
 
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            setWriteBufferWatermarks(ctx.getChannel(), lowWaterMark, highWaterMark);
+        }
+
         @Override
         public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
             channel = ctx.getChannel();
+            throttle = new ReadThrottle(channel);
+        }
+
+        @Override
+        public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (remote != null && remote.updateWritability()) {
+                fireWritabilityChanged(remote, ctx.getChannel().isWritable());
+            }
         }
 
         @Override
         public void channelDisconnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (remote == null) {
+                return; // closed before handshake, client never connected as far as listeners are concerned
+            }
+            remote.updateWritability();
+            remote.failPendingCalls(new TransportException("connection to client closed"));
+            remote.getStreams().fail(new TransportException("connection to client closed"));
             fireClientDisconnect(remote);
             clients.removeClient(remote.getId());
         }
@@ -175,6 +422,11 @@ public class NettyRpcServer implements RpcServer {
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
             RpcMessage message = (RpcMessage) e.getMessage();
             log.debug("server got message {} from {}", message.toString(), ctx.getChannel().toString());
+            if (remote == null && !(message instanceof HandshakeFromClient)) {
+                log.warn("closing {}, which sent {} before handshake", ctx.getChannel(), message);
+                ctx.getChannel().close();
+                return;
+            }
             message.visit(this);
         }
 
@@ -186,9 +438,14 @@ public class NettyRpcServer implements RpcServer {
         @Override
         public void acceptHandshakeFromClient(HandshakeFromClient msg) {
             try {
-                remote = new NettyRemote(channel, new NettyId(channel.getId()), new HashSet<Class<?>>(unfoldStringToClasses(classResolver, msg.classNames)));
-                channel.write(new HandshakeFromServer(remote.getId(), foldClassesToStrings(new ArrayList<Class<?>>(implementations.keySet()))));
+                remote = new NettyRemote(channel, new NettyId(channel.getId()), MethodTable.forSignatures(unfoldStringToClasses(classResolver, msg.classNames), msg.methodSignatures), new PendingCalls(timer, callTimeout), overflowPolicy, metrics);
                 clients.addClient(remote);
+                final int agreedThreshold = msg.compressionThreshold > 0 && compressionThreshold > 0 ? Math.max(msg.compressionThreshold, compressionThreshold) : 0;
+                channel.write(new HandshakeFromServer(remote.getId(), foldClassesToStrings(new ArrayList<Class<?>>(methods.getInterfaces())), methods.getSignatures(), agreedThreshold));
+                final RpcEncoder encoder = channel.getPipeline().get(RpcEncoder.class);
+                if (encoder != null) {
+                    encoder.setCompressionThreshold(agreedThreshold);
+                }
                 fireClientConnect(remote);
             } catch (ClassNotFoundException e) {
                 log.error("interfaces registered on client side are not in the classpath", e);
@@ -202,27 +459,122 @@ public class NettyRpcServer implements RpcServer {
         }
 
         @Override
-        public void acceptInvocationRequest(InvocationRequest msg) {
+        public void acceptInvocationRequest(final InvocationRequest msg) {
+            final long received = System.nanoTime();
+            final MethodTable.Entry entry = methods.get(msg.methodId);
+            Executor executor = entry != null ? executorFor(entry.interfaceClass) : null;
+            if (entry != null && entry.streaming) {
+                remote.getStreams().open(msg.args);
+            }
+            if (executor == null) {
+                executor = remote.getStreams().readerFor(entry != null && entry.streaming);
+            }
+            if (executor == null) {
+                invoke(entry, msg, received);
+            } else {
+                throttle.queued(!remote.getStreams().isReceiving());
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            invoke(entry, msg, received);
+                        } finally {
+                            throttle.done();
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * @return executor to run invocations of given interface on, preserving their order, or null if they should run in io thread
+         */
+        private Executor executorFor(Class<?> clazz) {
+            Executor executor = interfaceExecutors.get(clazz);
+            if (executor == null) {
+                executor = invocationExecutor;
+            }
+            if (executor == null) {
+                return null;
+            }
+            synchronized (serialExecutors) {
+                SerialExecutor serial = serialExecutors.get(executor);
+                if (serial == null) {
+                    serial = new SerialExecutor(executor);
+                    serialExecutors.put(executor, serial);
+                }
+                return serial;
+            }
+        }
+
+        private void invoke(MethodTable.Entry entry, InvocationRequest msg, long received) {
+            Object result = null;
             try {
-                Class<?> clazz = classResolver.resolve(msg.className);
-                Object impl = getImplementation(clazz);
-                invokeMethod(msg, impl, classResolver);
+                if (entry == null) {
+                    throw new RuntimeException("no method registered on server for id " + msg.methodId);
+                }
+                Object impl = getImplementation(entry.interfaceClass);
+                result = execute(entry, impl, msg.args, received);
+                if (msg.callId != InvocationRequest.ONE_WAY) {
+                    remote.sendResult(msg.callId, result);
+                }
             } catch (Exception exc) {
                 log.error("caught exception while trying to invoke implementation", exc);
-                channel.write(new ExceptionNotify(exc));
+                if (msg.callId != InvocationRequest.ONE_WAY) {
+                    remote.sendFailure(msg.callId, unwrap(exc));
+                } else {
+                    channel.write(new ExceptionNotify(exc));
+                }
+            } finally {
+                if (entry != null && entry.streaming) {
+                    remote.getStreams().release(msg.args, result);
+                }
+            }
+        }
+
+        /**
+         * invokes implementation, reporting time request waited since it was received and time implementation took
+         */
+        private Object execute(MethodTable.Entry entry, Object impl, Object[] args, long received) throws Exception {
+            final long start = System.nanoTime();
+            boolean success = false;
+            try {
+                Object result = entry.invoker.invoke(impl, args);
+                success = true;
+                return result;
+            } finally {
+                metrics.invocationExecuted(entry.interfaceClass, entry.method, start - received, System.nanoTime() - start, success);
             }
         }
 
+        @Override
+        public void acceptInvocationResponse(InvocationResponse msg) {
+            remote.completeCall(msg);
+        }
+
         @Override
         public void acceptKeepAlive(KeepAlive msg) {
             // ignore
         }
 
+        @Override
+        public void acceptStreamChunk(StreamChunk msg) {
+            remote.getStreams().accept(msg);
+        }
+
+        @Override
+        public void acceptStreamCredit(StreamCredit msg) {
+            remote.getStreams().accept(msg);
+        }
+
         private Object getImplementation(Class<?> clazz) {
             Object impl = cache.get(clazz);
             if (impl == null) {
                 impl = createImplementation(clazz);
-                cache.put(clazz, impl);
+                Object existing = cache.putIfAbsent(clazz, impl);
+                if (existing != null) {
+                    impl = existing;
+                }
             }
             return impl;
         }
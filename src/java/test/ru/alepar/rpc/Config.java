@@ -7,6 +7,7 @@ import static java.lang.Thread.sleep;
 public class Config {
 
     public static final InetSocketAddress BIND_ADDRESS = new InetSocketAddress(8338);
+    public static final InetSocketAddress SECOND_BIND_ADDRESS = new InetSocketAddress(8339);
     public static final long TIMEOUT = 2000l;
 
     public static void giveTimeForMessagesToBeProcessed() {
@@ -1,32 +1,110 @@
 package ru.alepar.rpc;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ServerChannel;
+import org.jboss.netty.channel.ServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
+import org.jboss.netty.handler.timeout.ReadTimeoutException;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.integration.junit4.JMock;
 import org.jmock.integration.junit4.JUnit4Mockery;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import ru.alepar.rpc.api.BatchingPolicy;
+import ru.alepar.rpc.api.BroadcastResult;
 import ru.alepar.rpc.api.ClientListener;
+import ru.alepar.rpc.api.CopyPolicy;
+import ru.alepar.rpc.api.DefaultRpcFuture;
 import ru.alepar.rpc.api.ExceptionListener;
+import ru.alepar.rpc.api.FileArgument;
+import ru.alepar.rpc.api.ImplementationFactory;
 import ru.alepar.rpc.api.Inject;
+import ru.alepar.rpc.api.Invocation;
+import ru.alepar.rpc.api.MetricsSnapshot;
 import ru.alepar.rpc.api.NettyRpcClientBuilder;
 import ru.alepar.rpc.api.NettyRpcServerBuilder;
+import ru.alepar.rpc.api.OverflowPolicy;
+import ru.alepar.rpc.api.ReconnectPolicy;
 import ru.alepar.rpc.api.Remote;
+import ru.alepar.rpc.api.RemoteFilter;
 import ru.alepar.rpc.api.RpcClient;
+import ru.alepar.rpc.api.RpcFuture;
 import ru.alepar.rpc.api.RpcServer;
+import ru.alepar.rpc.api.SharedMemoryAddress;
+import ru.alepar.rpc.api.Transport;
+import ru.alepar.rpc.api.TransportResources;
+import ru.alepar.rpc.api.WritabilityListener;
+import ru.alepar.rpc.api.exception.CallTimeoutException;
 import ru.alepar.rpc.api.exception.ConfigurationException;
 import ru.alepar.rpc.api.exception.RemoteException;
 import ru.alepar.rpc.api.exception.TransportException;
+import ru.alepar.rpc.api.exception.WriteBufferOverflowException;
+import ru.alepar.rpc.client.LoadBalancers;
+import ru.alepar.rpc.common.MethodTable;
+import ru.alepar.rpc.common.NettyRemote;
+import ru.alepar.rpc.common.ReadThrottle;
+import ru.alepar.rpc.common.VirtualThreads;
+import ru.alepar.rpc.common.codec.Codecs;
+import ru.alepar.rpc.common.codec.RpcEncoder;
+import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.metrics.DefaultMetrics;
+import ru.alepar.rpc.common.transport.NioTransport;
 
 import static java.lang.Thread.sleep;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCachingConcurrentResolver;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 import static ru.alepar.rpc.Config.BIND_ADDRESS;
+import static ru.alepar.rpc.Config.SECOND_BIND_ADDRESS;
 import static ru.alepar.rpc.Config.TIMEOUT;
 import static ru.alepar.rpc.Config.giveTimeForMessagesToBeProcessed;
 
@@ -88,6 +166,84 @@ public class NettyRpcClientServerTest {
         }
     }
 
+    @Test(timeout = TIMEOUT, expected = ConfigurationException.class)
+    public void doNotAllowMethodsReturningPlainFuture() throws Exception {
+        new NettyRpcServerBuilder(BIND_ADDRESS).addObject(PlainFutureReturn.class, mockery.mock(PlainFutureReturn.class));
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void methodsReturningFutureDeliverResultToCaller() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+        final Echo proxy = client.getRemote().getProxy(Echo.class);
+
+        try {
+            assertThat(proxy.echo("hi").get(), equalTo("hi"));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void exceptionThrownByImplementationFailsCallersFuture() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        throw new IllegalArgumentException(s);
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+        final Echo proxy = client.getRemote().getProxy(Echo.class);
+
+        try {
+            final RpcFuture<String> future = proxy.echo("hi");
+            future.await();
+            assertThat(future.isSuccess(), equalTo(false));
+            assertThat(future.getCause(), instanceOf(RemoteException.class));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void callFailsWithTimeoutIfResponseDoesNotArriveInTime() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return new DefaultRpcFuture<String>(); // never completes
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setCallTimeout(50l)
+                .build();
+        final Echo proxy = client.getRemote().getProxy(Echo.class);
+
+        try {
+            final RpcFuture<String> future = proxy.echo("hi");
+            future.await();
+            assertThat(future.getCause(), instanceOf(CallTimeoutException.class));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
     @Test(timeout = TIMEOUT)
     public void subsequentCallsWork() throws Exception {
         final NoParamsVoidReturn impl = mockery.mock(NoParamsVoidReturn.class);
@@ -432,6 +588,27 @@ public class NettyRpcClientServerTest {
         }
     }
 
+    @Test(timeout = TIMEOUT)
+    public void proxiesAreCachedAndObjectMethodsAreServedLocally() throws Exception {
+        final NoParamsVoidReturn impl = mockery.mock(NoParamsVoidReturn.class);
+
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(NoParamsVoidReturn.class, impl)
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final NoParamsVoidReturn proxy = client.getRemote().getProxy(NoParamsVoidReturn.class);
+            assertThat(client.getRemote().getProxy(NoParamsVoidReturn.class), sameInstance(proxy));
+            assertThat(proxy.toString(), notNullValue());
+            assertThat(proxy.equals(proxy), equalTo(true));
+            giveTimeForMessagesToBeProcessed();
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
     @Test(expected = ConfigurationException.class)
     public void getProxyOnClientForNonRegisteredOnServerInterfaceThrowsProtocolException() throws Exception {
         final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
@@ -472,24 +649,1637 @@ public class NettyRpcClientServerTest {
         }
     }
 
-    public interface NoParamsVoidReturn {
-        void go();
+    @Test(timeout = TIMEOUT)
+    public void batchedCallsAreDeliveredInOrderAndLoneCallIsFlushedAfterDelay() throws Exception {
+        final BatchingPolicy batching = new BatchingPolicy(16, 64 * 1024, 500);
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .setBatching(batching)
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setBatching(batching)
+                .build();
+        final Echo proxy = client.getRemote().getProxy(Echo.class);
+
+        try {
+            assertThat(proxy.echo("lone").get(), equalTo("lone"));
+
+            final List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(proxy.echo("msg" + i));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertThat(futures.get(i).get(), equalTo("msg" + i));
+            }
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
     }
-    public interface NoParamsIntegerReturn {
-        Integer go();
+
+    @Test(timeout = TIMEOUT)
+    public void failOverflowPolicyRejectsCallsToSlowClientAndNotifiesWritabilityListener() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch becameUnwritable = new CountDownLatch(1);
+        final AtomicReference<Boolean> lastReported = new AtomicReference<Boolean>();
+        final AtomicReference<Remote> clientRemote = new AtomicReference<Remote>();
+        final CountDownLatch connected = new CountDownLatch(1);
+
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setWriteBufferWatermarks(1024, 2048)
+                .setOverflowPolicy(OverflowPolicy.FAIL)
+                .addClientListener(new ClientListener() {
+                    @Override
+                    public void onClientConnect(Remote remote) {
+                        clientRemote.set(remote);
+                        connected.countDown();
+                    }
+                    @Override
+                    public void onClientDisconnect(Remote remote) {
+                    }
+                })
+                .addWritabilityListener(new WritabilityListener() {
+                    @Override
+                    public void onWritabilityChanged(Remote remote, boolean writable) {
+                        lastReported.set(writable);
+                        if (!writable) {
+                            becameUnwritable.countDown();
+                        }
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addObject(BytesSink.class, new BytesSink() {
+                    @Override
+                    public void sink(byte[] bytes) {
+                        try {
+                            release.await(); // blocks client's io thread, so it stops reading
+                        } catch (InterruptedException ignored) {}
+                    }
+                })
+                .build();
+
+        try {
+            connected.await();
+            final BytesSink proxy = clientRemote.get().getProxy(BytesSink.class);
+            boolean rejected = false;
+            for (int i = 0; i < 200 && !rejected; i++) {
+                try {
+                    proxy.sink(new byte[256 * 1024]);
+                } catch (WriteBufferOverflowException e) {
+                    rejected = true;
+                }
+            }
+            assertThat(rejected, equalTo(true));
+            becameUnwritable.await();
+
+            release.countDown();
+            while (!clientRemote.get().isWritable()) {
+                giveTimeForMessagesToBeProcessed();
+            }
+            giveTimeForMessagesToBeProcessed();
+            assertThat(lastReported.get(), equalTo(true));
+        } finally {
+            release.countDown();
+            client.shutdown();
+            server.shutdown();
+        }
     }
 
-    public interface IntegerParam {
-        void go(Integer i);
+    @Test(timeout = TIMEOUT)
+    public void slowInterfaceRunByItsOwnExecutorDoesNotStallOtherInterfaces() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(InfinteWaiter.class, new InfinteWaiter() {
+                    @Override
+                    public void hang() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {}
+                    }
+                })
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .setExecutor(InfinteWaiter.class, slowExecutor)
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            client.getRemote().getProxy(InfinteWaiter.class).hang();
+            assertThat(client.getRemote().getProxy(Echo.class).echo("hi").get(), equalTo("hi"));
+        } finally {
+            release.countDown();
+            client.shutdown();
+            server.shutdown();
+            slowExecutor.shutdown();
+        }
     }
-    public interface IntLongParam {
-        void go(int i, long l);
+
+    @Test(timeout = TIMEOUT)
+    public void invocationsRunByExecutorKeepOrderOfArrival() throws Exception {
+        final int count = 1000;
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(count);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        received.add(i);
+                        done.countDown();
+                    }
+                })
+                .setInvocationExecutor(executor)
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final IntegerParam proxy = client.getRemote().getProxy(IntegerParam.class);
+            final List<Integer> sent = new ArrayList<Integer>();
+            for (int i = 0; i < count; i++) {
+                proxy.go(i);
+                sent.add(i);
+            }
+            done.await();
+            assertThat(received, equalTo(sent));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+            executor.shutdown();
+        }
     }
 
-    public interface OverloadedString {
-        void go(String s); // though unused, is vital for correctnes of corresponding unit test
-        void go(Serializable s);
+    @Test(timeout = TIMEOUT * 5)
+    public void serverStopsReadingConnectionWhoseInvocationsPileUpInExecutor() throws Exception {
+        final int count = 3000;
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger invoked = new AtomicInteger();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final DefaultMetrics metrics = new DefaultMetrics();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(BytesSink.class, new BytesSink() {
+                    @Override
+                    public void sink(byte[] bytes) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        invoked.incrementAndGet();
+                    }
+                })
+                .setInvocationExecutor(executor)
+                .setMetrics(metrics)
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final BytesSink proxy = client.getRemote().getProxy(BytesSink.class);
+            for (int i = 0; i < count; i++) {
+                proxy.sink(new byte[16]);
+            }
+            long decoded;
+            do {
+                decoded = metrics.getSnapshot().getDecodedMessages();
+                giveTimeForMessagesToBeProcessed();
+            } while (metrics.getSnapshot().getDecodedMessages() != decoded);
+            assertThat(decoded, lessThan(2l * ReadThrottle.MAX_QUEUED));
+
+            release.countDown();
+            while (invoked.get() < count) {
+                sleep(10);
+            }
+        } finally {
+            client.shutdown();
+            server.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void implementationsRunOnVirtualThreadsWhenRequested() throws Exception {
+        assumeTrue(VirtualThreads.isSupported());
+
+        final AtomicReference<String> serverThread = new AtomicReference<String>();
+        final AtomicReference<String> clientThread = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        serverThread.set(Thread.currentThread().getName());
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .useVirtualThreads()
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addObject(NoParamsVoidReturn.class, new NoParamsVoidReturn() {
+                    @Override
+                    public void go() {
+                        clientThread.set(Thread.currentThread().getName());
+                        done.countDown();
+                    }
+                })
+                .useVirtualThreads()
+                .build();
+
+        try {
+            assertThat(client.getRemote().getProxy(Echo.class).echo("hi").get(), equalTo("hi"));
+            assertThat(serverThread.get(), startsWith("NettyRpc-virtual-"));
+
+            server.getClients().iterator().next().getProxy(NoParamsVoidReturn.class).go();
+            done.await();
+            assertThat(clientThread.get(), startsWith("NettyRpc-virtual-"));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void askingForVirtualThreadsOnOldJvmThrowsConfigurationException() throws Exception {
+        assumeTrue(!VirtualThreads.isSupported());
+
+        new NettyRpcServerBuilder(BIND_ADDRESS).useVirtualThreads();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void broadcastReachesClientsExposingInterfaceAndPassingFilter() throws Exception {
+        final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+        final DefaultMetrics metrics = new DefaultMetrics();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS).setMetrics(metrics).build();
+
+        final RpcClient firstClient = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        first.add(i);
+                    }
+                })
+                .build();
+        final RpcClient secondClient = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        second.add(i);
+                    }
+                })
+                .build();
+        final RpcClient unrelatedClient = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final RpcFuture<BroadcastResult> toAll = server.broadcast(IntegerParam.class, new Invocation<IntegerParam>() {
+                @Override
+                public void invoke(IntegerParam proxy) {
+                    proxy.go(1);
+                }
+            }, null);
+            final RpcFuture<BroadcastResult> toFirst = server.broadcast(IntegerParam.class, new Invocation<IntegerParam>() {
+                @Override
+                public void invoke(IntegerParam proxy) {
+                    proxy.go(2);
+                }
+            }, new RemoteFilter() {
+                @Override
+                public boolean accept(Remote remote) {
+                    return remote.getId().equals(firstClient.getRemote().getId());
+                }
+            });
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(toAll.get().getSucceeded(), equalTo(2));
+            assertThat(toAll.get().getFailed(), equalTo(0));
+            assertThat(toAll.get().getSkipped(), equalTo(1));
+            assertThat(toFirst.get().getSucceeded(), equalTo(1));
+            assertThat(toFirst.get().getSkipped(), equalTo(2));
+            assertThat(metrics.getSnapshot().getEncodedMessages(), equalTo(5l)); // handshakes and one frame per broadcast
+            assertThat(metrics.getSnapshot().getWriteQueueDepth(), equalTo(0l));
+            assertThat(first, equalTo(Arrays.asList(1, 2)));
+            assertThat(second, equalTo(Arrays.asList(1)));
+        } finally {
+            firstClient.shutdown();
+            secondClient.shutdown();
+            unrelatedClient.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void classDictionaryCodecCarriesCallsInBothDirectionsAlongWithBroadcasts() throws Exception {
+        final List<Serializable> onServer = Collections.synchronizedList(new ArrayList<Serializable>());
+        final List<Serializable> onClient = Collections.synchronizedList(new ArrayList<Serializable>());
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setCodecFactory(Codecs.binaryWithClassDictionary())
+                .addObject(OverloadedString.class, new CollectingOverloadedString(onServer))
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setCodecFactory(Codecs.binaryWithClassDictionary())
+                .addObject(OverloadedString.class, new CollectingOverloadedString(onClient))
+                .build();
+
+        try {
+            final OverloadedString proxy = client.getRemote().getProxy(OverloadedString.class);
+            for (int i = 0; i < 3; i++) {
+                proxy.go(new ArrayList<String>(Arrays.asList("call", String.valueOf(i))));
+                server.broadcast(OverloadedString.class, new Invocation<OverloadedString>() {
+                    @Override
+                    public void invoke(OverloadedString proxy) {
+                        proxy.go(new ArrayList<String>(Arrays.asList("broadcast")));
+                    }
+                }, null);
+                server.getClients().iterator().next().getProxy(OverloadedString.class).go(new ArrayList<String>(Arrays.asList("callback")));
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(onServer.size(), equalTo(3));
+            assertThat(onServer.get(2), equalTo((Serializable) Arrays.asList("call", "2")));
+            assertThat(onClient.size(), equalTo(6));
+            assertThat(new HashSet<Serializable>(onClient), equalTo(new HashSet<Serializable>(Arrays.<Serializable>asList(
+                    new ArrayList<String>(Arrays.asList("broadcast")), new ArrayList<String>(Arrays.asList("callback"))))));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
     }
+
+    @Test(timeout = TIMEOUT)
+    public void broadcastWhichFailsToEncodeIsSentToNoClient() throws Exception {
+        final LocalAddress localAddress = new LocalAddress("netty-rpc-test");
+        final AtomicInteger received = new AtomicInteger();
+        final OverloadedString impl = new OverloadedString() {
+            @Override
+            public void go(String s) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void go(Serializable s) {
+                received.incrementAndGet();
+            }
+        };
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addBindAddress(localAddress)
+                .setCopyPolicy(CopyPolicy.NONE)
+                .build();
+        final List<RpcClient> clients = new ArrayList<RpcClient>();
+
+        try {
+            for (SocketAddress address : Arrays.asList(localAddress, BIND_ADDRESS, localAddress)) {
+                clients.add(new NettyRpcClientBuilder(address).addObject(OverloadedString.class, impl).build());
+            }
+            try {
+                server.broadcast(OverloadedString.class, new Invocation<OverloadedString>() {
+                    @Override
+                    public void invoke(OverloadedString proxy) {
+                        proxy.go(new ArrayList<Object>(Arrays.asList(new Object())));
+                    }
+                }, null);
+                fail("broadcast of plain object should fail to encode");
+            } catch (TransportException expected) {
+            }
+            try {
+                server.broadcast(StreamConsumer.class, new Invocation<StreamConsumer>() {
+                    @Override
+                    public void invoke(StreamConsumer proxy) {
+                        proxy.consume(new ByteArrayInputStream(new byte[1]));
+                    }
+                }, null);
+                fail("stream arguments should not be broadcast");
+            } catch (ConfigurationException expected) {
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(received.get(), equalTo(0));
+        } finally {
+            for (RpcClient client : clients) {
+                client.shutdown();
+            }
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void serverBoundToSeveralAddressesPresentsClientsOfAllListenersAsOne() throws Exception {
+        final LocalAddress localAddress = new LocalAddress("netty-rpc-test");
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final IntegerParam impl = new IntegerParam() {
+            @Override
+            public void go(Integer i) {
+                received.add(i);
+            }
+        };
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addBindAddress(SECOND_BIND_ADDRESS)
+                .addBindAddress(localAddress)
+                .build();
+        final List<RpcClient> clients = new ArrayList<RpcClient>();
+
+        try {
+            for (SocketAddress address : Arrays.asList(BIND_ADDRESS, SECOND_BIND_ADDRESS, localAddress)) {
+                clients.add(new NettyRpcClientBuilder(address).addObject(IntegerParam.class, impl).build());
+            }
+            final RpcFuture<BroadcastResult> result = server.broadcast(IntegerParam.class, new Invocation<IntegerParam>() {
+                @Override
+                public void invoke(IntegerParam proxy) {
+                    proxy.go(1);
+                }
+            }, null);
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(server.getClients().size(), equalTo(3));
+            assertThat(result.get().getSucceeded(), equalTo(3));
+            assertThat(received, equalTo(Arrays.asList(1, 1, 1)));
+        } finally {
+            for (RpcClient client : clients) {
+                client.shutdown();
+            }
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void serverClosesConnectionOfPeerWhichSendsNothing() throws Exception {
+        final ExceptionSavingListener listener = new ExceptionSavingListener();
+        final AtomicInteger disconnects = new AtomicInteger();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setIdleTimeout(200l)
+                .addExceptionListener(listener)
+                .addClientListener(new ClientListener() {
+                    @Override
+                    public void onClientConnect(Remote remote) {
+                    }
+
+                    @Override
+                    public void onClientDisconnect(Remote remote) {
+                        disconnects.incrementAndGet();
+                    }
+                })
+                .build();
+
+        final Socket socket = new Socket("localhost", BIND_ADDRESS.getPort());
+        try {
+            assertThat(socket.getInputStream().read(), equalTo(-1));
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(listener.lastException().getCause(), instanceOf(ReadTimeoutException.class));
+            assertThat(disconnects.get(), equalTo(0));
+        } finally {
+            socket.close();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void serverClosesConnectionOfPeerWhichInvokesBeforeHandshake() throws Exception {
+        final AtomicInteger invoked = new AtomicInteger();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(NoParamsVoidReturn.class, new NoParamsVoidReturn() {
+                    @Override
+                    public void go() {
+                        invoked.incrementAndGet();
+                    }
+                })
+                .build();
+
+        final Socket socket = new Socket("localhost", BIND_ADDRESS.getPort());
+        try {
+            final ChannelBuffer frame = RpcEncoder.frame(Codecs.binary().newCodec(softCachingConcurrentResolver(null)).encode(new InvocationRequest(InvocationRequest.ONE_WAY, 0, null)));
+            frame.getBytes(frame.readerIndex(), socket.getOutputStream(), frame.readableBytes());
+            assertThat(socket.getInputStream().read(), equalTo(-1));
+            assertThat(invoked.get(), equalTo(0));
+        } finally {
+            socket.close();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void keepAliveKeepsQuietConnectionOpen() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .setKeepAlive(50l)
+                .setIdleTimeout(200l)
+                .build();
+
+        final ExceptionSavingListener listener = new ExceptionSavingListener();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addExceptionListener(listener)
+                .setKeepAlive(50l)
+                .setIdleTimeout(200l)
+                .build();
+
+        try {
+            sleep(500l);
+            assertThat(client.getRemote().getProxy(Echo.class).echo("still there").get(), equalTo("still there"));
+            assertThat(listener.lastException(), nullValue());
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void pooledClientSpreadsCallsAmongServersRoundRobin() throws Exception {
+        final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+        final RpcServer firstServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        first.add(i);
+                    }
+                })
+                .build();
+        final RpcServer secondServer = new NettyRpcServerBuilder(SECOND_BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        second.add(i);
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addServer(SECOND_BIND_ADDRESS)
+                .setConnectionsPerServer(2)
+                .build();
+
+        try {
+            final IntegerParam proxy = client.getRemote().getProxy(IntegerParam.class);
+            for (int i = 0; i < 8; i++) {
+                proxy.go(i);
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(firstServer.getClients().size(), equalTo(2));
+            assertThat(secondServer.getClients().size(), equalTo(2));
+            assertThat(first.size(), equalTo(4));
+            assertThat(second.size(), equalTo(4));
+        } finally {
+            client.shutdown();
+            firstServer.shutdown();
+            secondServer.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void leastOutstandingAvoidsBusyServerWhenPoolReconnects() throws Exception {
+        final List<DefaultRpcFuture<String>> hanging = Collections.synchronizedList(new ArrayList<DefaultRpcFuture<String>>());
+        final RpcServer slowServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        DefaultRpcFuture<String> result = new DefaultRpcFuture<String>();
+                        hanging.add(result);
+                        return result;
+                    }
+                })
+                .build();
+        final RpcServer fastServer = new NettyRpcServerBuilder(SECOND_BIND_ADDRESS)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addServer(SECOND_BIND_ADDRESS)
+                .setLoadBalancer(LoadBalancers.leastOutstanding())
+                .setReconnect(new ReconnectPolicy(20, 100, 10))
+                .build();
+
+        try {
+            final Echo proxy = client.getRemote().getProxy(Echo.class);
+            for (int i = 0; i < 6; i++) {
+                try {
+                    proxy.echo("hi").get(200, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {
+                    // landed on slow server
+                }
+            }
+
+            assertThat(hanging.size(), equalTo(1));
+        } finally {
+            client.shutdown();
+            slowServer.shutdown();
+            fastServer.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void consistentHashSpreadsKeysOfLostConnectionOverTheRest() throws Exception {
+        final Map<Integer, Remote.Id> ownerByKey = new ConcurrentHashMap<Integer, Remote.Id>();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addFactory(IntLongParam.class, new ImplementationFactory<IntLongParam>() {
+                    @Override
+                    public IntLongParam create(final Remote remote) {
+                        return new IntLongParam() {
+                            @Override
+                            public void go(int i, long l) {
+                                ownerByKey.put(i, remote.getId());
+                            }
+                        };
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setConnectionsPerServer(4)
+                .setLoadBalancer(LoadBalancers.consistentHash(0))
+                .build();
+
+        try {
+            final IntLongParam proxy = client.getRemote().getProxy(IntLongParam.class);
+            for (int i = 0; i < 100; i++) {
+                proxy.go(i, i);
+            }
+            giveTimeForMessagesToBeProcessed();
+            final Map<Integer, Remote.Id> before = new HashMap<Integer, Remote.Id>(ownerByKey);
+            final Remote.Id lost = before.get(0);
+            ((NettyRemote) server.getClient(lost)).getChannel().close().await();
+            giveTimeForMessagesToBeProcessed();
+
+            ownerByKey.clear();
+            for (int i = 0; i < 100; i++) {
+                proxy.go(i, i);
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            final Set<Remote.Id> heirs = new HashSet<Remote.Id>();
+            for (int i = 0; i < 100; i++) {
+                if (before.get(i).equals(lost)) {
+                    heirs.add(ownerByKey.get(i));
+                } else {
+                    assertThat(ownerByKey.get(i), equalTo(before.get(i)));
+                }
+            }
+            assertThat(heirs.contains(lost), equalTo(false));
+            assertThat(heirs.size(), greaterThan(1));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void consistentHashSendsCallsWithEqualKeyOverTheSameConnection() throws Exception {
+        final Map<Remote.Id, Set<Integer>> keysByConnection = new ConcurrentHashMap<Remote.Id, Set<Integer>>();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addFactory(IntLongParam.class, new ImplementationFactory<IntLongParam>() {
+                    @Override
+                    public IntLongParam create(final Remote remote) {
+                        final Set<Integer> keys = Collections.synchronizedSet(new HashSet<Integer>());
+                        keysByConnection.put(remote.getId(), keys);
+                        return new IntLongParam() {
+                            @Override
+                            public void go(int i, long l) {
+                                keys.add(i);
+                            }
+                        };
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setConnectionsPerServer(4)
+                .setLoadBalancer(LoadBalancers.consistentHash(0))
+                .build();
+
+        try {
+            final IntLongParam proxy = client.getRemote().getProxy(IntLongParam.class);
+            for (int i = 0; i < 100; i++) {
+                proxy.go(i % 10, i);
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            int total = 0;
+            for (Set<Integer> keys : keysByConnection.values()) {
+                total += keys.size();
+            }
+            assertThat(total, equalTo(10));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void reconnectingClientKeepsProxiesValidAndReplaysCallsBufferedWhileDisconnected() throws Exception {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final IntegerParam impl = new IntegerParam() {
+            @Override
+            public void go(Integer i) {
+                received.add(i);
+            }
+        };
+        final Echo echo = new Echo() {
+            @Override
+            public RpcFuture<String> echo(String s) {
+                return DefaultRpcFuture.succeeded(s);
+            }
+        };
+        final RpcServer firstServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, impl)
+                .addObject(Echo.class, echo)
+                .build();
+
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setReconnect(new ReconnectPolicy(20, 100, 10))
+                .addExceptionListener(new ExceptionListener() {
+                    @Override
+                    public void onExceptionCaught(Remote remote, Exception e) {
+                        disconnected.countDown();
+                    }
+                })
+                .build();
+
+        RpcServer secondServer = null;
+        try {
+            final IntegerParam proxy = client.getRemote().getProxy(IntegerParam.class);
+            final Echo echoProxy = client.getRemote().getProxy(Echo.class);
+            proxy.go(1);
+            giveTimeForMessagesToBeProcessed();
+
+            firstServer.shutdown();
+            disconnected.await();
+            proxy.go(2);
+            final RpcFuture<String> buffered = echoProxy.echo("buffered");
+
+            secondServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                    .addObject(IntegerParam.class, impl)
+                    .addObject(Echo.class, echo)
+                    .build();
+            assertThat(buffered.get(), equalTo("buffered"));
+            proxy.go(3);
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(received, equalTo(Arrays.asList(1, 2, 3)));
+            assertThat(secondServer.getClients().size(), equalTo(1));
+        } finally {
+            client.shutdown();
+            if (secondServer != null) {
+                secondServer.shutdown();
+            }
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void reconnectingClientReplaysBufferedCallsWithStreamArguments() throws Exception {
+        final byte[] bytes = new byte[1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        final RpcServer firstServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(StreamSink.class, new CrcStreamSink())
+                .build();
+
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setReconnect(new ReconnectPolicy(20, 100, 10))
+                .addExceptionListener(new ExceptionListener() {
+                    @Override
+                    public void onExceptionCaught(Remote remote, Exception e) {
+                        disconnected.countDown();
+                    }
+                })
+                .build();
+
+        RpcServer secondServer = null;
+        try {
+            final StreamSink proxy = client.getRemote().getProxy(StreamSink.class);
+            firstServer.shutdown();
+            disconnected.await();
+            final RpcFuture<Long> first = proxy.crc(new ByteArrayInputStream(bytes));
+            final RpcFuture<Integer> second = proxy.firstByte(new ByteArrayInputStream(bytes));
+
+            secondServer = new NettyRpcServerBuilder(BIND_ADDRESS)
+                    .addObject(StreamSink.class, new CrcStreamSink())
+                    .build();
+            assertThat(first.get(), equalTo(crcOf(bytes)));
+            assertThat(second.get(), equalTo(bytes[0] & 0xff));
+            assertThat(proxy.crc(new ByteArrayInputStream(new byte[0])).get(), equalTo(crcOf(new byte[0])));
+        } finally {
+            client.shutdown();
+            if (secondServer != null) {
+                secondServer.shutdown();
+            }
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void reconnectingClientRejectsCallsBeyondBufferWhileDisconnected() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                    }
+                })
+                .build();
+
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setReconnect(new ReconnectPolicy(1000, 1000, 1))
+                .addExceptionListener(new ExceptionListener() {
+                    @Override
+                    public void onExceptionCaught(Remote remote, Exception e) {
+                        disconnected.countDown();
+                    }
+                })
+                .build();
+
+        try {
+            final IntegerParam proxy = client.getRemote().getProxy(IntegerParam.class);
+            server.shutdown();
+            disconnected.await();
+
+            proxy.go(1);
+            try {
+                proxy.go(2);
+                fail("call beyond reconnect buffer should be rejected");
+            } catch (TransportException expected) {
+                assertThat(expected.getMessage(), startsWith("not connected to server"));
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void clientsBuiltAsynchronouslyConnectConcurrently() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS).build();
+
+        final List<RpcFuture<RpcClient>> futures = new ArrayList<RpcFuture<RpcClient>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(new NettyRpcClientBuilder(BIND_ADDRESS).buildAsync());
+        }
+
+        try {
+            for (RpcFuture<RpcClient> future : futures) {
+                assertThat(future.get().getRemote(), notNullValue());
+            }
+            assertThat(server.getClients().size(), equalTo(10));
+        } finally {
+            for (RpcFuture<RpcClient> future : futures) {
+                if (future.isSuccess()) {
+                    future.get().shutdown();
+                }
+            }
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void reconnectingClientReportsOutageOnceThoughAttemptsKeepFailing() throws Exception {
+        final AtomicInteger reported = new AtomicInteger();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS).build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .addExceptionListener(new ExceptionListener() {
+                    @Override
+                    public void onExceptionCaught(Remote remote, Exception e) {
+                        reported.incrementAndGet();
+                    }
+                })
+                .setReconnect(new ReconnectPolicy(10, 20, 10))
+                .build();
+
+        try {
+            server.shutdown();
+            final ServerSocket closingServer = new ServerSocket();
+            closingServer.setReuseAddress(true);
+            closingServer.bind(BIND_ADDRESS);
+            try {
+                for (int i = 0; i < 5; i++) {
+                    closingServer.accept().close(); // reconnect attempt connects, but loses connection before handshake
+                }
+                giveTimeForMessagesToBeProcessed();
+            } finally {
+                closingServer.close();
+            }
+
+            assertThat(reported.get(), equalTo(1));
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void poolWithUnsupportedAddressLeavesNoConnectionBehind() throws Exception {
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS).build();
+        try {
+            try {
+                new NettyRpcClientBuilder(BIND_ADDRESS)
+                        .addServer(new SocketAddress() {})
+                        .buildAsync();
+                fail("address without transport should be rejected");
+            } catch (ConfigurationException expected) {
+            }
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(server.getClients().size(), equalTo(0));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void clientFailsToConnectIfServerDoesNotAnswerHandshakeInTime() throws Exception {
+        final ServerSocket silentServer = new ServerSocket(BIND_ADDRESS.getPort());
+        try {
+            final RpcFuture<RpcClient> future = new NettyRpcClientBuilder(BIND_ADDRESS)
+                    .setHandshakeTimeout(200l)
+                    .buildAsync();
+            final Socket accepted = silentServer.accept();
+            try {
+                future.await();
+                assertThat(future.isSuccess(), equalTo(false));
+                assertThat(future.getCause(), instanceOf(TransportException.class));
+                assertThat(future.getCause().getMessage(), startsWith("no handshake from"));
+            } finally {
+                accepted.close();
+            }
+        } finally {
+            silentServer.close();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void clientsAndServerSharingTransportResourcesOutliveEachOther() throws Exception {
+        final TransportResources resources = new TransportResources(2);
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setTransportResources(resources)
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        received.add(i);
+                    }
+                })
+                .build();
+        final RpcClient first = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setTransportResources(resources)
+                .build();
+        final RpcClient second = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setTransportResources(resources)
+                .build();
+        resources.release();
+
+        try {
+            first.shutdown();
+            second.getRemote().getProxy(IntegerParam.class).go(1);
+            giveTimeForMessagesToBeProcessed();
+            assertThat(received, equalTo(Arrays.asList(1)));
+        } finally {
+            second.shutdown();
+            server.shutdown();
+        }
+
+        try {
+            resources.retain();
+            fail("resources should be released once last user is shut down");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void addedTransportCarriesConnectionsOfAddressesItSupportsAndIsReleasedWithResources() throws Exception {
+        final TransportResources resources = new TransportResources(1);
+        final CountingTransport transport = new CountingTransport(new NioTransport(Executors.newCachedThreadPool(), Executors.newCachedThreadPool(), 1));
+        resources.addTransport(transport);
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setTransportResources(resources)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setTransportResources(resources)
+                .build();
+        resources.release();
+
+        try {
+            assertThat(client.getRemote().getProxy(Echo.class).echo("hello").get(), equalTo("hello"));
+            assertThat(transport.channels.get(), equalTo(2)); // accepted connections are made by server channel itself
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+        assertThat(transport.released, equalTo(true));
+    }
+
+    @Test(timeout = TIMEOUT, expected = ConfigurationException.class)
+    public void serverRefusesAddressNoTransportSupports() throws Exception {
+        new NettyRpcServerBuilder(new SocketAddress() {}).build();
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void metricsCountInvocationsOnBothSidesAndAreExposedOverJmx() throws Exception {
+        final DefaultMetrics serverMetrics = new DefaultMetrics();
+        final DefaultMetrics clientMetrics = new DefaultMetrics();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setMetrics(serverMetrics)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setMetrics(clientMetrics)
+                .build();
+
+        clientMetrics.registerMBean("client");
+        try {
+            final Echo proxy = client.getRemote().getProxy(Echo.class);
+            for (int i = 0; i < 5; i++) {
+                proxy.echo("hello").get();
+            }
+            giveTimeForMessagesToBeProcessed(); // call latency is recorded by future listener, after get() returns
+
+            final String signature = MethodTable.signature(Echo.class, Echo.class.getMethod("echo", String.class));
+            final MetricsSnapshot.MethodStats sent = clientMetrics.getSnapshot().getMethods().get(signature);
+            assertThat(sent.getSent(), equalTo(5l));
+            assertThat(sent.getCallLatency().getCount(), equalTo(5l));
+            assertThat(sent.getFailedCalls(), equalTo(0l));
+            assertThat(clientMetrics.getSnapshot().getWriteQueueDepth(), equalTo(0l));
+
+            final MetricsSnapshot.MethodStats executed = serverMetrics.getSnapshot().getInterfaces().get(Echo.class.getName());
+            assertThat(executed.getExecuted(), equalTo(5l));
+            assertThat(executed.getRunLatency().getCount(), equalTo(5l));
+            assertThat(serverMetrics.getSnapshot().getDecodedMessages(), equalTo(6l)); // handshake and calls
+
+            final Object snapshot = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("ru.alepar.rpc:type=Metrics,name=\"client\""), "Snapshot");
+            assertThat(((CompositeData) snapshot).get("encodedMessages"), equalTo((Object) 6l));
+        } finally {
+            clientMetrics.unregisterMBean();
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void largeByteArraysByteBuffersAndFileArgumentsArePassedAsIs() throws Exception {
+        final byte[] bytes = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(2 * 1024 * 1024);
+        buffer.put(bytes, 0, buffer.capacity()).flip();
+        final File file = File.createTempFile("netty-rpc", ".bin");
+        file.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setMaxFrameLength(16 * 1024 * 1024)
+                .addObject(Checksums.class, new Checksums() {
+                    @Override
+                    public RpcFuture<Long> crc(byte[] bytes, ByteBuffer buffer, FileArgument file) {
+                        try {
+                            return DefaultRpcFuture.succeeded(crcOf(bytes, buffer, file.getContent()));
+                        } catch (IOException e) {
+                            return DefaultRpcFuture.failed(e);
+                        }
+                    }
+                })
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setMaxFrameLength(16 * 1024 * 1024)
+                .build();
+
+        try {
+            final FileArgument region = new FileArgument(file, 100, 2 * 1024 * 1024);
+            final Long crc = client.getRemote().getProxy(Checksums.class).crc(bytes, buffer, region).get();
+
+            assertThat(crc, equalTo(crcOf(bytes, buffer, region.getContent())));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void largeMessagesAreCompressedOnlyWhenBothSidesAgree() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < 512 * 1024) {
+            text.append("the quick brown fox jumps over the lazy dog ").append(text.length() % 100).append('\n');
+        }
+        final String payload = text.toString();
+
+        final DefaultMetrics serverMetrics = new DefaultMetrics();
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .setMetrics(serverMetrics)
+                .setCompressionThreshold(1024)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .build();
+        final RpcClient compressing = new NettyRpcClientBuilder(BIND_ADDRESS)
+                .setCompressionThreshold(4096)
+                .build();
+        final RpcClient plain = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            assertThat(compressing.getRemote().getProxy(Echo.class).echo(payload).get(), equalTo(payload));
+            final long compressedBytes = serverMetrics.getSnapshot().getDecodedBytes();
+            assertThat(compressedBytes, lessThan(payload.length() / 10l));
+
+            assertThat(compressing.getRemote().getProxy(Echo.class).echo("short").get(), equalTo("short"));
+            assertThat(plain.getRemote().getProxy(Echo.class).echo(payload).get(), equalTo(payload));
+            assertThat(serverMetrics.getSnapshot().getDecodedBytes() - compressedBytes, greaterThan((long) payload.length()));
+        } finally {
+            plain.shutdown();
+            compressing.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void inputStreamArgumentsAreStreamedInChunksAndClosedWhenImplementationIsDone() throws Exception {
+        final byte[] bytes = new byte[5 * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(StreamSink.class, new CrcStreamSink())
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final StreamSink proxy = client.getRemote().getProxy(StreamSink.class);
+            assertThat(proxy.crc(new ByteArrayInputStream(bytes)).get(), equalTo(crcOf(bytes)));
+            assertThat(proxy.firstByte(new ByteArrayInputStream(bytes)).get(), equalTo(bytes[0] & 0xff));
+            assertThat(proxy.crc(new ByteArrayInputStream(new byte[0])).get(), equalTo(crcOf(new byte[0])));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void invocationsReceivedAfterStreamingOneWaitForItWithoutInvocationExecutor() throws Exception {
+        final byte[] bytes = new byte[1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        final List<Object> executed = Collections.synchronizedList(new ArrayList<Object>());
+        final CrcStreamSink sink = new CrcStreamSink();
+
+        final RpcServer server = new NettyRpcServerBuilder(BIND_ADDRESS)
+                .addObject(StreamSink.class, new StreamSink() {
+                    @Override
+                    public RpcFuture<Long> crc(InputStream in) {
+                        RpcFuture<Long> result = sink.crc(in);
+                        executed.add("crc");
+                        return result;
+                    }
+
+                    @Override
+                    public RpcFuture<Integer> firstByte(InputStream in) {
+                        return sink.firstByte(in);
+                    }
+                })
+                .addObject(IntegerParam.class, new IntegerParam() {
+                    @Override
+                    public void go(Integer i) {
+                        executed.add(i);
+                    }
+                })
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(BIND_ADDRESS).build();
+
+        try {
+            final RpcFuture<Long> crc = client.getRemote().getProxy(StreamSink.class).crc(new ByteArrayInputStream(bytes));
+            client.getRemote().getProxy(IntegerParam.class).go(1);
+            assertThat(crc.get(), equalTo(crcOf(bytes)));
+            giveTimeForMessagesToBeProcessed();
+
+            assertThat(executed, equalTo(Arrays.<Object>asList("crc", 1)));
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void localTransportKeepsCallsAsynchronousAndFiresClientListeners() throws Exception {
+        final LocalAddress address = new LocalAddress("netty-rpc-test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final RpcServer server = new NettyRpcServerBuilder(address)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .addClientListener(new ClientListener() {
+                    @Override
+                    public void onClientConnect(Remote remote) {
+                        connected.countDown();
+                    }
+
+                    @Override
+                    public void onClientDisconnect(Remote remote) {
+                        disconnected.countDown();
+                    }
+                })
+                .build();
+        final RpcClient client = new NettyRpcClientBuilder(address).build();
+
+        try {
+            connected.await();
+            final RpcFuture<String> future = client.getRemote().getProxy(Echo.class).echo("hello");
+            assertThat(future.isDone(), equalTo(false));
+
+            release.countDown();
+            assertThat(future.get(), equalTo("hello"));
+        } finally {
+            client.shutdown();
+            disconnected.await();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void localTransportCopiesValuesAccordingToCopyPolicy() throws Exception {
+        final int[] array = {1, 2, 3};
+        final ArrayList<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+        final LocalAddress address = new LocalAddress("netty-rpc-test");
+        final RpcServer server = new NettyRpcServerBuilder(address)
+                .addObject(Identity.class, new Identity() {
+                    @Override
+                    public RpcFuture<Boolean> sameArray(int[] a) {
+                        return DefaultRpcFuture.succeeded(a == array && Arrays.equals(a, array));
+                    }
+
+                    @Override
+                    public RpcFuture<Boolean> sameList(ArrayList<String> l) {
+                        return DefaultRpcFuture.succeeded(l == list && l.equals(list));
+                    }
+                })
+                .build();
+
+        try {
+            final Map<CopyPolicy, Boolean> arraysShared = new HashMap<CopyPolicy, Boolean>();
+            final Map<CopyPolicy, Boolean> listsShared = new HashMap<CopyPolicy, Boolean>();
+            for (CopyPolicy policy : CopyPolicy.values()) {
+                final RpcClient client = new NettyRpcClientBuilder(address).setCopyPolicy(policy).build();
+                try {
+                    final Identity proxy = client.getRemote().getProxy(Identity.class);
+                    arraysShared.put(policy, proxy.sameArray(array).get());
+                    listsShared.put(policy, proxy.sameList(list).get());
+                } finally {
+                    client.shutdown();
+                }
+            }
+
+            assertThat(arraysShared.get(CopyPolicy.NONE), equalTo(true));
+            assertThat(listsShared.get(CopyPolicy.NONE), equalTo(true));
+            assertThat(arraysShared.get(CopyPolicy.CLONE), equalTo(false));
+            assertThat(listsShared.get(CopyPolicy.CLONE), equalTo(false));
+            assertThat(arraysShared.get(CopyPolicy.SERIALIZE), equalTo(false));
+            assertThat(listsShared.get(CopyPolicy.SERIALIZE), equalTo(false));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sharedMemoryTransportTurnsUnwritableAboveHighWatermarkAndBackBelowLowOne() throws Exception {
+        final File directory = File.createTempFile("netty-rpc", ".shm.d");
+        assertThat(directory.delete() && directory.mkdir(), equalTo(true));
+        final SharedMemoryAddress address = new SharedMemoryAddress(directory, 4096);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Boolean> reported = Collections.synchronizedList(new ArrayList<Boolean>());
+        final AtomicReference<Remote> clientRemote = new AtomicReference<Remote>();
+        final CountDownLatch connected = new CountDownLatch(1);
+
+        final RpcServer server = new NettyRpcServerBuilder(address)
+                .setWriteBufferWatermarks(8 * 1024, 16 * 1024)
+                .setOverflowPolicy(OverflowPolicy.FAIL)
+                .addClientListener(new ClientListener() {
+                    @Override
+                    public void onClientConnect(Remote remote) {
+                        clientRemote.set(remote);
+                        connected.countDown();
+                    }
+                    @Override
+                    public void onClientDisconnect(Remote remote) {
+                    }
+                })
+                .addWritabilityListener(new WritabilityListener() {
+                    @Override
+                    public void onWritabilityChanged(Remote remote, boolean writable) {
+                        reported.add(writable);
+                    }
+                })
+                .build();
+
+        final RpcClient client = new NettyRpcClientBuilder(address)
+                .addObject(BytesSink.class, new BytesSink() {
+                    @Override
+                    public void sink(byte[] bytes) {
+                        try {
+                            release.await(); // blocks client's io thread, so it stops reading the ring
+                        } catch (InterruptedException ignored) {}
+                    }
+                })
+                .build();
+
+        try {
+            connected.await();
+            final BytesSink proxy = clientRemote.get().getProxy(BytesSink.class);
+            boolean rejected = false;
+            for (int i = 0; i < 100 && !rejected; i++) {
+                try {
+                    proxy.sink(new byte[4 * 1024]);
+                } catch (WriteBufferOverflowException e) {
+                    rejected = true;
+                }
+            }
+            assertThat(rejected, equalTo(true));
+
+            release.countDown();
+            while (!clientRemote.get().isWritable()) {
+                giveTimeForMessagesToBeProcessed();
+            }
+            giveTimeForMessagesToBeProcessed();
+            assertThat(reported, equalTo(Arrays.asList(false, true)));
+        } finally {
+            release.countDown();
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = TIMEOUT)
+    public void sharedMemoryTransportCarriesMessagesLargerThanRingAndFiresClientListeners() throws Exception {
+        final File directory = File.createTempFile("netty-rpc", ".shm.d");
+        assertThat(directory.delete() && directory.mkdir(), equalTo(true));
+        final SharedMemoryAddress address = new SharedMemoryAddress(directory, 4096);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final RpcServer server = new NettyRpcServerBuilder(address)
+                .addObject(Echo.class, new Echo() {
+                    @Override
+                    public RpcFuture<String> echo(String s) {
+                        return DefaultRpcFuture.succeeded(s);
+                    }
+                })
+                .addClientListener(new ClientListener() {
+                    @Override
+                    public void onClientConnect(Remote remote) {
+                        connected.countDown();
+                    }
+
+                    @Override
+                    public void onClientDisconnect(Remote remote) {
+                        disconnected.countDown();
+                    }
+                })
+                .build();
+
+        try {
+            final RpcClient client = new NettyRpcClientBuilder(address).build();
+            try {
+                connected.await();
+                final Echo proxy = client.getRemote().getProxy(Echo.class);
+                final char[] chars = new char[100000];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) ('a' + i % 26);
+                }
+                final String large = new String(chars);
+                final List<RpcFuture<String>> futures = new ArrayList<RpcFuture<String>>();
+                for (int i = 0; i < 100; i++) {
+                    futures.add(proxy.echo("message" + i));
+                }
+                assertThat(proxy.echo(large).get(), equalTo(large));
+                for (int i = 0; i < futures.size(); i++) {
+                    assertThat(futures.get(i).get(), equalTo("message" + i));
+                }
+            } finally {
+                client.shutdown();
+            }
+            disconnected.await();
+            assertThat(directory.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".shm");
+                }
+            }).length, equalTo(0));
+        } finally {
+            server.shutdown();
+        }
+
+        try {
+            new NettyRpcClientBuilder(address).build();
+            fail("connected without server");
+        } catch (TransportException e) {
+            // expected, without waiting for connect timeout
+        }
+    }
+
+    private static class CountingTransport implements Transport {
+
+        private final Transport delegate;
+        private final AtomicInteger channels = new AtomicInteger();
+        private volatile boolean released;
+
+        private CountingTransport(Transport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean supports(SocketAddress address) {
+            return delegate.supports(address);
+        }
+
+        @Override
+        public ChannelFactory getClientChannelFactory() {
+            return new ChannelFactory() {
+                @Override
+                public Channel newChannel(ChannelPipeline pipeline) {
+                    channels.incrementAndGet();
+                    return delegate.getClientChannelFactory().newChannel(pipeline);
+                }
+
+                @Override
+                public void releaseExternalResources() {
+                }
+            };
+        }
+
+        @Override
+        public ServerChannelFactory getServerChannelFactory() {
+            return new ServerChannelFactory() {
+                @Override
+                public ServerChannel newChannel(ChannelPipeline pipeline) {
+                    channels.incrementAndGet();
+                    return delegate.getServerChannelFactory().newChannel(pipeline);
+                }
+
+                @Override
+                public void releaseExternalResources() {
+                }
+            };
+        }
+
+        @Override
+        public Map<String, Object> getConnectionOptions() {
+            return delegate.getConnectionOptions();
+        }
+
+        @Override
+        public boolean isInJvm() {
+            return delegate.isInJvm();
+        }
+
+        @Override
+        public void releaseExternalResources() {
+            released = true;
+            delegate.releaseExternalResources();
+        }
+    }
+
+    private static long crcOf(byte[] bytes, ByteBuffer... buffers) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        for (ByteBuffer buffer : buffers) {
+            final byte[] content = new byte[buffer.remaining()];
+            buffer.duplicate().get(content);
+            crc.update(content);
+        }
+        return crc.getValue();
+    }
+
+    public interface NoParamsVoidReturn {
+        void go();
+    }
+    public interface NoParamsIntegerReturn {
+        Integer go();
+    }
+
+    public interface PlainFutureReturn {
+        Future<String> go();
+    }
+
+    public interface BytesSink {
+        void sink(byte[] bytes);
+    }
+
+    public interface Identity {
+        RpcFuture<Boolean> sameArray(int[] a);
+        RpcFuture<Boolean> sameList(ArrayList<String> l);
+    }
+
+    public interface StreamSink {
+        RpcFuture<Long> crc(InputStream in);
+        RpcFuture<Integer> firstByte(InputStream in);
+    }
+
+    public interface StreamConsumer {
+        void consume(InputStream in);
+    }
+
+    public interface Checksums {
+        RpcFuture<Long> crc(byte[] bytes, ByteBuffer buffer, FileArgument file);
+    }
+
+    public interface Echo {
+        RpcFuture<String> echo(String s);
+    }
+
+    public interface IntegerParam {
+        void go(Integer i);
+    }
+    public interface IntLongParam {
+        void go(int i, long l);
+    }
+
+    public interface OverloadedString {
+        void go(String s); // though unused, is vital for correctnes of corresponding unit test
+        void go(Serializable s);
+    }
+    private static class CrcStreamSink implements StreamSink {
+        @Override
+        public RpcFuture<Long> crc(InputStream in) {
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[8192];
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                }
+                return DefaultRpcFuture.succeeded(crc.getValue());
+            } catch (IOException e) {
+                return DefaultRpcFuture.failed(e);
+            }
+        }
+
+        @Override
+        public RpcFuture<Integer> firstByte(InputStream in) {
+            try {
+                return DefaultRpcFuture.succeeded(in.read());
+            } catch (IOException e) {
+                return DefaultRpcFuture.failed(e);
+            }
+        }
+    }
+
+    private static class CollectingOverloadedString implements OverloadedString {
+        private final List<Serializable> received;
+
+        private CollectingOverloadedString(List<Serializable> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void go(String s) {
+            received.add(s);
+        }
+
+        @Override
+        public void go(Serializable s) {
+            received.add(s);
+        }
+    }
+
     public interface NonSerializable {
         void param(String s, Object o);
     }
@@ -0,0 +1,35 @@
+package ru.alepar.rpc.api;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void jitteredDelaysVaryBetweenHalfOfDelayAndDelay() throws Exception {
+        final ReconnectPolicy policy = new ReconnectPolicy(100, 1000, 0);
+        final Set<Long> seen = new HashSet<Long>();
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.jitter(1000);
+            assertThat(delay, greaterThanOrEqualTo(500l));
+            assertThat(delay, lessThanOrEqualTo(1000l));
+            seen.add(delay);
+        }
+        assertThat(seen.size(), greaterThan(10));
+    }
+
+    @Test
+    public void delayDoublesUpToMaximum() throws Exception {
+        final ReconnectPolicy policy = new ReconnectPolicy(100, 300, 0);
+        assertThat(policy.nextDelay(100), equalTo(200l));
+        assertThat(policy.nextDelay(200), equalTo(300l));
+    }
+}
@@ -0,0 +1,49 @@
+package ru.alepar.rpc.common;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MethodTableTest {
+
+    @Test
+    public void signaturesResolvedOnOtherSideMapToSameIds() throws Exception {
+        final MethodTable exposing = MethodTable.forInterfaces(Arrays.asList(new InterfaceMethods(Overloaded.class), new InterfaceMethods(Other.class)));
+        final MethodTable calling = MethodTable.forSignatures(Arrays.<Class<?>>asList(Overloaded.class, Other.class), exposing.getSignatures());
+
+        for (Class<?> clazz : new Class<?>[] {Overloaded.class, Other.class}) {
+            for (Method method : clazz.getMethods()) {
+                final MethodTable.Entry entry = calling.find(clazz, method);
+                assertThat(exposing.get(entry.id).method, equalTo(method));
+                assertThat(exposing.get(entry.id).interfaceClass, equalTo((Object) clazz));
+                assertThat(exposing.get(entry.id).invoker, notNullValue());
+            }
+        }
+    }
+
+    @Test
+    public void unknownSignaturesAreIgnored() throws Exception {
+        final MethodTable calling = MethodTable.forSignatures(Collections.<Class<?>>singleton(Other.class), new String[] {"no.Such#method()"});
+
+        assertThat(calling.get(0), nullValue());
+        assertThat(calling.find(Other.class, Other.class.getMethod("go")), nullValue());
+    }
+
+    public interface Overloaded {
+        void go(String s);
+        void go(Serializable s);
+        void go(int i, long l);
+    }
+
+    public interface Other {
+        void go();
+    }
+}
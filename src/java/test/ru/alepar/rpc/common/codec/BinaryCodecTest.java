@@ -0,0 +1,182 @@
+package ru.alepar.rpc.common.codec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+import ru.alepar.rpc.api.FileArgument;
+import ru.alepar.rpc.common.NettyId;
+import ru.alepar.rpc.common.PrimitiveTypesClassResolver;
+import ru.alepar.rpc.common.message.ExceptionNotify;
+import ru.alepar.rpc.common.message.HandshakeFromServer;
+import ru.alepar.rpc.common.message.InvocationRequest;
+import ru.alepar.rpc.common.message.InvocationResponse;
+import ru.alepar.rpc.common.message.RpcMessage;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+import static org.jboss.netty.handler.codec.serialization.ClassResolvers.softCachingConcurrentResolver;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryCodecTest {
+
+    private final Codec codec = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)));
+
+    @Test
+    public void invocationRequestArgumentsSurviveRoundTrip() throws Exception {
+        final Object[] args = new Object[] {
+                null, true, (byte) -3, (short) 300, 'x', -42, Long.MAX_VALUE, 1.5f, -2.25d, "\u0441\u0442\u0440\u043e\u043a\u0430", new byte[] {1, 2, 3}, new Date(1000l)
+        };
+
+        final InvocationRequest decoded = roundTrip(new InvocationRequest(7l, 300, args));
+
+        assertThat(decoded.callId, equalTo(7l));
+        assertThat(decoded.methodId, equalTo(300));
+        assertThat(decoded.args, equalTo(args));
+    }
+
+    @Test
+    public void nullArgumentArrayIsPreserved() throws Exception {
+        final InvocationRequest decoded = roundTrip(new InvocationRequest(InvocationRequest.ONE_WAY, 0, null));
+        assertThat(decoded.args, nullValue());
+    }
+
+    @Test
+    public void emptyAndSingleNullArgumentArraysArePreserved() throws Exception {
+        assertThat(this.<InvocationRequest>roundTrip(new InvocationRequest(1l, 0, new Object[0])).args, equalTo(new Object[0]));
+        assertThat(this.<InvocationRequest>roundTrip(new InvocationRequest(1l, 0, new Object[] {null})).args, equalTo(new Object[] {null}));
+    }
+
+    @Test
+    public void objectFieldsFallBackToJavaSerialization() throws Exception {
+        final HandshakeFromServer handshake = roundTrip(new HandshakeFromServer(new NettyId(0xcafebabe), new String[] {"some.Interface"}, new String[] {"some.Interface#go(int)"}, 4096));
+        assertThat(handshake.clientId, equalTo((Object) new NettyId(0xcafebabe)));
+        assertThat(handshake.classNames, equalTo(new String[] {"some.Interface"}));
+        assertThat(handshake.methodSignatures, equalTo(new String[] {"some.Interface#go(int)"}));
+        assertThat(handshake.compressionThreshold, equalTo(4096));
+
+        final ExceptionNotify notify = roundTrip(new ExceptionNotify(new IllegalStateException("boom")));
+        assertThat(notify.exc, instanceOf(IllegalStateException.class));
+        assertThat(notify.exc.getMessage(), equalTo("boom"));
+    }
+
+    @Test
+    public void invocationResponseSurvivesRoundTrip() throws Exception {
+        final InvocationResponse success = roundTrip(new InvocationResponse(Long.MAX_VALUE, "result", null));
+        assertThat(success.callId, equalTo(Long.MAX_VALUE));
+        assertThat(success.result, equalTo((Object) "result"));
+        assertThat(success.exc, nullValue());
+
+        final InvocationResponse failure = roundTrip(new InvocationResponse(1l, null, new IllegalStateException("boom")));
+        assertThat(failure.result, nullValue());
+        assertThat(failure.exc, instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void largeByteArraysAndBuffersAreReferencedAsSeparateSegments() throws Exception {
+        final byte[] bytes = new byte[BinaryCodec.SEGMENT_THRESHOLD * 2];
+        bytes[1] = 1;
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+
+        final Segments segments = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)))
+                .encodeSegments(new InvocationRequest(1l, 2, new Object[] {bytes, buffer}));
+
+        assertThat(segments.parts().size(), equalTo(4));
+        assertThat(((ChannelBuffer) segments.parts().get(1)).array(), sameInstance(bytes));
+        assertThat(((ChannelBuffer) segments.parts().get(3)).array(), sameInstance(bytes));
+
+        final InvocationRequest decoded = (InvocationRequest) codec.decode(segments.toBuffer());
+        assertThat((byte[]) decoded.args[0], equalTo(bytes));
+        assertThat((ByteBuffer) decoded.args[1], equalTo(buffer));
+    }
+
+    @Test
+    public void fileArgumentIsReceivedAsItsContent() throws Exception {
+        final File file = File.createTempFile("netty-rpc", ".bin");
+        file.deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] {1, 2, 3, 4, 5});
+        } finally {
+            out.close();
+        }
+
+        final InvocationRequest decoded = roundTrip(new InvocationRequest(1l, 2, new Object[] {new FileArgument(file, 1, 3), ByteBuffer.wrap(new byte[] {6})}));
+
+        final FileArgument received = (FileArgument) decoded.args[0];
+        assertThat(received.getFile(), nullValue());
+        assertThat(received.getLength(), equalTo(3l));
+        assertThat(received.getContent(), equalTo(ByteBuffer.wrap(new byte[] {2, 3, 4})));
+        assertThat((ByteBuffer) decoded.args[1], equalTo(ByteBuffer.wrap(new byte[] {6})));
+    }
+
+    @Test
+    public void classDictionaryDescribesClassInFullOnlyOnceAndStillDecodesStatelessFrames() throws Exception {
+        final BinaryCodec sender = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)), true);
+        final BinaryCodec receiver = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)), true);
+        final Object[] args = new Object[] {new Date(1000l), new NettyId(42)};
+
+        final ChannelBuffer first = sender.encode(new InvocationRequest(1l, 2, args));
+        final ChannelBuffer stateless = sender.encodeStateless(new InvocationRequest(1l, 2, args));
+        final ChannelBuffer second = sender.encode(new InvocationRequest(1l, 2, args));
+
+        assertThat(second.readableBytes() * 2, lessThan(first.readableBytes()));
+        assertThat(stateless.readableBytes() * 2, greaterThan(first.readableBytes()));
+        assertThat(((InvocationRequest) receiver.decode(first)).args, equalTo(args));
+        assertThat(((InvocationRequest) receiver.decode(stateless)).args, equalTo(args));
+        assertThat(((InvocationRequest) receiver.decode(second)).args, equalTo(args));
+    }
+
+    @Test
+    public void classesDescribedByMessageWhichFailedToEncodeAreDescribedAgain() throws Exception {
+        final BinaryCodec sender = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)), true);
+        final BinaryCodec receiver = new BinaryCodec(new PrimitiveTypesClassResolver(softCachingConcurrentResolver(null)), true);
+
+        try {
+            sender.encode(new InvocationRequest(1l, 2, new Object[] {new Date(1000l), new Object()}));
+            fail("plain object is not serializable");
+        } catch (NotSerializableException expected) {
+        }
+        final InvocationRequest decoded = (InvocationRequest) receiver.decode(sender.encode(new InvocationRequest(1l, 2, new Object[] {new Date(1000l)})));
+
+        assertThat(decoded.args, equalTo(new Object[] {new Date(1000l)}));
+    }
+
+    @Test
+    public void lengthsExceedingFrameAreRejectedBeforeAllocation() throws Exception {
+        final byte[][] frames = new byte[][] {
+                {4, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07},    // argument count of Integer.MAX_VALUE
+                {4, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},    // negative argument count
+                {4, 0, 0, 2, 11, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, // byte array of Integer.MAX_VALUE
+                {2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F},                 // handshake with 256M class names
+                {7, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07},    // stream chunk of Integer.MAX_VALUE
+                {7, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},    // stream chunk of negative length
+        };
+        for (byte[] frame : frames) {
+            try {
+                codec.decode(wrappedBuffer(frame));
+                fail("length exceeding frame should be rejected");
+            } catch (StreamCorruptedException expected) {
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private <T> T roundTrip(RpcMessage msg) throws Exception {
+        final ChannelBuffer encoded = codec.encode(msg);
+        final Object decoded = codec.decode(encoded);
+        assertThat(encoded.readable(), equalTo(false));
+        return (T) decoded;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.alepar.rpc.common.metrics;
+
+import org.junit.Test;
+import ru.alepar.rpc.api.MetricsSnapshot;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void valuesAreKeptWithRelativeErrorUnderOneSixteenth() throws Exception {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            final long kept = LatencyHistogram.valueOf(LatencyHistogram.indexOf(value));
+            assertThat(Math.abs(kept - value) * 16, lessThanOrEqualTo(value));
+        }
+        assertThat(LatencyHistogram.indexOf(Long.MAX_VALUE), equalTo(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void percentilesAreTakenFromRecordedDistribution() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        final MetricsSnapshot.Latency latency = LatencyHistogram.summarize(histogram.counts());
+
+        assertThat(latency.getCount(), equalTo(1000l));
+        assertThat(Math.abs(latency.getP50() - 500000), lessThanOrEqualTo(500000l / 16));
+        assertThat(Math.abs(latency.getP99() - 990000), lessThanOrEqualTo(990000l / 16));
+        assertThat(Math.abs(latency.getMax() - 1000000), lessThanOrEqualTo(1000000l / 16));
+    }
+
+    @Test
+    public void emptyHistogramIsSummarizedAsZeroes() throws Exception {
+        final MetricsSnapshot.Latency latency = LatencyHistogram.summarize(new LatencyHistogram().counts());
+
+        assertThat(latency.getCount(), equalTo(0l));
+        assertThat(latency.getMax(), equalTo(0l));
+    }
+}
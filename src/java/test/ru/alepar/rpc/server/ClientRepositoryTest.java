@@ -18,7 +18,7 @@ public class ClientRepositoryTest {
         assertThat(clients.isEmpty(), equalTo(true));
 
         final NettyId clientId = new NettyId(0xcafebabe);
-        repo.addClient(new NettyRemote(null, clientId, null));
+        repo.addClient(new NettyRemote(null, clientId, null, null, null, null));
         assertThat(clients.size(), equalTo(1));
 
         repo.removeClient(clientId);